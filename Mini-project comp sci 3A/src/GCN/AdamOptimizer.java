@@ -1,16 +1,41 @@
 package GCN;
 
+import java.util.stream.IntStream;
+
+import WGraph.Precision;
+
+/**
+ * Adam over a flat {@link ParameterStore}: one fused pass scales and clips
+ * each gradient, updates both moments and applies the step. Large stores
+ * are split into chunks that run on the common fork-join pool. With
+ * {@link Precision#FLOAT} the moments are stored as float and the
+ * parameters are rounded to float after every step.
+ */
 public class AdamOptimizer {
+    // Parameters per chunk when the update is split across cores
+    private static final int CHUNK = 1 << 14;
+
     private double beta1 = 0.9;
     private double beta2 = 0.999;
     private double epsilon = 1e-8;
     private double currentLR;
     private long t = 0;
-    private double[][] m;
-    private double[][] v;
+    // beta1^t and beta2^t, kept as running products instead of calling Math.pow every step
+    private double beta1Power = 1.0, beta2Power = 1.0;
+    private final Precision precision;
+    private double[] m;
+    private double[] v;
+    // Moments for FLOAT precision, used instead of m and v
+    private float[] floatM;
+    private float[] floatV;
 
     public AdamOptimizer(double learningRate) {
+        this(learningRate, Precision.DOUBLE);
+    }
+
+    public AdamOptimizer(double learningRate, Precision precision) {
         this.currentLR = learningRate;
+        this.precision = precision;
     }
 
     public void setCurrentLR(double lr) {
@@ -18,49 +43,64 @@ public class AdamOptimizer {
     }
 
     /**
-     * Performs an Adam update on the given weights using the provided gradients.
-     * This method modifies the weights array in-place and does not return a new array.
+     * Performs one Adam step on params in place. Each gradient is first
+     * multiplied by gradScale (e.g. 1 / batch size) and clipped to
+     * [-clipThreshold, clipThreshold]; grads itself is left unchanged.
      */
-    public void update(double[][] weights, double[][] gradW) {
+    public void update(double[] params, double[] grads, double gradScale, double clipThreshold) {
+        if (params.length != grads.length)
+            throw new IllegalArgumentException("Expected " + params.length + " gradients, got " + grads.length);
         t++;  // increment timestep
-
-        // Ensure dimensions match
-        assert weights.length == gradW.length && weights[0].length == gradW[0].length
-            : "Dimension mismatch in Adam update";
-
-        // Initialize moment accumulators on first call or if shape changes
-        if (m == null || m.length != weights.length || m[0].length != weights[0].length) {
-            m = new double[weights.length][weights[0].length];
-            v = new double[weights.length][weights[0].length];
+        beta1Power *= beta1;
+        beta2Power *= beta2;
+
+        // Initialize moment accumulators on first call or if the size changes
+        boolean single = precision == Precision.FLOAT;
+        if (single && (floatM == null || floatM.length != params.length)) {
+            floatM = new float[params.length];
+            floatV = new float[params.length];
+        } else if (!single && (m == null || m.length != params.length)) {
+            m = new double[params.length];
+            v = new double[params.length];
         }
 
-        // Precompute bias-correction denominators
-        double biasCorr1 = 1 - Math.pow(beta1, t);
-        double biasCorr2 = 1 - Math.pow(beta2, t);
+        // Bias-correction denominators
+        double biasCorr1 = 1 - beta1Power;
+        double biasCorr2 = 1 - beta2Power;
 
-        for (int i = 0; i < weights.length; i++) {
-            for (int j = 0; j < weights[0].length; j++) {
-                // Update biased first moment estimate
-                m[i][j] = beta1 * m[i][j] + (1 - beta1) * gradW[i][j];
-                // Update biased second raw moment estimate
-                v[i][j] = beta2 * v[i][j] + (1 - beta2) * gradW[i][j] * gradW[i][j];
-
-                // Compute bias-corrected moment estimates
-                double mHat = m[i][j] / biasCorr1;
-                double vHat = v[i][j] / biasCorr2;
+        ElementwiseKernels kernels = Kernels.get();
+        int n = params.length;
+        if (n <= CHUNK) {
+            step(kernels, params, grads, 0, n, gradScale, clipThreshold, biasCorr1, biasCorr2);
+            return;
+        }
+        IntStream.range(0, (n + CHUNK - 1) / CHUNK).parallel().forEach(c ->
+            step(kernels, params, grads, c * CHUNK, Math.min(n, (c + 1) * CHUNK),
+                gradScale, clipThreshold, biasCorr1, biasCorr2));
+    }
 
-                // Update weight
-                weights[i][j] -= currentLR * mHat / (Math.sqrt(vHat) + epsilon);
-            }
+    private void step(ElementwiseKernels kernels, double[] params, double[] grads, int from, int to,
+                      double gradScale, double clipThreshold, double biasCorr1, double biasCorr2) {
+        if (precision == Precision.FLOAT) {
+            kernels.adamUpdate(params, grads, floatM, floatV, from, to, gradScale, clipThreshold,
+                currentLR, beta1, beta2, biasCorr1, biasCorr2, epsilon);
+        } else {
+            kernels.adamUpdate(params, grads, m, v, from, to, gradScale, clipThreshold,
+                currentLR, beta1, beta2, biasCorr1, biasCorr2, epsilon);
         }
     }
 
+    public Precision getPrecision() {
+        return precision;
+    }
+
 	public double getBeta1() {
 		return beta1;
 	}
 
 	public void setBeta1(double beta1) {
 		this.beta1 = beta1;
+		beta1Power = Math.pow(beta1, t);
 	}
 
 	public double getBeta2() {
@@ -69,6 +109,7 @@ public class AdamOptimizer {
 
 	public void setBeta2(double beta2) {
 		this.beta2 = beta2;
+		beta2Power = Math.pow(beta2, t);
 	}
 
 	public double getEpsilon() {
@@ -85,26 +126,48 @@ public class AdamOptimizer {
 
 	public void setT(long t) {
 		this.t = t;
+		beta1Power = Math.pow(beta1, t);
+		beta2Power = Math.pow(beta2, t);
+	}
+
+	/**
+	 * First moments, laid out like the parameter store; null before the first
+	 * update. With FLOAT precision this is a widened copy.
+	 */
+	public double[] getM() {
+		return precision == Precision.FLOAT ? widen(floatM) : m;
+	}
+
+	public void setM(double[] m) {
+		if (precision == Precision.FLOAT) floatM = narrow(m);
+		else this.m = m;
 	}
 
-	public double[][] getM() {
-		return m;
+	/** Second moments, like {@link #getM()} */
+	public double[] getV() {
+		return precision == Precision.FLOAT ? widen(floatV) : v;
 	}
 
-	public void setM(double[][] m) {
-		this.m = m;
+	public void setV(double[] v) {
+		if (precision == Precision.FLOAT) floatV = narrow(v);
+		else this.v = v;
 	}
 
-	public double[][] getV() {
-		return v;
+	private static double[] widen(float[] a) {
+		if (a == null) return null;
+		double[] d = new double[a.length];
+		for (int k = 0; k < a.length; k++) d[k] = a[k];
+		return d;
 	}
 
-	public void setV(double[][] v) {
-		this.v = v;
+	private static float[] narrow(double[] a) {
+		if (a == null) return null;
+		float[] f = new float[a.length];
+		for (int k = 0; k < a.length; k++) f[k] = (float) a[k];
+		return f;
 	}
 
 	public double getCurrentLR() {
 		return currentLR;
 	}
 }
-
@@ -0,0 +1,86 @@
+package GCN;
+
+import WGraph.FloatMatrix;
+import WGraph.GraphBatch;
+import WGraph.Matrix;
+
+/**
+ * Activations of one forward pass over a {@link GraphBatch}. Node-level
+ * matrices hold the rows of every graph in the batch; pooled features,
+ * argmax rows and outputs hold one row per graph. Like {@link ForwardPass},
+ * it lives in the buffers of the workspace it was computed in, and keeps
+ * the node-level activations in the float fields when the model computes
+ * in FLOAT.
+ */
+public class BatchForwardPass {
+    GraphBatch batch;
+    Matrix pre1, z1, h1;
+    Matrix ah1;
+    Matrix pre2, z2, h2;
+    Matrix combined;     // [graphs x 2 * hidden]
+    int[] maxIndices;    // [graphs x hidden], rows of h2 (batch-wide)
+    Matrix output;       // [graphs x classes]
+
+    // FLOAT: the parameters rounded to float and the activations, named as above; null otherwise
+    float[] parameters;
+    FloatMatrix floatPre1, floatZ1, floatH1;
+    FloatMatrix floatAh1;
+    FloatMatrix floatPre2, floatZ2, floatH2;
+
+    BatchForwardPass() {
+    }
+
+    void set(GraphBatch batch, Matrix pre1, Matrix z1, Matrix h1, Matrix ah1, Matrix pre2, Matrix z2,
+             Matrix h2, Matrix combined, int[] maxIndices, Matrix output) {
+        this.batch = batch;
+        this.pre1 = pre1;
+        this.z1 = z1;
+        this.h1 = h1;
+        this.ah1 = ah1;
+        this.pre2 = pre2;
+        this.z2 = z2;
+        this.h2 = h2;
+        this.combined = combined;
+        this.maxIndices = maxIndices;
+        this.output = output;
+        setFloat(null, null, null, null, null, null, null, null);
+    }
+
+    void setFloat(GraphBatch batch, float[] parameters, FloatMatrix pre1, FloatMatrix z1, FloatMatrix h1,
+                  FloatMatrix ah1, FloatMatrix pre2, FloatMatrix z2, FloatMatrix h2,
+                  Matrix combined, int[] maxIndices, Matrix output) {
+        set(batch, null, null, null, null, null, null, null, combined, maxIndices, output);
+        setFloat(parameters, pre1, z1, h1, ah1, pre2, z2, h2);
+    }
+
+    private void setFloat(float[] parameters, FloatMatrix pre1, FloatMatrix z1, FloatMatrix h1,
+                          FloatMatrix ah1, FloatMatrix pre2, FloatMatrix z2, FloatMatrix h2) {
+        this.parameters = parameters;
+        this.floatPre1 = pre1;
+        this.floatZ1 = z1;
+        this.floatH1 = h1;
+        this.floatAh1 = ah1;
+        this.floatPre2 = pre2;
+        this.floatZ2 = z2;
+        this.floatH2 = h2;
+    }
+
+    public GraphBatch getBatch() {
+        return batch;
+    }
+
+    /** Softmax class probabilities, one row per graph */
+    public Matrix getOutput() {
+        return output;
+    }
+
+    public Matrix getCombined() {
+        return combined;
+    }
+
+    /** Row of the batch that holds the maximum of graph g in feature j */
+    public int getMaxIndex(int g, int featureDim) {
+        int width = combined.getCols() / 2;
+        return maxIndices[g * width + featureDim];
+    }
+}
@@ -2,6 +2,8 @@ package GCN;
 
 import java.util.Arrays;
 
+import WGraph.Matrix;
+
 public class BatchNorm1d {
     private int features;
     private double eps = 1e-5, momentum = 0.1;
@@ -15,19 +17,19 @@ public class BatchNorm1d {
     }
 
     /** Forward pass on shape [nodes][features]. */
-    public double[][] forward(double[][] X, boolean training) {
-        int N = X.length;
+    public Matrix forward(Matrix X, boolean training) {
+        int N = X.getRows();
         double[] batchMean = new double[features], batchVar = new double[features];
         // 1) Compute batch mean
-        for (double[] row : X)
+        for (int i = 0; i < N; i++)
             for (int j = 0; j < features; j++)
-                batchMean[j] += row[j];
+                batchMean[j] += X.get(i, j);
         for (int j = 0; j < features; j++)
             batchMean[j] /= N;
         // 2) Compute batch var
-        for (double[] row : X)
+        for (int i = 0; i < N; i++)
             for (int j = 0; j < features; j++)
-                batchVar[j] += Math.pow(row[j] - batchMean[j], 2);
+                batchVar[j] += Math.pow(X.get(i, j) - batchMean[j], 2);
         for (int j = 0; j < features; j++)
             batchVar[j] /= N;
 
@@ -43,11 +45,11 @@ public class BatchNorm1d {
         }
 
         // 4) Normalize
-        double[][] out = new double[N][features];
+        Matrix out = new Matrix(N, features);
         for (int i = 0; i < N; i++) {
             for (int j = 0; j < features; j++) {
-                double xhat = (X[i][j] - batchMean[j]) / Math.sqrt(batchVar[j] + eps);
-                out[i][j] = gamma[j] * xhat + beta[j];
+                double xhat = (X.get(i, j) - batchMean[j]) / Math.sqrt(batchVar[j] + eps);
+                out.set(i, j, gamma[j] * xhat + beta[j]);
             }
         }
         return out;
@@ -0,0 +1,297 @@
+package GCN;
+
+import java.util.Arrays;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+import WGraph.SparseMatrix;
+
+/**
+ * Single-threaded kernels that walk memory row by row and tile the loops so
+ * the working set of A, B and C stays in cache. For every output element
+ * the products are summed in the same order as in {@link ReferenceBackend},
+ * so results are identical, not just close. The float kernels run the same
+ * loops over float rows, twice as many elements per vector as double; all
+ * but gemmTN accumulate in float, so they agree with the reference to
+ * float rounding.
+ */
+public class BlockedBackend implements MatrixBackend {
+    // Tile sizes in elements: rows of C, shared dimension, columns of C
+    private static final int MC = 64;
+    private static final int KC = 256;
+    private static final int NC = 512;
+
+    @Override
+    public String name() {
+        return "blocked";
+    }
+
+    @Override
+    public void gemm(Matrix A, Matrix B, Matrix C, boolean accumulate) {
+        int m = A.getRows(), K = A.getCols(), n = B.getCols();
+        MatrixBackend.checkGemm(m, K, B.getRows(), n, C);
+        if (!accumulate) C.fill(0.0);
+        double[] a = A.getData(), b = B.getData(), c = C.getData();
+
+        for (int i0 = 0; i0 < m; i0 += MC) {
+            int iEnd = Math.min(m, i0 + MC);
+            for (int k0 = 0; k0 < K; k0 += KC) {
+                int kEnd = Math.min(K, k0 + KC);
+                for (int j0 = 0; j0 < n; j0 += NC) {
+                    int len = Math.min(n, j0 + NC) - j0;
+                    for (int i = i0; i < iEnd; i++) {
+                        int ci = C.index(i, j0);
+                        int ai = A.index(i, 0);
+                        for (int k = k0; k < kEnd; k++) {
+                            double aik = a[ai + k];
+                            int bk = B.index(k, j0);
+                            for (int j = 0; j < len; j++) {
+                                c[ci + j] += aik * b[bk + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void gemmTN(Matrix A, Matrix B, Matrix C, boolean accumulate) {
+        int m = A.getCols(), K = A.getRows(), n = B.getCols();
+        MatrixBackend.checkGemm(m, K, B.getRows(), n, C);
+        if (!accumulate) C.fill(0.0);
+        double[] a = A.getData(), b = B.getData(), c = C.getData();
+
+        for (int i0 = 0; i0 < m; i0 += MC) {
+            int iEnd = Math.min(m, i0 + MC);
+            for (int j0 = 0; j0 < n; j0 += NC) {
+                int len = Math.min(n, j0 + NC) - j0;
+                for (int k = 0; k < K; k++) {
+                    int ak = A.index(k, 0);
+                    int bk = B.index(k, j0);
+                    for (int i = i0; i < iEnd; i++) {
+                        double aki = a[ak + i];
+                        int ci = C.index(i, j0);
+                        for (int j = 0; j < len; j++) {
+                            c[ci + j] += aki * b[bk + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void gemmNT(Matrix A, Matrix B, Matrix C, boolean accumulate) {
+        int m = A.getRows(), K = A.getCols(), n = B.getRows();
+        MatrixBackend.checkGemm(m, K, B.getCols(), n, C);
+        double[] a = A.getData(), b = B.getData(), c = C.getData();
+
+        for (int i0 = 0; i0 < m; i0 += MC) {
+            int iEnd = Math.min(m, i0 + MC);
+            for (int j0 = 0; j0 < n; j0 += MC) {
+                int jEnd = Math.min(n, j0 + MC);
+                for (int i = i0; i < iEnd; i++) {
+                    int ai = A.index(i, 0);
+                    int ci = C.index(i, 0);
+                    for (int j = j0; j < jEnd; j++) {
+                        int bj = B.index(j, 0);
+                        double sum = accumulate ? c[ci + j] : 0.0;
+                        for (int k = 0; k < K; k++) {
+                            sum += a[ai + k] * b[bj + k];
+                        }
+                        c[ci + j] = sum;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void gemv(Matrix A, double[] x, double[] y, boolean accumulate) {
+        int rows = A.getRows(), cols = A.getCols();
+        if (x.length != cols || y.length != rows)
+            throw new IllegalArgumentException("gemv dimension mismatch");
+        double[] a = A.getData();
+        for (int i = 0; i < rows; i++) {
+            int ai = A.index(i, 0);
+            double sum = accumulate ? y[i] : 0.0;
+            for (int j = 0; j < cols; j++) {
+                sum += a[ai + j] * x[j];
+            }
+            y[i] = sum;
+        }
+    }
+
+    @Override
+    public void gemvT(Matrix A, double[] x, double[] y, boolean accumulate) {
+        int rows = A.getRows(), cols = A.getCols();
+        if (x.length != rows || y.length != cols)
+            throw new IllegalArgumentException("gemvT dimension mismatch");
+        if (!accumulate) Arrays.fill(y, 0.0);
+        double[] a = A.getData();
+        for (int i = 0; i < rows; i++) {
+            int ai = A.index(i, 0);
+            double xi = x[i];
+            for (int j = 0; j < cols; j++) {
+                y[j] += a[ai + j] * xi;
+            }
+        }
+    }
+
+    @Override
+    public void outer(double[] x, double[] y, Matrix C, boolean accumulate) {
+        if (C.getRows() != x.length || C.getCols() != y.length)
+            throw new IllegalArgumentException("outer dimension mismatch");
+        double[] c = C.getData();
+        for (int i = 0; i < x.length; i++) {
+            int ci = C.index(i, 0);
+            double xi = x[i];
+            if (accumulate) {
+                for (int j = 0; j < y.length; j++) c[ci + j] += xi * y[j];
+            } else {
+                for (int j = 0; j < y.length; j++) c[ci + j] = xi * y[j];
+            }
+        }
+    }
+
+    @Override
+    public void spmm(SparseMatrix A, Matrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getRows(), B.getCols(), C);
+        spmmRows(A, B, C, 0, A.getRows(), accumulate);
+    }
+
+    /**
+     * Computes rows [rowStart, rowEnd) of C = A * B.
+     */
+    void spmmRows(SparseMatrix A, Matrix B, Matrix C, int rowStart, int rowEnd, boolean accumulate) {
+        int[] rowPtr = A.getRowPtr(), colIdx = A.getColIdx();
+        double[] values = A.getValues();
+        double[] b = B.getData(), c = C.getData();
+        int d = B.getCols();
+        for (int i = rowStart; i < rowEnd; i++) {
+            int ci = C.index(i, 0);
+            if (!accumulate) Arrays.fill(c, ci, ci + d, 0.0);
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                double v = values[p];
+                int bk = B.index(colIdx[p], 0);
+                for (int j = 0; j < d; j++) {
+                    c[ci + j] += v * b[bk + j];
+                }
+            }
+        }
+    }
+
+    @Override
+    public void gemm(FloatMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate) {
+        int m = A.getRows(), K = A.getCols(), n = B.getCols();
+        MatrixBackend.checkGemm(m, K, B.getRows(), n, C);
+        if (!accumulate) C.fill(0f);
+        float[] a = A.getData(), b = B.getData(), c = C.getData();
+
+        for (int i0 = 0; i0 < m; i0 += MC) {
+            int iEnd = Math.min(m, i0 + MC);
+            for (int k0 = 0; k0 < K; k0 += KC) {
+                int kEnd = Math.min(K, k0 + KC);
+                for (int j0 = 0; j0 < n; j0 += NC) {
+                    int len = Math.min(n, j0 + NC) - j0;
+                    for (int i = i0; i < iEnd; i++) {
+                        int ci = C.index(i, j0);
+                        int ai = A.index(i, 0);
+                        for (int k = k0; k < kEnd; k++) {
+                            float aik = a[ai + k];
+                            int bk = B.index(k, j0);
+                            for (int j = 0; j < len; j++) {
+                                c[ci + j] += aik * b[bk + j];
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void gemmTN(FloatMatrix A, FloatMatrix B, Matrix C, boolean accumulate) {
+        int m = A.getCols(), K = A.getRows(), n = B.getCols();
+        MatrixBackend.checkGemm(m, K, B.getRows(), n, C);
+        if (!accumulate) C.fill(0.0);
+        float[] a = A.getData(), b = B.getData();
+        double[] c = C.getData();
+        // The tile of B's row k, widened once instead of for every row of C
+        double[] bRow = new double[Math.min(n, NC)];
+
+        for (int i0 = 0; i0 < m; i0 += MC) {
+            int iEnd = Math.min(m, i0 + MC);
+            for (int j0 = 0; j0 < n; j0 += NC) {
+                int len = Math.min(n, j0 + NC) - j0;
+                for (int k = 0; k < K; k++) {
+                    int ak = A.index(k, 0);
+                    int bk = B.index(k, j0);
+                    for (int j = 0; j < len; j++) bRow[j] = b[bk + j];
+                    for (int i = i0; i < iEnd; i++) {
+                        // A product of two floats is exact in double
+                        double aki = a[ak + i];
+                        int ci = C.index(i, j0);
+                        for (int j = 0; j < len; j++) {
+                            c[ci + j] += aki * bRow[j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void gemmNT(FloatMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate) {
+        int m = A.getRows(), K = A.getCols(), n = B.getRows();
+        MatrixBackend.checkGemm(m, K, B.getCols(), n, C);
+        float[] a = A.getData(), b = B.getData(), c = C.getData();
+
+        for (int i0 = 0; i0 < m; i0 += MC) {
+            int iEnd = Math.min(m, i0 + MC);
+            for (int j0 = 0; j0 < n; j0 += MC) {
+                int jEnd = Math.min(n, j0 + MC);
+                for (int i = i0; i < iEnd; i++) {
+                    int ai = A.index(i, 0);
+                    int ci = C.index(i, 0);
+                    for (int j = j0; j < jEnd; j++) {
+                        int bj = B.index(j, 0);
+                        float sum = accumulate ? c[ci + j] : 0f;
+                        for (int k = 0; k < K; k++) {
+                            sum += a[ai + k] * b[bj + k];
+                        }
+                        c[ci + j] = sum;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void spmm(SparseMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getRows(), B.getCols(), C);
+        spmmRows(A, B, C, 0, A.getRows(), accumulate);
+    }
+
+    /**
+     * Computes rows [rowStart, rowEnd) of C = A * B in float.
+     */
+    void spmmRows(SparseMatrix A, FloatMatrix B, FloatMatrix C, int rowStart, int rowEnd, boolean accumulate) {
+        int[] rowPtr = A.getRowPtr(), colIdx = A.getColIdx();
+        double[] values = A.getValues();
+        float[] b = B.getData(), c = C.getData();
+        int d = B.getCols();
+        for (int i = rowStart; i < rowEnd; i++) {
+            int ci = C.index(i, 0);
+            if (!accumulate) Arrays.fill(c, ci, ci + d, 0f);
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                float v = (float) values[p];
+                int bk = B.index(colIdx[p], 0);
+                for (int j = 0; j < d; j++) {
+                    c[ci + j] += v * b[bk + j];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package GCN;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import WGraph.Precision;
+
+/**
+ * Self-describing binary checkpoint of a model and its training state.
+ * Everything is little-endian:
+ *
+ * <pre>
+ *   0  "GCNC"                 magic
+ *   4  int    version         currently 1
+ *   8  int    input, hidden, output, propagation hops
+ *  24  int    precision       0 = DOUBLE, 1 = FLOAT
+ *  28  int    epoch
+ *  32  double learning rate
+ *  40  double validation accuracy, in percent
+ *  48  long   Adam step count
+ *  56  int    parameter count
+ *  60  int    flags           bit 0: optimizer moments present
+ *  64  int    layout length, then the UTF-8 {@link ParameterStore#describeLayout() layout}
+ *      zero padding to a multiple of 8
+ *      parameters, then first and second moments if present; parameter
+ *      count values each, stored as double or float according to precision
+ * </pre>
+ *
+ * Files are written with one FileChannel write and read through a
+ * MappedByteBuffer, so saving and loading run at about the speed of
+ * copying the file. {@link CheckpointWriter} writes snapshots in the
+ * background during training.
+ */
+public final class Checkpoint {
+    public static final String EXTENSION = ".ckpt";
+
+    private static final byte[] MAGIC = { 'G', 'C', 'N', 'C' };
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 68;
+    private static final int HAS_MOMENTS = 1;
+
+    // Header fields
+    public final int inputSize, hiddenSize, outputSize, propagationHops;
+    public final Precision precision;
+    public final int epoch;
+    public final double learningRate, accuracy;
+    public final long step;
+    public final String layout;
+
+    // Mapped file and where the sections start
+    private final ByteBuffer data;
+    private final int parameterCount;
+    private final boolean hasMoments;
+    private final int sectionsStart;
+
+    private Checkpoint(ByteBuffer data) throws IOException {
+        this.data = data;
+        for (int k = 0; k < MAGIC.length; k++) {
+            if (data.get(k) != MAGIC[k]) throw new IOException("Not a checkpoint file");
+        }
+        int version = data.getInt(4);
+        if (version != VERSION) throw new IOException("Unsupported checkpoint version " + version);
+        inputSize = data.getInt(8);
+        hiddenSize = data.getInt(12);
+        outputSize = data.getInt(16);
+        propagationHops = data.getInt(20);
+        precision = Precision.values()[data.getInt(24)];
+        epoch = data.getInt(28);
+        learningRate = data.getDouble(32);
+        accuracy = data.getDouble(40);
+        step = data.getLong(48);
+        parameterCount = data.getInt(56);
+        hasMoments = (data.getInt(60) & HAS_MOMENTS) != 0;
+        byte[] layoutBytes = new byte[data.getInt(64)];
+        data.position(HEADER_BYTES);
+        data.get(layoutBytes);
+        layout = new String(layoutBytes, StandardCharsets.UTF_8);
+        sectionsStart = align(HEADER_BYTES + layoutBytes.length);
+        long expected = sectionsStart + (long) parameterCount * elementBytes(precision) * (hasMoments ? 3 : 1);
+        if (data.capacity() < expected) throw new IOException("Truncated checkpoint file");
+    }
+
+    /** True if the file starts with the checkpoint magic */
+    public static boolean isCheckpoint(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] head = new byte[MAGIC.length];
+            return in.length() >= HEADER_BYTES && in.read(head) == head.length
+                && Arrays.equals(head, MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Maps the file and reads its header; the sections are read on demand */
+    public static Checkpoint open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Checkpoint(mapped.order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    /**
+     * Copy of everything a checkpoint stores, taken between training steps so
+     * that it can be written while training goes on.
+     */
+    public static final class Snapshot {
+        final int inputSize, hiddenSize, outputSize, propagationHops;
+        final Precision precision;
+        final String layout;
+        final double[] values, m, v;  // m and v are null without optimizer state
+        final long step;
+        public final int epoch;
+        public final double learningRate, accuracy;
+
+        private Snapshot(GCNModel model, AdamOptimizer optimizer, int epoch, double learningRate, double accuracy) {
+            inputSize = model.gcn1.weights.getRows();
+            hiddenSize = model.gcn1.weights.getCols();
+            outputSize = model.dense.outputDim;
+            propagationHops = model.getPropagationHops();
+            precision = model.getPrecision();
+            layout = model.getParameters().describeLayout();
+            values = model.getParameters().getValues().clone();
+            double[] m = optimizer == null ? null : optimizer.getM();
+            double[] v = optimizer == null ? null : optimizer.getV();
+            boolean moments = m != null && v != null;
+            // FLOAT moments are already widened copies; DOUBLE ones are the live arrays
+            this.m = !moments ? null : precision == Precision.FLOAT ? m : m.clone();
+            this.v = !moments ? null : precision == Precision.FLOAT ? v : v.clone();
+            step = optimizer == null ? 0 : optimizer.getT();
+            this.epoch = epoch;
+            this.learningRate = learningRate;
+            this.accuracy = accuracy;
+        }
+    }
+
+    /**
+     * Copies the model's parameters and, if optimizer is non-null and has
+     * taken a step, its moments and step count.
+     */
+    public static Snapshot snapshot(GCNModel model, AdamOptimizer optimizer,
+                                    int epoch, double learningRate, double accuracy) {
+        return new Snapshot(model, optimizer, epoch, learningRate, accuracy);
+    }
+
+    /** Writes the model and optimizer state as they are now, see {@link #write(File, Snapshot)} */
+    public static void write(File file, GCNModel model, AdamOptimizer optimizer,
+                             int epoch, double learningRate, double accuracy) throws IOException {
+        write(file, snapshot(model, optimizer, epoch, learningRate, accuracy));
+    }
+
+    /**
+     * Writes a snapshot, with values stored at its precision. The file is
+     * written under a temporary name, forced to disk and then renamed into
+     * place, so a crash never leaves a partly written checkpoint behind.
+     */
+    public static void write(File file, Snapshot s) throws IOException {
+        boolean moments = s.m != null;
+        int count = s.values.length;
+        byte[] layoutBytes = s.layout.getBytes(StandardCharsets.UTF_8);
+        int start = align(HEADER_BYTES + layoutBytes.length);
+        long size = start + (long) count * elementBytes(s.precision) * (moments ? 3 : 1);
+        if (size > Integer.MAX_VALUE) throw new IOException("Model too large for a checkpoint: " + size + " bytes");
+
+        ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(s.inputSize);
+        buf.putInt(s.hiddenSize);
+        buf.putInt(s.outputSize);
+        buf.putInt(s.propagationHops);
+        buf.putInt(s.precision.ordinal());
+        buf.putInt(s.epoch);
+        buf.putDouble(s.learningRate);
+        buf.putDouble(s.accuracy);
+        buf.putLong(s.step);
+        buf.putInt(count);
+        buf.putInt(moments ? HAS_MOMENTS : 0);
+        buf.putInt(layoutBytes.length);
+        buf.put(layoutBytes);
+        buf.position(start);
+        putSection(buf, s.values, s.precision);
+        if (moments) {
+            putSection(buf, s.m, s.precision);
+            putSection(buf, s.v, s.precision);
+        }
+        buf.flip();
+
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A model of the checkpoint's shape, hops and precision with its
+     * parameters loaded, or null if the stored layout does not fit that shape.
+     */
+    public GCNModel createModel() {
+        GCNModel model = new GCNModel(inputSize, hiddenSize, outputSize, propagationHops, precision);
+        if (!matches(model)) return null;
+        readSection(0, model.getParameters().getValues());
+        return model;
+    }
+
+    /**
+     * Checks that the model has the checkpoint's shape and parameter layout;
+     * prints why not and returns false otherwise.
+     */
+    public boolean matches(GCNModel model) {
+        if (model.getPropagationHops() != propagationHops) {
+            System.out.println("Checkpoint was trained with " + propagationHops + " propagation hops, model uses "
+                + model.getPropagationHops());
+            return false;
+        }
+        if (!model.getParameters().describeLayout().equals(layout)) {
+            System.out.println("Checkpoint layout " + layout + " does not match model layout "
+                + model.getParameters().describeLayout());
+            return false;
+        }
+        return true;
+    }
+
+    /** The parameters, widened to double if stored as float */
+    public void readParameters(double[] values) {
+        readSection(0, values);
+    }
+
+    /** First moments, or null if the checkpoint has none */
+    public double[] readFirstMoments() {
+        return hasMoments ? readSection(1, new double[parameterCount]) : null;
+    }
+
+    /** Second moments, or null if the checkpoint has none */
+    public double[] readSecondMoments() {
+        return hasMoments ? readSection(2, new double[parameterCount]) : null;
+    }
+
+    private double[] readSection(int section, double[] out) {
+        if (out.length != parameterCount)
+            throw new IllegalArgumentException("Expected " + parameterCount + " values, got " + out.length);
+        int offset = sectionsStart + section * parameterCount * elementBytes(precision);
+        ByteBuffer view = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        view.position(offset);
+        view = view.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (precision == Precision.DOUBLE) {
+            view.asDoubleBuffer().get(out);
+        } else {
+            for (int k = 0; k < parameterCount; k++) out[k] = view.getFloat(4 * k);
+        }
+        return out;
+    }
+
+    private static void putSection(ByteBuffer buf, double[] values, Precision precision) {
+        if (precision == Precision.DOUBLE) {
+            buf.asDoubleBuffer().put(values);
+            buf.position(buf.position() + 8 * values.length);
+        } else {
+            for (double x : values) buf.putFloat((float) x);
+        }
+    }
+
+    private static int elementBytes(Precision precision) {
+        return precision == Precision.DOUBLE ? 8 : 4;
+    }
+
+    // Sections start on an 8-byte boundary so the mapped doubles are aligned
+    private static int align(int offset) {
+        return (offset + 7) & ~7;
+    }
+
+    /**
+     * Converts ObjectOutputStream session files (.dat) to checkpoints next to
+     * them: java GCN.Checkpoint session.dat [more.dat ...]
+     */
+    public static void main(String[] args) {
+        for (String path : args) {
+            File converted = GCNMemory.convertLegacySession(new File(path));
+            if (converted == null) System.out.println("Could not convert " + path);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package GCN;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes periodic checkpoints on a background thread while training goes
+ * on. The trainer hands over a {@link Checkpoint.Snapshot}, which costs one
+ * copy of the parameters and moments, and carries on with the next epoch.
+ * If the disk falls behind, a waiting snapshot is replaced by the newer
+ * one rather than queued. Each file is renamed into place only once it is
+ * complete, and only the newest few periodic checkpoints are kept; other
+ * sessions in the folder are never touched.
+ *
+ * The defaults come from gcn.checkpointEvery (epochs, 0 = off),
+ * gcn.checkpointMinutes (default 15, 0 = off) and gcn.checkpointKeep
+ * (default 5), so a long run keeps a recent checkpoint unless both
+ * intervals are set to 0.
+ */
+public final class CheckpointWriter implements AutoCloseable {
+    public static final String SESSION_NAME = "AUTO";
+    // Minutes between periodic checkpoints unless gcn.checkpointMinutes says otherwise
+    private static final long DEFAULT_MINUTES = 15;
+
+    private final int everyEpochs;
+    private final long intervalMillis;
+    private final int keep;
+    private final ThreadPoolExecutor executor;
+    private int lastEpoch = -1;
+    private long lastTime = System.currentTimeMillis();
+    private Future<?> lastWrite;
+
+    /**
+     * @param everyEpochs    save after this many epochs, 0 for never
+     * @param intervalMillis save once this much time has passed, 0 for never
+     * @param keep           periodic checkpoints kept on disk
+     */
+    public CheckpointWriter(int everyEpochs, long intervalMillis, int keep) {
+        this.everyEpochs = everyEpochs;
+        this.intervalMillis = intervalMillis;
+        this.keep = Math.max(1, keep);
+        // One writer, at most one snapshot waiting behind it; an older waiting one is dropped
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), r -> {
+            Thread t = new Thread(r, "checkpoint-writer");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+
+    /** A writer configured from the system properties, or null when both intervals are off */
+    public static CheckpointWriter fromProperties() {
+        int every = Integer.getInteger("gcn.checkpointEvery", 0);
+        long minutes = Long.getLong("gcn.checkpointMinutes", DEFAULT_MINUTES);
+        if (every <= 0 && minutes <= 0) return null;
+        return new CheckpointWriter(every, TimeUnit.MINUTES.toMillis(minutes), Integer.getInteger("gcn.checkpointKeep", 5));
+    }
+
+    /** Whether a checkpoint is due now that training has reached epoch */
+    public synchronized boolean isDue(int epoch) {
+        if (lastEpoch < 0) lastEpoch = epoch - 1;
+        return (everyEpochs > 0 && epoch - lastEpoch >= everyEpochs)
+            || (intervalMillis > 0 && System.currentTimeMillis() - lastTime >= intervalMillis);
+    }
+
+    /**
+     * Queues the snapshot for writing and returns at once.
+     *
+     * @throws IllegalStateException if the writer has been closed
+     */
+    public synchronized void submit(Checkpoint.Snapshot snapshot) {
+        // A shut-down executor hands tasks to DiscardOldestPolicy, which drops them silently
+        if (executor.isShutdown()) throw new IllegalStateException("Checkpoint writer is closed");
+        lastEpoch = snapshot.epoch;
+        lastTime = System.currentTimeMillis();
+        lastWrite = executor.submit(() -> write(snapshot));
+    }
+
+    private void write(Checkpoint.Snapshot snapshot) {
+        File file = GCNMemory.sessionFile(SESSION_NAME, snapshot.epoch, snapshot.accuracy);
+        try {
+            Checkpoint.write(file, snapshot);
+            System.out.println("Checkpoint saved to: " + file.getPath());
+        } catch (IOException e) {
+            System.out.println("Checkpoint could not be saved to " + file.getPath() + ": " + e.getMessage());
+            return;
+        }
+        prune(file.getAbsoluteFile().getParentFile());
+    }
+
+    // Deletes all but the newest periodic checkpoints
+    private void prune(File folder) {
+        File[] files = folder.listFiles((d, name) ->
+            name.startsWith(SESSION_NAME + "_") && name.endsWith(Checkpoint.EXTENSION));
+        if (files == null || files.length <= keep) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        for (int k = keep; k < files.length; k++) files[k].delete();
+    }
+
+    /** Waits until the most recently submitted checkpoint is on disk */
+    public void flush() {
+        Future<?> pending;
+        synchronized (this) {
+            pending = lastWrite;
+        }
+        if (pending == null) return;
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Stops accepting snapshots, finishes the pending write and stops the writer thread */
+    @Override
+    public void close() {
+        synchronized (this) {
+            executor.shutdown();
+        }
+        flush();
+    }
+}
@@ -0,0 +1,55 @@
+package GCN;
+
+import java.util.Iterator;
+import java.util.List;
+
+import WGraph.GCNGraph;
+
+/**
+ * Source of shuffled training mini-batches for {@link GCNTrainer}. Each
+ * call to {@link #batches} starts a new epoch in a fresh random order.
+ * Implementations decide whether the graphs live in memory
+ * ({@link ListDataLoader}) or are streamed from disk as they are needed
+ * ({@link FileDataLoader}).
+ */
+public interface DataLoader {
+
+    /** Number of graphs in one epoch, as far as it is known up front */
+    int size();
+
+    /** The mini-batches of a new epoch, in shuffled order */
+    Batches batches(int batchSize);
+
+    /**
+     * The mini-batches of one epoch. Closing them before the end stops any
+     * reading ahead and releases what was read; closing after the end does
+     * nothing.
+     */
+    interface Batches extends Iterator<List<GCNGraph>>, AutoCloseable {
+        @Override
+        default void close() {
+        }
+
+        /** Batches handed out by an ordinary iterator, with nothing to release */
+        static Batches of(Iterator<List<GCNGraph>> iterator) {
+            return new Batches() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public List<GCNGraph> next() {
+                    return iterator.next();
+                }
+            };
+        }
+    }
+
+    /**
+     * Saves whatever is needed to resume training on the same data, when
+     * training stops. Nothing by default, for data that already lives on disk.
+     */
+    default void saveSession(String sessionName) {
+    }
+}
@@ -1,19 +1,22 @@
 package GCN;
 
+import java.util.Map;
 import java.util.Random;
 
+import WGraph.Matrix;
+
 
 public class DenseLayer {
      private final int inputDim;
      final int outputDim;
-      double[][] weights;
-	private final double[] biases;
+      Matrix weights;
+	Matrix biases;   // [1 x outputDim]
 
     public DenseLayer(int inputDim, int outputDim) {
         this.inputDim = inputDim;
         this.outputDim = outputDim;
-        this.weights = new double[outputDim][inputDim];
-        this.biases = new double[outputDim];
+        this.weights = new Matrix(outputDim, inputDim);
+        this.biases = new Matrix(1, outputDim);
         initializeWeights();
     }
 
@@ -22,45 +25,67 @@ public class DenseLayer {
         double limit = Math.sqrt(6.0 / (inputDim + outputDim)); // Xavier initialization
         for (int i = 0; i < outputDim; i++) {
             for (int j = 0; j < inputDim; j++) {
-                weights[i][j] = (rand.nextDouble() * 2 - 1) * limit;
+                weights.set(i, j, (rand.nextDouble() * 2 - 1) * limit);
             }
-            biases[i] = 0.0;
+            biases.set(0, i, 0.0);
         }
     }
 
     public double[] forward(double[] input) {
-        double[] output = new double[outputDim];
-        for (int i = 0; i < outputDim; i++) {
-            output[i] = biases[i];
-            for (int j = 0; j < inputDim; j++) {
-                output[i] += weights[i][j] * input[j];
-            }
+        return forward(input, new double[outputDim]);
+    }
+
+    public double[] forward(double[] input, double[] output) {
+        System.arraycopy(biases.getData(), biases.index(0, 0), output, 0, outputDim);
+        LinearAlgebra.get().gemv(weights, input, output, true);
+        return output;
+    }
+
+    /**
+     * Batched forward pass, one input per row: a single GEMM of the
+     * [batch x inputDim] inputs against the weights, plus the biases.
+     */
+    public Matrix forward(Matrix inputs) {
+        return forward(inputs, new Matrix(inputs.getRows(), outputDim));
+    }
+
+    public Matrix forward(Matrix inputs, Matrix output) {
+        for (int r = 0; r < output.getRows(); r++) {
+            for (int i = 0; i < outputDim; i++) output.set(r, i, biases.get(0, i));
         }
+        LinearAlgebra.get().gemmNT(inputs, weights, output, true);
         return output;
     }
     
-    public double[][] getWeights() {
+    public Matrix getWeights() {
 		return weights;
 	}
 
+	/** A copy of the biases */
 	public double[] getBiases() {
-		return biases;
+		return biases.copyRow(0);
 	}
 	
-	public void setWeight(double[][] weight)
+	public void setWeight(Matrix weight)
 	{
-        for (int i = 0; i < outputDim; i++) {
-            for (int j = 0; j < inputDim; j++) {
-                weights[i][j] = weight[i][j];
-            }
-        }
+        weights.copyFrom(weight);
 	}
 	
 	public void setBias(double[] bias)
 	{
 		for(int i=0;i<outputDim;i++)
 		{
-			bias[i]=bias[i];
+			biases.set(0, i, bias[i]);
 		}
 	}
+
+    void collectParameters(String prefix, Map<String, Matrix> out) {
+        out.put(prefix + ".weights", weights);
+        out.put(prefix + ".bias", biases);
+    }
+
+    void bindParameters(String prefix, ParameterStore store) {
+        weights = store.get(prefix + ".weights");
+        biases = store.get(prefix + ".bias");
+    }
 }
@@ -0,0 +1,78 @@
+package GCN;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+
+/**
+ * Elementwise and row-normalization kernels used on every training step.
+ * Matrix arguments may be views; out may be the same matrix as the input.
+ * The FloatMatrix overloads serve models computing in FLOAT: values stay
+ * float, while LayerNorm's row statistics, its row sums and the gamma and
+ * beta gradients accumulate in double.
+ */
+public interface ElementwiseKernels {
+
+    String name();
+
+    /** out = X > 0 ? X : alpha * X */
+    void leakyReLU(Matrix X, Matrix out, double alpha);
+
+    /** out = dH * (Z > 0 ? 1 : alpha), the gradient through leakyReLU */
+    void leakyReLUBackward(Matrix dH, Matrix Z, Matrix out, double alpha);
+
+    /** out = 1 / (1 + exp(-X)) */
+    void sigmoid(Matrix X, Matrix out);
+
+    /**
+     * Row-wise layer normalization, out = gamma * (x - mean) / sqrt(var + eps) + beta,
+     * with mean and variance gathered in a single pass over each row.
+     */
+    void layerNorm(Matrix X, Matrix out, Matrix gamma, Matrix beta, double eps);
+
+    /**
+     * Backward pass of {@link #layerNorm} from its input X and the gradient
+     * dOut on its output. Writes the gradient on X to dX, which may be dOut,
+     * and adds the gradients of gamma and beta ([1 x features]) into dGamma
+     * and dBeta.
+     */
+    void layerNormBackward(Matrix X, Matrix dOut, Matrix gamma, double eps,
+                           Matrix dX, Matrix dGamma, Matrix dBeta);
+
+    /** {@link #leakyReLU(Matrix, Matrix, double)} in float */
+    void leakyReLU(FloatMatrix X, FloatMatrix out, double alpha);
+
+    /** {@link #leakyReLUBackward(Matrix, Matrix, Matrix, double)} in float */
+    void leakyReLUBackward(FloatMatrix dH, FloatMatrix Z, FloatMatrix out, double alpha);
+
+    /** {@link #layerNorm(Matrix, Matrix, Matrix, Matrix, double)} in float */
+    void layerNorm(FloatMatrix X, FloatMatrix out, FloatMatrix gamma, FloatMatrix beta, double eps);
+
+    /**
+     * {@link #layerNormBackward(Matrix, Matrix, Matrix, double, Matrix, Matrix, Matrix)}
+     * in float; the gamma and beta gradients stay double.
+     */
+    void layerNormBackward(FloatMatrix X, FloatMatrix dOut, FloatMatrix gamma, double eps,
+                           FloatMatrix dX, Matrix dGamma, Matrix dBeta);
+
+    /** Row-wise softmax */
+    void softmax(Matrix X, Matrix out);
+
+    /**
+     * One Adam step over the parameters from .. to - 1 of flat arrays that
+     * share one layout. Each gradient is first scaled by gradScale and
+     * clipped to [-clip, clip]; then the moments m and v are updated in
+     * place and then the weights w.
+     */
+    void adamUpdate(double[] w, double[] g, double[] m, double[] v, int from, int to,
+                    double gradScale, double clip, double lr, double beta1, double beta2,
+                    double biasCorr1, double biasCorr2, double eps);
+
+    /**
+     * The same step with the moments stored in single precision. The
+     * arithmetic runs in double and each updated weight is rounded to the
+     * nearest float, so w stays exactly representable as float.
+     */
+    void adamUpdate(double[] w, double[] g, float[] m, float[] v, int from, int to,
+                    double gradScale, double clip, double lr, double beta1, double beta2,
+                    double biasCorr1, double biasCorr2, double eps);
+}
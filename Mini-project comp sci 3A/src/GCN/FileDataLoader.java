@@ -0,0 +1,154 @@
+package GCN;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import WGraph.GCNGraph;
+
+/**
+ * Streams training graphs from their image files instead of keeping the
+ * dataset in memory. Only the file list and the class of each file are
+ * held; every epoch shuffles the files and a background thread builds the
+ * graphs of the next few mini-batches through a {@link GraphPipeline}
+ * (and so through the graph cache) while the current one trains. At most
+ * the prefetched batches plus the one in use are on the heap at a time,
+ * however large the dataset.
+ *
+ * The number of batches read ahead comes from gcn.prefetchBatches
+ * (default 2, one being filled while the other waits).
+ *
+ * When training stops, the file list and classes are saved as a small
+ * text index (see {@link #write}), which {@link GCNMemory#openGraphData}
+ * opens again to resume on the same images.
+ */
+public class FileDataLoader implements DataLoader {
+    public static final String EXTENSION = ".files";
+    private static final String HEADER = "GCN file list 1";
+
+    private final List<File> files;
+    private final int[] classes;
+    private final int numClasses;
+    private final GraphPipeline pipeline;
+    private final Random random;
+
+    /**
+     * @param files   the images, one graph each
+     * @param classes class index of each file
+     * @param seed    seed of the per-epoch shuffles
+     */
+    public FileDataLoader(List<File> files, int[] classes, int numClasses, GraphPipeline pipeline, long seed) {
+        if (classes.length != files.size())
+            throw new IllegalArgumentException("Expected " + files.size() + " classes, got " + classes.length);
+        this.files = new ArrayList<>(files);
+        this.classes = classes.clone();
+        this.numClasses = numClasses;
+        this.pipeline = pipeline;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public int size() {
+        return files.size();
+    }
+
+    /** Saves the file list and classes so a resumed session streams the same images */
+    @Override
+    public void saveSession(String sessionName) {
+        GCNMemory.saveFileList(this, sessionName);
+    }
+
+    /**
+     * Writes the index: a header line, the number of classes, then one
+     * line per image with its class, a tab and its absolute path.
+     */
+    public void write(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            out.println(HEADER);
+            out.println(numClasses);
+            for (int i = 0; i < files.size(); i++) {
+                out.println(classes[i] + "\t" + files.get(i).getAbsolutePath());
+            }
+            if (out.checkError()) throw new IOException("Could not write " + file);
+        }
+    }
+
+    /** True if the file starts with the index header */
+    public static boolean isFileList(File file) {
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return HEADER.equals(in.readLine());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Reads an index written by {@link #write}; its images are loaded through pipeline */
+    public static FileDataLoader open(File file, GraphPipeline pipeline, long seed) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(in.readLine())) throw new IOException("Not a file list: " + file);
+            int numClasses;
+            try {
+                numClasses = Integer.parseInt(in.readLine().trim());
+            } catch (NumberFormatException | NullPointerException e) {
+                throw new IOException("Missing class count in " + file);
+            }
+            List<File> files = new ArrayList<>();
+            List<Integer> classes = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                int tab = line.indexOf('\t');
+                if (tab < 0) throw new IOException("Malformed line in " + file + ": " + line);
+                int cls;
+                try {
+                    cls = Integer.parseInt(line.substring(0, tab));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed line in " + file + ": " + line);
+                }
+                if (cls < 0 || cls >= numClasses) throw new IOException("Class out of range in " + file + ": " + line);
+                classes.add(cls);
+                files.add(new File(line.substring(tab + 1)));
+            }
+            int[] classArray = classes.stream().mapToInt(Integer::intValue).toArray();
+            return new FileDataLoader(files, classArray, numClasses, pipeline, seed);
+        }
+    }
+
+    /**
+     * Starts reading the epoch's batches in the background, see
+     * {@link PrefetchedBatches}. Unreadable images are left out of their
+     * batch; if the pipeline is cancelled the epoch just ends early.
+     */
+    @Override
+    public Batches batches(int batchSize) {
+        List<Integer> order = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) order.add(i);
+        Collections.shuffle(order, random);
+
+        int count = (order.size() + batchSize - 1) / batchSize;
+        return new PrefetchedBatches(count, b -> {
+            List<Integer> indices = order.subList(b * batchSize, Math.min(order.size(), (b + 1) * batchSize));
+            List<File> batchFiles = new ArrayList<>(indices.size());
+            for (int i : indices) batchFiles.add(files.get(i));
+            List<GCNGraph> graphs = pipeline.load(batchFiles, numClasses, null);
+
+            List<GCNGraph> batch = new ArrayList<>(graphs.size());
+            for (int k = 0; k < graphs.size(); k++) {
+                GCNGraph graph = graphs.get(k);
+                if (graph == null) continue;
+                double[] oneHot = new double[numClasses];
+                oneHot[classes[indices.get(k)]] = 1;
+                for (int i = 0; i < graph.getNodeCount(); i++) graph.setNodeLabel(i, oneHot);
+                batch.add(graph);
+            }
+            return batch;
+        });
+    }
+}
@@ -0,0 +1,112 @@
+package GCN;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+import WGraph.SparseMatrix;
+
+/**
+ * Activations of one forward pass through {@link GCNModel}, kept for the
+ * backward pass. A pass computed into a {@link Workspace} lives in that
+ * workspace's buffers and is overwritten by its next forward pass; passes
+ * from different workspaces are independent, so several graphs can be run
+ * through the same model at once. A model computing in FLOAT keeps the
+ * node-level activations of both GCN layers in the float fields instead,
+ * and leaves the double ones null.
+ */
+public class ForwardPass {
+    SparseMatrix A;
+    Matrix X;              // null when layer 1 has no residual and the input came split
+    Matrix AX;             // Â^hops · X, the input to layer 1; only the node part when split
+    double[] contextScale; // Â^hops · contextScale when the input came split, else null
+    Matrix context;        // [1 x contextDim] graph context when split, else null
+    Matrix pre1, z1, h1;   // pre = sum before the LayerNorm, z = layer output, h = leakyReLU(z)
+    Matrix ah1;            // Â · h1, the propagation inside layer 2
+    Matrix pre2, z2, h2;
+    double[] combined;
+    int[] maxIndices;
+    double[] output;
+
+    // FLOAT: the parameters rounded to float and the activations, named as above; null otherwise
+    float[] parameters;
+    FloatMatrix floatX, floatAX;
+    FloatMatrix floatPre1, floatZ1, floatH1;
+    FloatMatrix floatAh1;
+    FloatMatrix floatPre2, floatZ2, floatH2;
+
+    ForwardPass() {
+    }
+
+    void set(SparseMatrix A, Matrix X, Matrix AX, double[] contextScale, Matrix context,
+             Matrix pre1, Matrix z1, Matrix h1,
+             Matrix ah1, Matrix pre2, Matrix z2, Matrix h2,
+             double[] combined, int[] maxIndices, double[] output) {
+        this.A = A;
+        this.X = X;
+        this.AX = AX;
+        this.contextScale = contextScale;
+        this.context = context;
+        this.pre1 = pre1;
+        this.z1 = z1;
+        this.h1 = h1;
+        this.ah1 = ah1;
+        this.pre2 = pre2;
+        this.z2 = z2;
+        this.h2 = h2;
+        this.combined = combined;
+        this.maxIndices = maxIndices;
+        this.output = output;
+        setFloat(null, null, null, null, null, null, null, null, null, null);
+    }
+
+    void setFloat(SparseMatrix A, float[] parameters, FloatMatrix X, FloatMatrix AX, double[] contextScale,
+                  Matrix context, FloatMatrix pre1, FloatMatrix z1, FloatMatrix h1, FloatMatrix ah1,
+                  FloatMatrix pre2, FloatMatrix z2, FloatMatrix h2,
+                  double[] combined, int[] maxIndices, double[] output) {
+        set(A, null, null, contextScale, context, null, null, null, null, null, null, null,
+            combined, maxIndices, output);
+        setFloat(parameters, X, AX, pre1, z1, h1, ah1, pre2, z2, h2);
+    }
+
+    private void setFloat(float[] parameters, FloatMatrix X, FloatMatrix AX, FloatMatrix pre1, FloatMatrix z1,
+                          FloatMatrix h1, FloatMatrix ah1, FloatMatrix pre2, FloatMatrix z2, FloatMatrix h2) {
+        this.parameters = parameters;
+        this.floatX = X;
+        this.floatAX = AX;
+        this.floatPre1 = pre1;
+        this.floatZ1 = z1;
+        this.floatH1 = h1;
+        this.floatAh1 = ah1;
+        this.floatPre2 = pre2;
+        this.floatZ2 = z2;
+        this.floatH2 = h2;
+    }
+
+    /** Softmax class probabilities */
+    public double[] getOutput() {
+        return output;
+    }
+
+    public Matrix getZ1() {
+        return z1;
+    }
+
+    public Matrix getH1() {
+        return h1;
+    }
+
+    public Matrix getZ2() {
+        return z2;
+    }
+
+    public Matrix getH2() {
+        return h2;
+    }
+
+    public double[] getCombined() {
+        return combined;
+    }
+
+    public int getMaxIndex(int featureDim) {
+        return maxIndices[featureDim];
+    }
+}
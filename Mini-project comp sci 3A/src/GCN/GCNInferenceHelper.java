@@ -1,9 +1,7 @@
 package GCN;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.nio.file.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -13,26 +11,35 @@ import WasteSimulation.WasteType;
 
 public class GCNInferenceHelper {
 
-    private static GCNModel model;
+    // One model shared by every caller. It is fully loaded before being
+    // published and never modified afterwards, so classification needs no locking
+    private static volatile GCNModel model;
+    private static String modelPath;
+    // The model compiled for ImageLoader's graph size, and each thread's copy of it
+    private static volatile InferencePlan plan;
+    private static final ThreadLocal<InferencePlan> threadPlan = new ThreadLocal<>();
     private static final String[] classNames = {"metal", "paper", "plastic", "brown-glass"};
 
-    public static void loadModel(String modelPath) {
-        model = new GCNModel(24, 16, 4); // Make sure these match your saved model structure
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(modelPath))) {
-            model.gcn1.weights = (double[][]) in.readObject();
-            model.gcn1.bias = (double[]) in.readObject();
-            model.gcn2.weights = (double[][]) in.readObject();
-            model.gcn2.bias = (double[]) in.readObject();
-            model.dense.setWeight((double[][]) in.readObject());
-            model.dense.setBias((double[]) in.readObject());
-
-            System.out.println("Model loaded from: " + modelPath);
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+    /**
+     * Loads the model used by {@link #Validate1Image}. Loading the same file
+     * again is a no-op, so every robot can call this without re-reading it.
+     */
+    public static synchronized void loadModel(String modelPath) {
+        if (model != null && modelPath.equals(GCNInferenceHelper.modelPath)) return;
+        // Shape, hops and precision come from the saved session itself
+        GCNModel loaded = GCNMemory.loadModel(modelPath);
+        if (loaded == null) {
             throw new RuntimeException("Failed to load model from file: " + modelPath);
         }
+        plan = InferencePlan.compile(loaded, ImageLoader.NUM_SUPERPIXELS);
+        model = loaded;
+        GCNInferenceHelper.modelPath = modelPath;
+        System.out.println("Model loaded from: " + modelPath);
     }
 
+    /**
+     * Classifies one image. Safe to call from several threads at once.
+     */
     public static WasteType Validate1Image(File wasteImage) {
         if (model == null) {
             throw new IllegalStateException("GCN model not loaded. Call loadModel() first.");
@@ -42,11 +49,7 @@ public class GCNInferenceHelper {
             GCNGraph graph = ImageLoader.extractGraphUsingSLICF2(wasteImage, 4);
             if (graph == null) return WasteType.PLASTIC;
 
-            double[][] A = graph.getNormalizedAdjMatrix();
-            double[][] X = graph.getFeatureMatrix();
-
-            double[] avgScores = model.forward(A, X);
-            int predictedClass = argMax(avgScores);
+            int predictedClass = currentPlan().classify(graph);
             String predictedClassName = classNames[predictedClass];
 
             try {
@@ -75,14 +78,15 @@ public class GCNInferenceHelper {
         }
     }
 
-    private static int argMax(double[] array) {
-        int maxIdx = 0;
-        for (int i = 1; i < array.length; i++) {
-            if (array[i] > array[maxIdx]) {
-                maxIdx = i;
-            }
+    // This thread's buffers over the most recently loaded weights
+    private static InferencePlan currentPlan() {
+        InferencePlan shared = plan;
+        InferencePlan local = threadPlan.get();
+        if (local == null || local.getSource() != shared) {
+            local = shared.copy();
+            threadPlan.set(local);
         }
-        return maxIdx;
+        return local;
     }
 
     private static int extractImageNumber(String filename) {
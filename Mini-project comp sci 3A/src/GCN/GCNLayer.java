@@ -1,14 +1,23 @@
 package GCN;
 
+import java.util.Map;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+import WGraph.SparseMatrix;
+
 public class GCNLayer {
-    double[][] weights;
-    double[] bias;
+    // Slope of leakyReLU for negative inputs
+    static final double LEAKY_SLOPE = 0.01;
+
+    Matrix weights;
+    Matrix bias;   // [1 x outputSize]
     //private BatchNorm1d bn;
-    private final LayerNorm ln;
+    final LayerNorm ln;
 
     public GCNLayer(int inputSize, int outputSize, String initType) {
-        weights = new double[inputSize][outputSize];
-        bias = new double[outputSize]; // one bias per output feature
+        weights = new Matrix(inputSize, outputSize);
+        bias = new Matrix(1, outputSize); // one bias per output feature
 
         double std = 0;
 
@@ -29,76 +38,334 @@ public class GCNLayer {
 
         for (int i = 0; i < inputSize; i++) {
             for (int j = 0; j < outputSize; j++) {
-                weights[i][j] = (Math.random() * 2 * std) - std;  // Initialize randomly
+                weights.set(i, j, (Math.random() * 2 * std) - std);  // Initialize randomly
             }
         }
         
-        for (int j = 0; j < outputSize; j++) {
-            bias[j] = 0.0;  // start bias at zero
-        }
+        bias.fill(0.0);  // start bias at zero
         //bn = new BatchNorm1d(outputSize);
         ln = new LayerNorm(outputSize);  
     }
 
 
  // In GCNLayer.java
-    public double[][] forward(double[][] A, double[][] X) {
-        double[][] AX = matmul(A, X);
-        double[][] AXW = matmul(AX, weights);
-        
+    public Matrix forward(SparseMatrix A, Matrix X) {
+        return forwardPropagated(LinearAlgebra.get().spmm(A, X), X);
+    }
+
+    /**
+     * Same as {@link #forward} when the propagation AX = Â · X has already
+     * been computed.
+     */
+    public Matrix forwardPropagated(Matrix AX, Matrix X) {
+        return forwardPropagated(AX, X, new Matrix(AX.getRows(), weights.getCols()));
+    }
+
+    /**
+     * {@link #forward} into caller-owned buffers: AX receives Â · X and out
+     * the layer output. Nothing is allocated.
+     */
+    public Matrix forward(SparseMatrix A, Matrix X, Matrix AX, Matrix out) {
+        return forward(A, X, AX, out, out);
+    }
+
+    /**
+     * Like {@link #forward(SparseMatrix, Matrix, Matrix, Matrix)}, also
+     * keeping the sum before the LayerNorm in pre for the backward pass.
+     */
+    public Matrix forward(SparseMatrix A, Matrix X, Matrix AX, Matrix pre, Matrix out) {
+        LinearAlgebra.get().spmm(A, X, AX, false);
+        return forwardPropagated(AX, X, pre, out);
+    }
+
+    /**
+     * {@link #forwardPropagated(Matrix, Matrix)} writing into out, which must
+     * be [nodes x outputSize].
+     */
+    public Matrix forwardPropagated(Matrix AX, Matrix X, Matrix out) {
+        return forwardPropagated(AX, X, out, out);
+    }
+
+    /**
+     * Computes pre = AX·W + bias (+ X for the residual) and out = LayerNorm(pre).
+     * pre may be the same matrix as out when the backward pass does not
+     * need it.
+     */
+    public Matrix forwardPropagated(Matrix AX, Matrix X, Matrix pre, Matrix out) {
+        LinearAlgebra.get().gemm(AX, weights, pre, false);
+        return finishForward(X, pre, out);
+    }
+
+    /**
+     * First-layer form of {@link #forwardPropagated(Matrix, Matrix, Matrix, Matrix)}
+     * for input rows [N_i | s_i * context], node features followed by a
+     * graph-level context (see {@link WGraph.GCNGraph#setContext}). AN is
+     * Â^hops · N and As is Â^hops · s. Since Â^hops · X · W then equals
+     * AN · Wn + As ⊗ (context · Wc), the context costs one small product
+     * per graph, added to each row as a broadcast bias scaled by As,
+     * instead of pushing identical columns through the GEMM.
+     *
+     * contexts holds one row per graph, and graph g owns the rows
+     * offsets[g] .. offsets[g + 1] - 1 (offsets null means a single graph).
+     * proj receives contexts · Wc, [graphs x outputSize]. X, the full input,
+     * is only read for the residual connection and may be null without one.
+     */
+    public Matrix forwardSplit(Matrix AN, double[] As, Matrix contexts, int[] offsets, Matrix X,
+                               Matrix proj, Matrix pre, Matrix out) {
+        int nodeDim = AN.getCols(), contextDim = contexts.getCols(), width = weights.getCols();
+        if (nodeDim + contextDim != weights.getRows())
+            throw new IllegalArgumentException("Expected " + weights.getRows() + " input features, got "
+                + nodeDim + "+" + contextDim);
+        MatrixBackend blas = LinearAlgebra.get();
+        blas.gemm(AN, weights.view(0, nodeDim, 0, width), pre, false);
+        if (contextDim > 0) {
+            blas.gemm(contexts, weights.view(nodeDim, contextDim, 0, width), proj, false);
+            for (int g = 0; g < contexts.getRows(); g++) {
+                int end = offsets == null ? pre.getRows() : offsets[g + 1];
+                for (int i = offsets == null ? 0 : offsets[g]; i < end; i++) {
+                    double s = As[i];
+                    for (int j = 0; j < width; j++) pre.add(i, j, s * proj.get(g, j));
+                }
+            }
+        }
+        return finishForward(X, pre, out);
+    }
+
+    // pre += bias (+ X), then out = LayerNorm(pre)
+    private Matrix finishForward(Matrix X, Matrix pre, Matrix out) {
+        Matrix AXW = pre;
+        for (int i = 0; i < AXW.getRows(); i++) {
+            for (int j = 0; j < AXW.getCols(); j++) {
+                AXW.add(i, j, bias.get(0, j));
+            }
+        }
+
         // Residual connection
-        if (AXW.length == X.length && AXW[0].length == X[0].length) {
-            for (int i = 0; i < AXW.length; i++) {
-                for (int j = 0; j < AXW[0].length; j++) {
-                    AXW[i][j] += X[i][j];  // Skip connection
+        if (hasResidual()) {
+            for (int i = 0; i < AXW.getRows(); i++) {
+                for (int j = 0; j < AXW.getCols(); j++) {
+                    AXW.add(i, j, X.get(i, j));  // Skip connection
                 }
             }
         }
-        AXW = ln.forward(AXW);
+        ln.forward(AXW, out);
 
-        return AXW;
+        return out;
     }
-    
 
-    private double[][] matmul(double[][] A, double[][] B) {
-        int rows = A.length;
-        int cols = B[0].length; 
-        int inner = A[0].length;
-        double[][] result = new double[rows][cols];
-        for (int i = 0; i < rows; i++)
-            for (int j = 0; j < cols; j++)
-                for (int k = 0; k < inner; k++)
-                    result[i][j] += A[i][k] * B[k][j];
-        
-        return result;
+    /**
+     * {@link #forward(SparseMatrix, Matrix, Matrix, Matrix, Matrix)} in
+     * float, for models computing in FLOAT. params holds the parameters
+     * rounded by {@link ParameterStore#narrow}.
+     */
+    public FloatMatrix forward(SparseMatrix A, FloatMatrix X, FloatMatrix AX, float[] params,
+                               FloatMatrix pre, FloatMatrix out) {
+        MatrixBackend blas = LinearAlgebra.get();
+        blas.spmm(A, X, AX, false);
+        blas.gemm(AX, ParameterStore.view(params, weights), pre, false);
+        return finishForward(X, params, pre, out);
     }
 
-    // Standalone activation functions below (they will not be applied inside forward).
-    public double[][] leakyReLU(double[][] X) {
-        double alpha = 0.01;
-        double[][] result = new double[X.length][X[0].length];
-        for (int i = 0; i < X.length; i++) {
-            for (int j = 0; j < X[0].length; j++) {
-                result[i][j] = X[i][j] > 0 ? X[i][j] : alpha * X[i][j];
+    /**
+     * {@link #forwardSplit(Matrix, double[], Matrix, int[], Matrix, Matrix, Matrix, Matrix)}
+     * in float. The context projection proj stays double: it is one small
+     * product per graph, taken with the double weights.
+     */
+    public FloatMatrix forwardSplit(FloatMatrix AN, double[] As, Matrix contexts, int[] offsets, FloatMatrix X,
+                                    float[] params, Matrix proj, FloatMatrix pre, FloatMatrix out) {
+        int nodeDim = AN.getCols(), contextDim = contexts.getCols(), width = weights.getCols();
+        if (nodeDim + contextDim != weights.getRows())
+            throw new IllegalArgumentException("Expected " + weights.getRows() + " input features, got "
+                + nodeDim + "+" + contextDim);
+        MatrixBackend blas = LinearAlgebra.get();
+        blas.gemm(AN, ParameterStore.view(params, weights).view(0, nodeDim, 0, width), pre, false);
+        if (contextDim > 0) {
+            blas.gemm(contexts, weights.view(nodeDim, contextDim, 0, width), proj, false);
+            for (int g = 0; g < contexts.getRows(); g++) {
+                int end = offsets == null ? pre.getRows() : offsets[g + 1];
+                for (int i = offsets == null ? 0 : offsets[g]; i < end; i++) {
+                    double s = As[i];
+                    for (int j = 0; j < width; j++) pre.add(i, j, (float) (s * proj.get(g, j)));
+                }
             }
         }
-        return result;
+        return finishForward(X, params, pre, out);
     }
-    
-    //This functions is used for binary classification 
-    public double[][] sigmoid(double[][] X) {
-        double[][] result = new double[X.length][X[0].length];
-        for (int i = 0; i < X.length; i++) {
-            for (int j = 0; j < X[0].length; j++) {
-                result[i][j] = 1.0 / (1.0 + Math.exp(-X[i][j]));
+
+    private FloatMatrix finishForward(FloatMatrix X, float[] params, FloatMatrix pre, FloatMatrix out) {
+        FloatMatrix b = ParameterStore.view(params, bias);
+        for (int i = 0; i < pre.getRows(); i++) {
+            for (int j = 0; j < pre.getCols(); j++) {
+                pre.add(i, j, b.get(0, j));
+            }
+        }
+        if (hasResidual()) {
+            for (int i = 0; i < pre.getRows(); i++) {
+                for (int j = 0; j < pre.getCols(); j++) {
+                    pre.add(i, j, X.get(i, j));
+                }
+            }
+        }
+        return ln.forward(pre, out, params);
+    }
+
+    // The skip connection applies when the layer keeps the feature width
+    boolean hasResidual() {
+        return weights.getRows() == weights.getCols();
+    }
+
+    /**
+     * Backward pass of {@link #forwardPropagated(Matrix, Matrix, Matrix, Matrix)}.
+     * From the forward pass's AX and pre and the gradient dOut on the layer
+     * output, writes the gradient on pre to dPre (which may be dOut) and
+     * adds the weight, bias, gamma and beta gradients into the given
+     * matrices.
+     */
+    void backward(Matrix AX, Matrix pre, Matrix dOut, Matrix dPre, MatrixBackend blas,
+                  Matrix dWeights, Matrix dBias, Matrix dGamma, Matrix dBeta) {
+        normBiasBackward(pre, dOut, dPre, dBias, dGamma, dBeta);
+        // pre = AX·W + ..., so dW = AXᵀ·dPre
+        blas.gemmTN(AX, dPre, dWeights, true);
+    }
+
+    /**
+     * Backward pass of {@link #forwardSplit}, like {@link #backward}. The
+     * context rows of dW get contextsᵀ · dProj, where dProj (graphs x
+     * outputSize) receives each graph's sum of As_i · dPre_i.
+     */
+    void backwardSplit(Matrix AN, double[] As, Matrix contexts, int[] offsets, Matrix pre, Matrix dOut,
+                       Matrix dPre, MatrixBackend blas, Matrix dProj,
+                       Matrix dWeights, Matrix dBias, Matrix dGamma, Matrix dBeta) {
+        normBiasBackward(pre, dOut, dPre, dBias, dGamma, dBeta);
+        int nodeDim = AN.getCols(), contextDim = contexts.getCols(), width = weights.getCols();
+        blas.gemmTN(AN, dPre, dWeights.view(0, nodeDim, 0, width), true);
+        if (contextDim > 0) {
+            dProj.fill(0.0);
+            for (int g = 0; g < contexts.getRows(); g++) {
+                int end = offsets == null ? dPre.getRows() : offsets[g + 1];
+                for (int i = offsets == null ? 0 : offsets[g]; i < end; i++) {
+                    double s = As[i];
+                    for (int j = 0; j < width; j++) dProj.add(g, j, s * dPre.get(i, j));
+                }
+            }
+            blas.gemmTN(contexts, dProj, dWeights.view(nodeDim, contextDim, 0, width), true);
+        }
+    }
+
+    // Through the LayerNorm into dPre, then the bias gradient
+    private void normBiasBackward(Matrix pre, Matrix dOut, Matrix dPre, Matrix dBias, Matrix dGamma, Matrix dBeta) {
+        ln.backward(pre, dOut, dPre, dGamma, dBeta);
+        for (int i = 0; i < dPre.getRows(); i++) {
+            for (int j = 0; j < dPre.getCols(); j++) {
+                dBias.add(0, j, dPre.get(i, j));
+            }
+        }
+    }
+
+    /**
+     * {@link #backward(Matrix, Matrix, Matrix, Matrix, MatrixBackend, Matrix, Matrix, Matrix, Matrix)}
+     * from a float forward pass. The gradients are summed into the double
+     * matrices, the weight gradient through a double accumulator.
+     */
+    void backward(FloatMatrix AX, FloatMatrix pre, FloatMatrix dOut, FloatMatrix dPre, float[] params,
+                  MatrixBackend blas, Matrix dWeights, Matrix dBias, Matrix dGamma, Matrix dBeta) {
+        normBiasBackward(pre, dOut, dPre, params, dBias, dGamma, dBeta);
+        blas.gemmTN(AX, dPre, dWeights, true);
+    }
+
+    /** {@link #backwardSplit} from a float forward pass; dProj stays double */
+    void backwardSplit(FloatMatrix AN, double[] As, Matrix contexts, int[] offsets, FloatMatrix pre,
+                       FloatMatrix dOut, FloatMatrix dPre, float[] params, MatrixBackend blas, Matrix dProj,
+                       Matrix dWeights, Matrix dBias, Matrix dGamma, Matrix dBeta) {
+        normBiasBackward(pre, dOut, dPre, params, dBias, dGamma, dBeta);
+        int nodeDim = AN.getCols(), contextDim = contexts.getCols(), width = weights.getCols();
+        blas.gemmTN(AN, dPre, dWeights.view(0, nodeDim, 0, width), true);
+        if (contextDim > 0) {
+            dProj.fill(0.0);
+            for (int g = 0; g < contexts.getRows(); g++) {
+                int end = offsets == null ? dPre.getRows() : offsets[g + 1];
+                for (int i = offsets == null ? 0 : offsets[g]; i < end; i++) {
+                    double s = As[i];
+                    for (int j = 0; j < width; j++) dProj.add(g, j, s * dPre.get(i, j));
+                }
+            }
+            blas.gemmTN(contexts, dProj, dWeights.view(nodeDim, contextDim, 0, width), true);
+        }
+    }
+
+    private void normBiasBackward(FloatMatrix pre, FloatMatrix dOut, FloatMatrix dPre, float[] params,
+                                  Matrix dBias, Matrix dGamma, Matrix dBeta) {
+        ln.backward(pre, dOut, params, dPre, dGamma, dBeta);
+        for (int i = 0; i < dPre.getRows(); i++) {
+            for (int j = 0; j < dPre.getCols(); j++) {
+                dBias.add(0, j, dPre.get(i, j));
             }
         }
-        return result;
     }
-    
 
+    /**
+     * Gradient on the layer input X from the gradient dPre on pre: Â·dPre·Wᵀ
+     * (Â is symmetric) plus dPre itself through the residual connection.
+     * tmp holds dPre·Wᵀ.
+     */
+    void inputGradient(SparseMatrix A, Matrix dPre, MatrixBackend blas, Matrix tmp, Matrix dX) {
+        blas.gemmNT(dPre, weights, tmp, false);
+        blas.spmm(A, tmp, dX, false);
+        if (hasResidual()) {
+            for (int i = 0; i < dX.getRows(); i++) {
+                for (int j = 0; j < dX.getCols(); j++) {
+                    dX.add(i, j, dPre.get(i, j));
+                }
+            }
+        }
+    }
 
+    /** {@link #inputGradient(SparseMatrix, Matrix, MatrixBackend, Matrix, Matrix)} in float */
+    void inputGradient(SparseMatrix A, FloatMatrix dPre, float[] params, MatrixBackend blas, FloatMatrix tmp,
+                       FloatMatrix dX) {
+        blas.gemmNT(dPre, ParameterStore.view(params, weights), tmp, false);
+        blas.spmm(A, tmp, dX, false);
+        if (hasResidual()) {
+            for (int i = 0; i < dX.getRows(); i++) {
+                for (int j = 0; j < dX.getCols(); j++) {
+                    dX.add(i, j, dPre.get(i, j));
+                }
+            }
+        }
+    }
 
+    void collectParameters(String prefix, Map<String, Matrix> out) {
+        out.put(prefix + ".weights", weights);
+        out.put(prefix + ".bias", bias);
+        ln.collectParameters(prefix + ".ln", out);
+    }
+
+    void bindParameters(String prefix, ParameterStore store) {
+        weights = store.get(prefix + ".weights");
+        bias = store.get(prefix + ".bias");
+        ln.bindParameters(prefix + ".ln", store);
+    }
     
 
+    // Standalone activation functions below (they will not be applied inside forward).
+    public Matrix leakyReLU(Matrix X) {
+        return leakyReLU(X, new Matrix(X.getRows(), X.getCols()));
+    }
+
+    public Matrix leakyReLU(Matrix X, Matrix out) {
+        Kernels.get().leakyReLU(X, out, LEAKY_SLOPE);
+        return out;
+    }
+    
+    public FloatMatrix leakyReLU(FloatMatrix X, FloatMatrix out) {
+        Kernels.get().leakyReLU(X, out, LEAKY_SLOPE);
+        return out;
+    }
+
+    //This functions is used for binary classification 
+    public Matrix sigmoid(Matrix X) {
+        Matrix result = new Matrix(X.getRows(), X.getCols());
+        Kernels.get().sigmoid(X, result);
+        return result;
+    }
 }
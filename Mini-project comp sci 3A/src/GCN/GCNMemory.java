@@ -1,18 +1,20 @@
 package GCN;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import WGraph.GCNGraph;
+import WGraph.Matrix;
+import WGraph.Precision;
 
 
 public class GCNMemory {
@@ -33,49 +35,29 @@ public class GCNMemory {
     		GCNTrainer trainer,
     		String sessionName,double Accuracy) {
     	try {
-    		String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-    		String fileName = SAVE_FOLDER + "/" + sessionName + "_epoch" + currentEpoch + "_" + timestamp
-    				+"Acccuracy%"+Accuracy;
-    		new File(SAVE_FOLDER).mkdirs();
-
-    		try (ObjectOutputStream out = new ObjectOutputStream(
-    				new BufferedOutputStream(new FileOutputStream(fileName + ".dat")))) {
-    			// Save GCN layer 1
-    			out.writeObject(model.gcn1.weights);
-    			out.writeObject(model.gcn1.bias);
-    			// Save GCN layer 2
-    			out.writeObject(model.gcn2.weights);
-    			out.writeObject(model.gcn2.bias);
-    			// Save Dense layer
-    			out.writeObject(model.dense.getWeights());
-    			out.writeObject(model.dense.getBiases());
-
-    			// Save training state
-    			out.writeDouble(learningRate);
-    			out.writeInt(currentEpoch);
-
-    			// Save optimizers
-    			// Adam 1
-    			out.writeObject(trainer.getOptimizer1().getM());
-    			out.writeObject(trainer.getOptimizer1().getV());
-    			out.writeLong(trainer.getOptimizer1().getT());
-    			// Adam 2
-    			out.writeObject(trainer.getOptimizer2().getM());
-    			out.writeObject(trainer.getOptimizer2().getV());
-    			out.writeLong(trainer.getOptimizer2().getT());
-    			// Adam Dense
-    			out.writeObject(trainer.getOptimizerDense().getM());
-    			out.writeObject(trainer.getOptimizerDense().getV());
-    			out.writeLong(trainer.getOptimizerDense().getT());
-    		}
+    		File file = sessionFile(sessionName, currentEpoch, Accuracy);
+    		Checkpoint.write(file, model, trainer.getOptimizer(), currentEpoch, learningRate, Accuracy);
 
-    		System.out.println("Session saved to: " + fileName + ".dat");
+    		System.out.println("Session saved to: " + file.getPath());
 
     	} catch (IOException e) {
     		e.printStackTrace();
     	}	
     }
 
+    /**
+     * Where a session checkpoint is saved, e.g.
+     * saved_sessions/TRAIN_epoch12_20250511_200748Acccuracy%75.0.ckpt. Epoch
+     * and accuracy are in the checkpoint header; the name only repeats them
+     * for browsing.
+     */
+    static File sessionFile(String sessionName, int epoch, double accuracy) {
+    	String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+    	new File(SAVE_FOLDER).mkdirs();
+    	return new File(SAVE_FOLDER + "/" + sessionName + "_epoch" + epoch + "_" + timestamp
+    			+ "Acccuracy%" + accuracy + Checkpoint.EXTENSION);
+    }
+
     public static boolean resumeSession(String filePath,
     		GCNModel model,
     		GCNTrainer trainer) {
@@ -84,38 +66,20 @@ public class GCNMemory {
     		System.out.println("Save file does not exist: " + filePath);
     		return false;
     	}
+    	if (Checkpoint.isCheckpoint(file)) {
+    		try {
+    			if (!readCheckpoint(Checkpoint.open(file), model, trainer)) return false;
+    			System.out.println("Session resumed from: " + filePath);
+    			return true;
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    			return false;
+    		}
+    	}
 
     	try (ObjectInputStream in = new ObjectInputStream(
     			new BufferedInputStream(new FileInputStream(file)))) {
-    		// Load GCN layer 1
-    		model.gcn1.weights = (double[][]) in.readObject();
-    		model.gcn1.bias = (double[]) in.readObject();
-    		// Load GCN layer 2
-    		model.gcn2.weights = (double[][]) in.readObject();
-    		model.gcn2.bias = (double[]) in.readObject();
-    		// Load Dense layer
-    		model.dense.setWeight((double[][]) in.readObject());
-    		model.dense.setBias((double[]) in.readObject()); 
-
-    		// Load training state
-    		double lr = in.readDouble();
-    		trainer.setLearningRate(lr);
-    		trainer.setCurrentEpoch(in.readInt());
-
-    		// Load optimizers
-    		// Adam 1
-    		trainer.getOptimizer1().setM((double[][]) in.readObject());
-    		trainer.getOptimizer1().setV((double[][]) in.readObject());
-    		trainer.getOptimizer1().setT(in.readLong());
-    		// Adam 2
-    		trainer.getOptimizer2().setM((double[][]) in.readObject());
-    		trainer.getOptimizer2().setV((double[][]) in.readObject());
-    		trainer.getOptimizer2().setT(in.readLong());
-    		// Adam Dense
-    		trainer.getOptimizerDense().setM((double[][]) in.readObject());
-    		trainer.getOptimizerDense().setV((double[][]) in.readObject());
-    		trainer.getOptimizerDense().setT(in.readLong());
-
+    		if (!readSession(in, model, trainer)) return false;
     		System.out.println("Session resumed from: " + filePath);
     		return true;
 
@@ -125,16 +89,252 @@ public class GCNMemory {
     	}
     }
 
+    /**
+     * Loads only the model parameters of a saved session, for inference.
+     */
+    public static boolean loadModel(String filePath, GCNModel model) {
+    	File file = new File(filePath);
+    	try {
+    		if (Checkpoint.isCheckpoint(file)) return readCheckpoint(Checkpoint.open(file), model, null);
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    		return false;
+    	}
+    	try (ObjectInputStream in = new ObjectInputStream(
+    			new BufferedInputStream(new FileInputStream(file)))) {
+    		return readSession(in, model, null);
+    	} catch (IOException | ClassNotFoundException e) {
+    		e.printStackTrace();
+    		return false;
+    	}
+    }
+
+    /**
+     * Loads a saved session as a new model shaped like the one that was saved,
+     * for inference. Returns null if the file cannot be read.
+     */
+    public static GCNModel loadModel(String filePath) {
+    	File file = new File(filePath);
+    	try {
+    		if (Checkpoint.isCheckpoint(file)) {
+    			return Checkpoint.open(file).createModel();
+    		}
+    		GCNModel model = createLegacyModel(file);
+    		return loadModel(filePath, model) ? model : null;
+    	} catch (IOException | ClassNotFoundException | ClassCastException e) {
+    		e.printStackTrace();
+    		return null;
+    	}
+    }
+
+    /**
+     * Rewrites an ObjectOutputStream session (.dat) as a {@link Checkpoint}
+     * next to it, keeping the optimizer state. The accuracy is taken from the
+     * file name, where the old format kept it. Returns the new file, or null
+     * if the session could not be read or written.
+     */
+    public static File convertLegacySession(File legacy) {
+    	try {
+    		GCNModel model = createLegacyModel(legacy);
+    		GCNTrainer trainer = new GCNTrainer(model, 0.0);
+    		if (!resumeSession(legacy.getPath(), model, trainer)) return null;
+
+    		double accuracy = 0.0;
+    		Matcher m = Pattern.compile("Acccuracy%([0-9.]+)\\.dat$").matcher(legacy.getName());
+    		if (m.find()) accuracy = Double.parseDouble(m.group(1));
+
+    		String name = legacy.getName().replaceFirst("\\.dat$", "") + Checkpoint.EXTENSION;
+    		File converted = new File(legacy.getAbsoluteFile().getParentFile(), name);
+    		Checkpoint.write(converted, model, trainer.getOptimizer(), trainer.getCurrentEpoch(),
+    				trainer.getLearningRate(), accuracy);
+    		System.out.println("Converted " + legacy + " to " + converted);
+    		return converted;
+    	} catch (IOException | ClassNotFoundException | ClassCastException e) {
+    		e.printStackTrace();
+    		return null;
+    	}
+    }
+
+    /**
+     * A model shaped like the one in a legacy session file: sizes from the
+     * first-layer weights and dense biases, hops and precision from the
+     * fields appended later, if the file has them.
+     */
+    private static GCNModel createLegacyModel(File file) throws IOException, ClassNotFoundException {
+    	try (ObjectInputStream in = new ObjectInputStream(
+    			new BufferedInputStream(new FileInputStream(file)))) {
+    		double[][] w1 = (double[][]) in.readObject();
+    		for (int k = 0; k < 4; k++) in.readObject();  // b1, W2, b2, Wd
+    		double[] bd = (double[]) in.readObject();
+    		in.readDouble();
+    		in.readInt();
+    		for (int k = 0; k < 3; k++) {
+    			in.readObject();
+    			in.readObject();
+    			in.readLong();
+    		}
+    		int hops = 1;
+    		Precision precision = Precision.DOUBLE;
+    		try {
+    			hops = in.readInt();
+    			for (int k = 0; k < 4; k++) in.readObject();  // layout, values, m, v
+    			precision = Precision.valueOf((String) in.readObject());
+    		} catch (EOFException e) {
+    			// older file
+    		}
+    		return new GCNModel(w1.length, w1[0].length, bd.length, hops, precision);
+    	}
+    }
+
+    /**
+     * Reads a {@link Checkpoint} into the model's parameters and, unless
+     * trainer is null, the learning rate, epoch and optimizer state.
+     */
+    private static boolean readCheckpoint(Checkpoint checkpoint, GCNModel model, GCNTrainer trainer) {
+    	if (!checkpoint.matches(model)) return false;
+    	ParameterStore parameters = model.getParameters();
+    	checkpoint.readParameters(parameters.getValues());
+    	if (checkpoint.precision != model.getPrecision()) {
+    		System.out.println("Session was saved in " + checkpoint.precision + " precision, model uses "
+    				+ model.getPrecision());
+    	}
+    	model.getPrecision().round(parameters.getValues(), 0, parameters.size());
+
+    	if (trainer != null) {
+    		trainer.setLearningRate(checkpoint.learningRate);
+    		trainer.setCurrentEpoch(checkpoint.epoch);
+    		AdamOptimizer optimizer = trainer.getOptimizer();
+    		double[] m = checkpoint.readFirstMoments();
+    		if (m != null) {
+    			optimizer.setM(m);
+    			optimizer.setV(checkpoint.readSecondMoments());
+    		}
+    		optimizer.setT(checkpoint.step);
+    	}
+    	return true;
+    }
+
+    /**
+     * Reads a legacy ObjectOutputStream session into the model's parameters and,
+     * unless trainer is null, the learning rate, epoch and optimizer state.
+     * Files from before the flat parameter store only hold the weights and
+     * the GCN/dense biases; their LayerNorm parameters keep their defaults.
+     */
+    private static boolean readSession(ObjectInputStream in, GCNModel model, GCNTrainer trainer)
+    		throws IOException, ClassNotFoundException {
+    	ParameterStore parameters = model.getParameters();
+    	// Everything is read and checked before the model is touched, so a
+    	// session that does not fit leaves the caller's model as it was
+    	double[][] w1 = (double[][]) in.readObject();
+    	double[] b1 = (double[]) in.readObject();
+    	double[][] w2 = (double[][]) in.readObject();
+    	double[] b2 = (double[]) in.readObject();
+    	double[][] wd = (double[][]) in.readObject();
+    	double[] bd = (double[]) in.readObject();
+
+    	// Load training state
+    	double lr = in.readDouble();
+    	int epoch = in.readInt();
+
+    	// Optimizer moments of the three weight matrices
+    	String[] momentNames = { "gcn1.weights", "gcn2.weights", "dense.weights" };
+    	double[][][] mws = new double[3][][], vws = new double[3][][];
+    	long t = 0;
+    	for (int k = 0; k < momentNames.length; k++) {
+    		mws[k] = (double[][]) in.readObject();
+    		vws[k] = (double[][]) in.readObject();
+    		t = in.readLong();
+    	}
+
+    	// Sessions saved before propagation hops were recorded used 1
+    	int hops = 1;
+    	String layout = null;
+    	double[] values = null, fullM = null, fullV = null;
+    	Precision savedPrecision = Precision.DOUBLE;
+    	try {
+    		hops = in.readInt();
+    		layout = (String) in.readObject();
+    		values = (double[]) in.readObject();
+    		fullM = (double[]) in.readObject();
+    		fullV = (double[]) in.readObject();
+    		savedPrecision = Precision.valueOf((String) in.readObject());
+    	} catch (EOFException e) {
+    		// older file
+    	}
+    	if (hops != model.getPropagationHops()) {
+    		System.out.println("Session was trained with " + hops + " propagation hops, model uses "
+    				+ model.getPropagationHops());
+    		return false;
+    	}
+    	if (!hasShape(w1, model.gcn1.weights) || !hasShape(w2, model.gcn2.weights) || !hasShape(wd, model.dense.weights)
+    			|| b1.length != model.gcn1.bias.getCols() || b2.length != model.gcn2.bias.getCols()
+    			|| bd.length != model.dense.outputDim) {
+    		System.out.println("Session was saved from a model of a different shape");
+    		return false;
+    	}
+
+    	// Load GCN layers and the dense layer
+    	model.gcn1.weights.copyFrom(Matrix.fromArray(w1));
+    	setRow(model.gcn1.bias, b1);
+    	model.gcn2.weights.copyFrom(Matrix.fromArray(w2));
+    	setRow(model.gcn2.bias, b2);
+    	model.dense.setWeight(Matrix.fromArray(wd));
+    	model.dense.setBias(bd);
+
+    	double[] m = new double[parameters.size()];
+    	double[] v = new double[parameters.size()];
+    	boolean hasMoments = false;
+    	for (int k = 0; k < momentNames.length; k++) {
+    		if (mws[k] != null && vws[k] != null) {
+    			parameters.get(m, momentNames[k]).copyFrom(Matrix.fromArray(mws[k]));
+    			parameters.get(v, momentNames[k]).copyFrom(Matrix.fromArray(vws[k]));
+    			hasMoments = true;
+    		}
+    	}
+    	boolean sameLayout = parameters.describeLayout().equals(layout);
+    	if (sameLayout && values != null) {
+    		System.arraycopy(values, 0, parameters.getValues(), 0, values.length);
+    	}
+    	if (savedPrecision != model.getPrecision()) {
+    		System.out.println("Session was saved in " + savedPrecision + " precision, model uses "
+    				+ model.getPrecision());
+    	}
+    	// A DOUBLE session loaded into a FLOAT model is rounded; the other way round is exact
+    	model.getPrecision().round(parameters.getValues(), 0, parameters.size());
+
+    	if (trainer != null) {
+    		trainer.setLearningRate(lr);
+    		trainer.setCurrentEpoch(epoch);
+    		AdamOptimizer optimizer = trainer.getOptimizer();
+    		if (sameLayout && fullM != null && fullV != null) {
+    			optimizer.setM(fullM);
+    			optimizer.setV(fullV);
+    		} else if (hasMoments) {
+    			optimizer.setM(m);
+    			optimizer.setV(v);
+    		}
+    		optimizer.setT(t);
+    	}
+    	return true;
+    }
+
+    private static boolean hasShape(double[][] saved, Matrix m) {
+        return saved.length == m.getRows() && (saved.length == 0 || saved[0].length == m.getCols());
+    }
+
+    private static void setRow(Matrix row, double[] values) {
+        for (int j = 0; j < row.getCols(); j++) row.set(0, j, values[j]);
+    }
+
     // NEW FUNCTIONS BELOW
 
+    /** Saves the graphs as a columnar {@link GraphDataset} file */
     public static void saveGraphList(List<GCNGraph> graphList, String sessionName) {
         try {
             String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-            String fileName = SAVE_FOLDER + "/" + sessionName + "_graphs_" + timestamp + ".dat";
+            String fileName = SAVE_FOLDER + "/" + sessionName + "_graphs_" + timestamp + GraphDataset.EXTENSION;
 
-            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(fileName))) {
-                out.writeObject(graphList);
-            }
+            GraphDataset.write(new File(fileName), graphList);
 
             System.out.println("Graphs saved to: " + fileName);
 
@@ -143,6 +343,60 @@ public class GCNMemory {
         }
     }
 
+    /** Saves the image list of a streamed session, for {@link #openGraphData} */
+    public static void saveFileList(FileDataLoader data, String sessionName) {
+        try {
+            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+            String fileName = SAVE_FOLDER + "/" + sessionName + "_files_" + timestamp + FileDataLoader.EXTENSION;
+
+            data.write(new File(fileName));
+
+            System.out.println("File list saved to: " + fileName);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Same as {@link #openGraphData(String, GraphPipeline)} with a default pipeline for file lists */
+    public static DataLoader openGraphData(String graphFilePath) {
+        File file = new File(graphFilePath);
+        return openGraphData(graphFilePath, FileDataLoader.isFileList(file) ? GraphPipeline.createDefault() : null);
+    }
+
+    /**
+     * Opens saved graphs for training: a {@link GraphDataset} is read from
+     * its mapped file batch by batch, the file list of a streamed session
+     * is streamed again through pipeline, and an older serialized list is
+     * loaded whole. Returns null if the file cannot be read.
+     */
+    public static DataLoader openGraphData(String graphFilePath, GraphPipeline pipeline) {
+        File file = new File(graphFilePath);
+        if (FileDataLoader.isFileList(file)) {
+            try {
+                FileDataLoader files = FileDataLoader.open(file, pipeline, System.nanoTime());
+                System.out.println("File list opened: " + graphFilePath + " (" + files.size() + " images)");
+                return files;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        if (GraphDataset.isDataset(file)) {
+            try {
+                GraphDataset dataset = GraphDataset.open(file);
+                System.out.println("Graph dataset opened: " + graphFilePath + " (" + dataset.size() + " graphs)");
+                return dataset;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        List<GCNGraph> graphs = loadGraphList(graphFilePath);
+        return graphs == null ? null : new ListDataLoader(graphs);
+    }
+
+    /** Reads every saved graph into memory, from a dataset or a serialized list */
     @SuppressWarnings("unchecked")
     public static List<GCNGraph> loadGraphList(String graphFilePath) {
         File file = new File(graphFilePath);
@@ -150,6 +404,16 @@ public class GCNMemory {
             System.out.println("Graph file does not exist: " + graphFilePath);
             return null;
         }
+        if (GraphDataset.isDataset(file)) {
+            try {
+                List<GCNGraph> graphList = GraphDataset.open(file).toList();
+                System.out.println("Graphs loaded from: " + graphFilePath);
+                return graphList;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
 
         try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
             Object object = in.readObject();
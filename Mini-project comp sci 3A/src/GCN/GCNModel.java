@@ -1,103 +1,358 @@
 package GCN;
 
 import java.util.Arrays;
-import WGraph.GraphUtils;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import WGraph.FloatMatrix;
+import WGraph.GCNGraph;
+import WGraph.GraphBatch;
+import WGraph.Matrix;
+import WGraph.Precision;
+import WGraph.SparseMatrix;
 
 public class GCNModel {
     protected final GCNLayer gcn1, gcn2;
     protected final DenseLayer dense;
 
-    // Stored activations for backprop
-    private double[][] lastZ1, lastH1;
-    private double[][] lastZ2, lastH2;
-    private double[] lastCombined;
-    private int[] maxIndices;
+    // Propagation steps folded into the first layer's input: 1 is a plain
+    // GCN layer, 2 or more use Â^hops · X as in SGC
+    private final int propagationHops;
+
+    // Every trainable parameter, packed; the layers hold views into it
+    private final ParameterStore parameters;
+
+    // DOUBLE, or FLOAT to keep every parameter exactly representable as float
+    // and run both GCN layers on float activations
+    private final Precision precision;
 
     public GCNModel(int inputSize, int hiddenSize, int outputSize) {
+        this(inputSize, hiddenSize, outputSize, 1);
+    }
+
+    public GCNModel(int inputSize, int hiddenSize, int outputSize, int propagationHops) {
+        this(inputSize, hiddenSize, outputSize, propagationHops, Precision.fromProperty());
+    }
+
+    public GCNModel(int inputSize, int hiddenSize, int outputSize, int propagationHops, Precision precision) {
+        if (propagationHops < 1) throw new IllegalArgumentException("propagationHops must be at least 1");
+        this.propagationHops = propagationHops;
+        this.precision = precision;
         this.gcn1 = new GCNLayer(inputSize, hiddenSize, "he");
         this.gcn2 = new GCNLayer(hiddenSize, hiddenSize, "he");
         this.dense = new DenseLayer(hiddenSize * 2, outputSize); // mean + max concatenated
+
+        Map<String, Matrix> initial = new LinkedHashMap<>();
+        gcn1.collectParameters("gcn1", initial);
+        gcn2.collectParameters("gcn2", initial);
+        dense.collectParameters("dense", initial);
+        parameters = new ParameterStore(initial);
+        gcn1.bindParameters("gcn1", parameters);
+        gcn2.bindParameters("gcn2", parameters);
+        dense.bindParameters("dense", parameters);
+        precision.round(parameters.getValues(), 0, parameters.size());
     }
 
-    public double[] forward(double[][] A, double[][] X) {
-        // 1. GCN + LeakyReLU Layer 1
-        lastZ1 = gcn1.forward(A, X);
-        lastH1 = gcn1.leakyReLU(lastZ1);
+    /**
+     * Precision the parameters are kept at, which the optimizer rounds every
+     * step to, and that the GCN layers compute in
+     */
+    public Precision getPrecision() {
+        return precision;
+    }
 
-        // 2. GCN + LeakyReLU Layer 2
-        lastZ2 = gcn2.forward(A, lastH1);
-        lastH2 = gcn2.leakyReLU(lastZ2);
+    public ParameterStore getParameters() {
+        return parameters;
+    }
+
+    /**
+     * A model of the same shape holding a copy of the current parameters,
+     * unaffected by further training of this one.
+     */
+    public GCNModel copy() {
+        GCNModel copy = new GCNModel(gcn1.weights.getRows(), gcn1.weights.getCols(), dense.outputDim,
+            propagationHops, precision);
+        System.arraycopy(parameters.getValues(), 0, copy.parameters.getValues(), 0, parameters.size());
+        return copy;
+    }
 
-        // 3. Global Pooling
-        double[][] mean = meanPooling(lastH2);
-        double[][] max = maxPoolingWithIndices(lastH2);
+    /**
+     * Class probabilities for a graph given as adjacency and features. Like
+     * {@link #predict}, keeps no state in the model.
+     */
+    public double[] forward(SparseMatrix A, Matrix X) {
+        return forwardPass(A, X).output;
+    }
 
-        // 4. Concatenate pooled features
-        int dim = mean[0].length;
-        lastCombined = new double[dim * 2];
-        System.arraycopy(mean[0], 0, lastCombined, 0, dim);
-        System.arraycopy(max[0], 0, lastCombined, dim, dim);
+    /**
+     * Class probabilities for one graph, starting from its cached
+     * propagation. Reentrant: the parameters are only read and every
+     * activation lives in a workspace local to the call, so any number of
+     * threads may classify against one shared model as long as no training
+     * step updates it at the same time.
+     */
+    public double[] predict(GCNGraph graph) {
+        return forwardPass(graph, new Workspace()).output;
+    }
 
-        // 5. Dense + Softmax
-        double[] logits = dense.forward(lastCombined);
-        return GraphUtils.softmax(new double[][] { logits })[0];
+    /**
+     * Runs the model and returns the output together with the activations
+     * the backward pass needs. Keeps no state in the model, so it may be
+     * called from several threads at once. Computes in double whatever the
+     * model's precision.
+     */
+    public ForwardPass forwardPass(SparseMatrix A, Matrix X) {
+        MatrixBackend blas = LinearAlgebra.get();
+        Matrix AX = X;
+        for (int h = 0; h < propagationHops; h++) AX = blas.spmm(A, AX);
+        return forwardPass(A, X, AX, null, null, new Workspace());
     }
 
-    private double[][] meanPooling(double[][] features) {
-        int dim = features[0].length;
-        double[] sum = new double[dim];
-        for (double[] vec : features) {
-            for (int i = 0; i < dim; i++) sum[i] += vec[i];
+    /**
+     * Forward pass that starts layer 1 from the graph's cached propagation
+     * instead of recomputing it.
+     */
+    public ForwardPass forwardPass(GCNGraph graph) {
+        return forwardPass(graph, new Workspace());
+    }
+
+    /**
+     * Same as {@link #forwardPass(GCNGraph)}, but every activation is written
+     * into the workspace's buffers. The returned pass belongs to the
+     * workspace and is overwritten by its next forward pass.
+     */
+    public ForwardPass forwardPass(GCNGraph graph, Workspace ws) {
+        if (precision == Precision.FLOAT) return forwardPassFloat(graph, ws);
+        int n = graph.getNodeCount();
+        // The full input is only needed for a residual around layer 1
+        Matrix X = gcn1.hasResidual()
+            ? graph.getFeatures(ws.matrix(Workspace.Buffer.X, n, graph.getFeatureDim())) : null;
+        Matrix AN = graph.getPropagatedNodeFeatures(propagationHops,
+            ws.matrix(Workspace.Buffer.AX, n, graph.getNodeFeatureDim()));
+        return forwardPass(graph.getNormalizedAdjSparse(), X, AN,
+            graph.getPropagatedContextScale(propagationHops), graph.getContext(), ws);
+    }
+
+    // With contextScale null, AX is the full propagated input; otherwise it
+    // holds only the node part and the context is applied by forwardSplit
+    private ForwardPass forwardPass(SparseMatrix A, Matrix X, Matrix AX, double[] contextScale, Matrix context,
+                                    Workspace ws) {
+        int n = AX.getRows(), hidden = gcn1.weights.getCols();
+
+        // 1. GCN + LeakyReLU Layer 1, from the propagated input
+        Matrix pre1 = ws.matrix(Workspace.Buffer.PRE1, n, hidden);
+        Matrix z1 = ws.matrix(Workspace.Buffer.Z1, n, hidden);
+        if (contextScale == null) {
+            gcn1.forwardPropagated(AX, X, pre1, z1);
+        } else {
+            gcn1.forwardSplit(AX, contextScale, context, null, X,
+                ws.matrix(Workspace.Buffer.CONTEXT_PROJ, 1, hidden), pre1, z1);
         }
-        for (int i = 0; i < dim; i++) sum[i] /= features.length;
-        return new double[][] { sum };
+        Matrix h1 = gcn1.leakyReLU(z1, ws.matrix(Workspace.Buffer.H1, n, hidden));
+
+        // 2. GCN + LeakyReLU Layer 2
+        Matrix ah1 = ws.matrix(Workspace.Buffer.AH1, n, hidden);
+        Matrix pre2 = ws.matrix(Workspace.Buffer.PRE2, n, hidden);
+        Matrix z2 = gcn2.forward(A, h1, ah1, pre2, ws.matrix(Workspace.Buffer.Z2, n, hidden));
+        Matrix h2 = gcn2.leakyReLU(z2, ws.matrix(Workspace.Buffer.H2, n, hidden));
+
+        // 3-4. Global mean and max pooling, concatenated
+        int dim = h2.getCols();
+        double[] combined = ws.vector(Workspace.Buffer.COMBINED, dim * 2);
+        int[] maxIndices = ws.maxIndices(dim);
+        meanPooling(h2, combined, 0);
+        maxPoolingWithIndices(h2, combined, dim, maxIndices, 0);
+
+        // 5. Dense + Softmax
+        Matrix probs = ws.rowMatrix(Workspace.Buffer.LOGITS, dense.outputDim);
+        dense.forward(combined, probs.getData());
+        Kernels.get().softmax(probs, probs);
+        ws.pass.set(A, X, AX, contextScale, context, pre1, z1, h1, ah1, pre2, z2, h2, combined, maxIndices, probs.getData());
+        return ws.pass;
     }
 
-    private double[][] maxPoolingWithIndices(double[][] features) {
-        int dim = features[0].length;
-        maxIndices = new int[dim];
-        double[] max = new double[dim];
-        Arrays.fill(max, Double.NEGATIVE_INFINITY);
-        for (int i = 0; i < features.length; i++) {
-            for (int j = 0; j < dim; j++) {
-                if (features[i][j] > max[j]) {
-                    max[j] = features[i][j];
-                    maxIndices[j] = i;
-                }
-            }
+    // FLOAT: both GCN layers in float, reading the graph's float storage
+    // directly; pooling sums and everything after it stay double
+    private ForwardPass forwardPassFloat(GCNGraph graph, Workspace ws) {
+        int n = graph.getNodeCount(), hidden = gcn1.weights.getCols();
+        float[] params = floatParameters(ws);
+        SparseMatrix A = graph.getNormalizedAdjSparse();
+        double[] As = graph.getPropagatedContextScale(propagationHops);
+        Matrix context = graph.getContext();
+        FloatMatrix X = gcn1.hasResidual()
+            ? graph.getFloatFeatures(ws.floatMatrix(Workspace.Buffer.X, n, graph.getFeatureDim())) : null;
+        FloatMatrix AN = graph.getPropagatedFloatFeatures(propagationHops,
+            ws.floatMatrix(Workspace.Buffer.AX, n, graph.getNodeFeatureDim()));
+
+        FloatMatrix pre1 = ws.floatMatrix(Workspace.Buffer.PRE1, n, hidden);
+        FloatMatrix z1 = gcn1.forwardSplit(AN, As, context, null, X, params,
+            ws.matrix(Workspace.Buffer.CONTEXT_PROJ, 1, hidden), pre1, ws.floatMatrix(Workspace.Buffer.Z1, n, hidden));
+        FloatMatrix h1 = gcn1.leakyReLU(z1, ws.floatMatrix(Workspace.Buffer.H1, n, hidden));
+        FloatMatrix ah1 = ws.floatMatrix(Workspace.Buffer.AH1, n, hidden);
+        FloatMatrix pre2 = ws.floatMatrix(Workspace.Buffer.PRE2, n, hidden);
+        FloatMatrix z2 = gcn2.forward(A, h1, ah1, params, pre2, ws.floatMatrix(Workspace.Buffer.Z2, n, hidden));
+        FloatMatrix h2 = gcn2.leakyReLU(z2, ws.floatMatrix(Workspace.Buffer.H2, n, hidden));
+
+        double[] combined = ws.vector(Workspace.Buffer.COMBINED, hidden * 2);
+        int[] maxIndices = ws.maxIndices(hidden);
+        meanPooling(h2, combined, 0);
+        maxPoolingWithIndices(h2, combined, hidden, maxIndices, 0);
+
+        Matrix probs = ws.rowMatrix(Workspace.Buffer.LOGITS, dense.outputDim);
+        dense.forward(combined, probs.getData());
+        Kernels.get().softmax(probs, probs);
+        ws.pass.setFloat(A, params, X, AN, As, context, pre1, z1, h1, ah1, pre2, z2, h2,
+            combined, maxIndices, probs.getData());
+        return ws.pass;
+    }
+
+    // The parameters rounded to float into the workspace; exact, since a FLOAT model keeps them float
+    private float[] floatParameters(Workspace ws) {
+        float[] params = ws.floatVector(Workspace.Buffer.PARAMETERS, parameters.size());
+        parameters.narrow(params);
+        return params;
+    }
+
+    /**
+     * Runs every graph of the batch at once: both GCN layers work on the
+     * block-diagonal adjacency and stacked features, pooling runs per graph
+     * and the dense layer is one GEMM over the pooled rows.
+     */
+    public BatchForwardPass forwardBatch(GraphBatch batch) {
+        return forwardBatch(batch, new Workspace());
+    }
+
+    /**
+     * Batched forward pass into the workspace's buffers; the returned pass
+     * belongs to the workspace.
+     */
+    public BatchForwardPass forwardBatch(GraphBatch batch, Workspace ws) {
+        SparseMatrix A = batch.getAdjacency();
+        if (batch.getPropagationHops() != propagationHops)
+            throw new IllegalArgumentException("Batch propagated " + batch.getPropagationHops()
+                + " hops, model expects " + propagationHops);
+        if (batch.getPrecision() != precision)
+            throw new IllegalArgumentException("Batch packed in " + batch.getPrecision()
+                + ", model computes in " + precision);
+        if (precision == Precision.FLOAT) return forwardBatchFloat(batch, ws);
+        int n = batch.getNodeCount(), hidden = gcn1.weights.getCols();
+
+        // 1-2. Both GCN layers over the whole batch
+        Matrix pre1 = ws.matrix(Workspace.Buffer.PRE1, n, hidden);
+        Matrix z1 = gcn1.forwardSplit(batch.getPropagatedNodeFeatures(), batch.getPropagatedContextScale(),
+            batch.getContexts(), batch.getOffsets(), gcn1.hasResidual() ? batch.getFeatures() : null,
+            ws.matrix(Workspace.Buffer.CONTEXT_PROJ, batch.getGraphCount(), hidden),
+            pre1, ws.matrix(Workspace.Buffer.Z1, n, hidden));
+        Matrix h1 = gcn1.leakyReLU(z1, ws.matrix(Workspace.Buffer.H1, n, hidden));
+        Matrix ah1 = ws.matrix(Workspace.Buffer.AH1, n, hidden);
+        Matrix pre2 = ws.matrix(Workspace.Buffer.PRE2, n, hidden);
+        Matrix z2 = gcn2.forward(A, h1, ah1, pre2, ws.matrix(Workspace.Buffer.Z2, n, hidden));
+        Matrix h2 = gcn2.leakyReLU(z2, ws.matrix(Workspace.Buffer.H2, n, hidden));
+
+        // 3-4. Mean and max pooling per graph, concatenated into one row each
+        int graphs = batch.getGraphCount(), dim = h2.getCols();
+        Matrix combined = ws.matrix(Workspace.Buffer.BATCH_COMBINED, graphs, dim * 2);
+        int[] maxIndices = ws.maxIndices(graphs * dim);
+        for (int g = 0; g < graphs; g++) {
+            int start = batch.getOffset(g), end = batch.getOffset(g + 1);
+            Matrix segment = h2.rowView(start, end - start);
+            int row = combined.index(g, 0);
+            meanPooling(segment, combined.getData(), row);
+            maxPoolingWithIndices(segment, combined.getData(), row + dim, maxIndices, g * dim);
+            for (int j = 0; j < dim; j++) maxIndices[g * dim + j] += start;
         }
-        return new double[][] { max };
+
+        // 5. Dense + Softmax for all graphs at once
+        Matrix probs = dense.forward(combined, ws.matrix(Workspace.Buffer.BATCH_PROBS, graphs, dense.outputDim));
+        Kernels.get().softmax(probs, probs);
+        ws.batchPass.set(batch, pre1, z1, h1, ah1, pre2, z2, h2, combined, maxIndices, probs);
+        return ws.batchPass;
     }
 
-    // Getters for Trainer
-    public double[][] getLastZ1()    
-    { 
-    	return lastZ1; 
+    private BatchForwardPass forwardBatchFloat(GraphBatch batch, Workspace ws) {
+        SparseMatrix A = batch.getAdjacency();
+        int n = batch.getNodeCount(), hidden = gcn1.weights.getCols();
+        float[] params = floatParameters(ws);
+
+        FloatMatrix pre1 = ws.floatMatrix(Workspace.Buffer.PRE1, n, hidden);
+        FloatMatrix z1 = gcn1.forwardSplit(batch.getPropagatedFloatFeatures(), batch.getPropagatedContextScale(),
+            batch.getContexts(), batch.getOffsets(), gcn1.hasResidual() ? batch.getFloatFeatures() : null, params,
+            ws.matrix(Workspace.Buffer.CONTEXT_PROJ, batch.getGraphCount(), hidden),
+            pre1, ws.floatMatrix(Workspace.Buffer.Z1, n, hidden));
+        FloatMatrix h1 = gcn1.leakyReLU(z1, ws.floatMatrix(Workspace.Buffer.H1, n, hidden));
+        FloatMatrix ah1 = ws.floatMatrix(Workspace.Buffer.AH1, n, hidden);
+        FloatMatrix pre2 = ws.floatMatrix(Workspace.Buffer.PRE2, n, hidden);
+        FloatMatrix z2 = gcn2.forward(A, h1, ah1, params, pre2, ws.floatMatrix(Workspace.Buffer.Z2, n, hidden));
+        FloatMatrix h2 = gcn2.leakyReLU(z2, ws.floatMatrix(Workspace.Buffer.H2, n, hidden));
+
+        int graphs = batch.getGraphCount();
+        Matrix combined = ws.matrix(Workspace.Buffer.BATCH_COMBINED, graphs, hidden * 2);
+        int[] maxIndices = ws.maxIndices(graphs * hidden);
+        for (int g = 0; g < graphs; g++) {
+            int start = batch.getOffset(g), end = batch.getOffset(g + 1);
+            FloatMatrix segment = h2.rowView(start, end - start);
+            int row = combined.index(g, 0);
+            meanPooling(segment, combined.getData(), row);
+            maxPoolingWithIndices(segment, combined.getData(), row + hidden, maxIndices, g * hidden);
+            for (int j = 0; j < hidden; j++) maxIndices[g * hidden + j] += start;
+        }
+
+        Matrix probs = dense.forward(combined, ws.matrix(Workspace.Buffer.BATCH_PROBS, graphs, dense.outputDim));
+        Kernels.get().softmax(probs, probs);
+        ws.batchPass.setFloat(batch, params, pre1, z1, h1, ah1, pre2, z2, h2, combined, maxIndices, probs);
+        return ws.batchPass;
     }
-    
-    public double[][] getLastH1()    
-    { 
-    	return lastH1; 
+
+    public int getPropagationHops() {
+        return propagationHops;
     }
-    
-    public double[][] getLastZ2()    
-    { 
-    	return lastZ2; 
+
+    // Mean of every column, written to out[off .. off + cols)
+    private void meanPooling(Matrix features, double[] out, int off) {
+        int n = features.getRows(), dim = features.getCols();
+        Arrays.fill(out, off, off + dim, 0.0);
+        for (int r = 0; r < n; r++) {
+            for (int i = 0; i < dim; i++) out[off + i] += features.get(r, i);
+        }
+        for (int i = 0; i < dim; i++) out[off + i] /= n;
     }
-    
-    public double[][] getLastH2()    
-    { 
-    	return lastH2; 
+
+    // Float rows, summed in double
+    private void meanPooling(FloatMatrix features, double[] out, int off) {
+        int n = features.getRows(), dim = features.getCols();
+        Arrays.fill(out, off, off + dim, 0.0);
+        for (int r = 0; r < n; r++) {
+            for (int i = 0; i < dim; i++) out[off + i] += features.get(r, i);
+        }
+        for (int i = 0; i < dim; i++) out[off + i] /= n;
     }
-    
-    public double[]   getLastCombined() 
-    { 
-    	return lastCombined; 
+
+    // Max of every column to out[off ..], and the row it came from to maxIndices[idxOff ..]
+    private void maxPoolingWithIndices(Matrix features, double[] out, int off, int[] maxIndices, int idxOff) {
+        int n = features.getRows(), dim = features.getCols();
+        Arrays.fill(out, off, off + dim, Double.NEGATIVE_INFINITY);
+        Arrays.fill(maxIndices, idxOff, idxOff + dim, 0);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < dim; j++) {
+                if (features.get(i, j) > out[off + j]) {
+                    out[off + j] = features.get(i, j);
+                    maxIndices[idxOff + j] = i;
+                }
+            }
+        }
     }
-    
-    public int getMaxIndex(int featureDim) 
-    { 
-    	return maxIndices[featureDim]; 
+
+    private void maxPoolingWithIndices(FloatMatrix features, double[] out, int off, int[] maxIndices, int idxOff) {
+        int n = features.getRows(), dim = features.getCols();
+        Arrays.fill(out, off, off + dim, Double.NEGATIVE_INFINITY);
+        Arrays.fill(maxIndices, idxOff, idxOff + dim, 0);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < dim; j++) {
+                if (features.get(i, j) > out[off + j]) {
+                    out[off + j] = features.get(i, j);
+                    maxIndices[idxOff + j] = i;
+                }
+            }
+        }
     }
 }
-
@@ -4,103 +4,416 @@ import java.util.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+import WGraph.FloatMatrix;
 import WGraph.GCNGraph;
+import WGraph.GraphBatch;
+import WGraph.Matrix;
+import WGraph.SparseMatrix;
 
 public class GCNTrainer {
     private GCNModel model;
     private double learningRate;
     private int currentEpoch = 0;
-    private AdamOptimizer optimizer1, optimizer2,optimizerDense;
+    // One Adam state for every parameter in the model's ParameterStore
+    private AdamOptimizer optimizer;
     private volatile boolean stopRequested = false;
+    private volatile int parallelism = Math.max(1,
+        Integer.getInteger("gcn.trainThreads", Runtime.getRuntime().availableProcessors()));
+    private ForkJoinPool pool;
+    private volatile boolean blockDiagonal = Boolean.getBoolean("gcn.blockBatch");
+    // Validation of each epoch, overlapped with training the next one
+    private volatile boolean overlapValidation =
+        Boolean.parseBoolean(System.getProperty("gcn.overlapValidation", "true"));
+    private ExecutorService validationExecutor;
+    private volatile Future<?> pendingValidation;
+    private volatile double validationAccuracy = 0.0;
+    private volatile ValidationListener validationListener;
+    // Periodic background checkpoints; null when off
+    private CheckpointWriter checkpointWriter = CheckpointWriter.fromProperties();
+    // Where each epoch's time goes
+    private final TrainingMetrics metrics = new TrainingMetrics();
+
+    // Buffers reused on every step: one workspace per thread, one gradient slot per batch position
+    private final ThreadLocal<Workspace> workspace = ThreadLocal.withInitial(Workspace::new);
+    private Gradients[] gradientSlots = new Gradients[0];
 
     public GCNTrainer(GCNModel model, double learningRate) {
         this.model = model;
         this.learningRate = learningRate;
-        optimizer1 = new AdamOptimizer(learningRate);
-        optimizer2 = new AdamOptimizer(learningRate);
-        optimizerDense= new AdamOptimizer(learningRate);
+        optimizer = new AdamOptimizer(learningRate, model.getPrecision());
+    }
+
+    private double computeLoss(double[] prediction, double[] label) {
+        return computeLoss(prediction, 0, label, 0, label.length);
     }
 
-    private double computeLoss(double[][] predictions, double[][] labels) {
+    // Cross-entropy of the numClasses values starting at the given offsets
+    private double computeLoss(double[] prediction, int predOff, double[] label, int labelOff, int numClasses) {
         double loss = 0.0;
         double epsilon = 1e-9;
-        int n = labels.length;
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < labels[0].length; j++) {
-                double p = Math.max(epsilon, Math.min(1 - epsilon, predictions[i][j]));
-                loss -= labels[i][j] * Math.log(p);
+        for (int j = 0; j < numClasses; j++) {
+            double p = Math.max(epsilon, Math.min(1 - epsilon, prediction[predOff + j]));
+            loss -= label[labelOff + j] * Math.log(p);
+        }
+        return loss;
+    }
+
+    private void computeLossGradient(double[] prediction, int predOff, double[] label, int labelOff,
+                                     double[] grad, int gradOff, int numClasses) {
+        for (int j = 0; j < numClasses; j++) {
+            grad[gradOff + j] = prediction[predOff + j] - label[labelOff + j];
+        }
+    }
+
+    private Matrix leakyReLUBackward(Matrix dH, Matrix Z, Matrix dZ) {
+        Kernels.get().leakyReLUBackward(dH, Z, dZ, GCNLayer.LEAKY_SLOPE);
+        return dZ;
+    }
+
+    private FloatMatrix leakyReLUBackward(FloatMatrix dH, FloatMatrix Z, FloatMatrix dZ) {
+        Kernels.get().leakyReLUBackward(dH, Z, dZ, GCNLayer.LEAKY_SLOPE);
+        return dZ;
+    }
+
+    /**
+     * Gradients of every model parameter and the loss, for one graph or
+     * summed over several. The flat array is laid out like the model's
+     * ParameterStore; the named matrices are views into it.
+     */
+    static final class Gradients {
+        final double[] flat;
+        final Matrix w1, b1, gamma1, beta1;
+        final Matrix w2, b2, gamma2, beta2;
+        final Matrix wDense, bDense;
+        double loss;
+
+        Gradients(GCNModel model) {
+            ParameterStore p = model.getParameters();
+            flat = new double[p.size()];
+            w1 = p.get(flat, "gcn1.weights");
+            b1 = p.get(flat, "gcn1.bias");
+            gamma1 = p.get(flat, "gcn1.ln.gamma");
+            beta1 = p.get(flat, "gcn1.ln.beta");
+            w2 = p.get(flat, "gcn2.weights");
+            b2 = p.get(flat, "gcn2.bias");
+            gamma2 = p.get(flat, "gcn2.ln.gamma");
+            beta2 = p.get(flat, "gcn2.ln.beta");
+            wDense = p.get(flat, "dense.weights");
+            bDense = p.get(flat, "dense.bias");
+        }
+
+        void clear() {
+            Arrays.fill(flat, 0.0);
+            loss = 0.0;
+        }
+
+        void add(Gradients other) {
+            for (int k = 0; k < flat.length; k++) flat[k] += other.flat[k];
+            loss += other.loss;
+        }
+    }
+
+    /**
+     * Forward and backward pass for a single graph, with every intermediate
+     * in the workspace and the result written over out. Only reads the
+     * model, so graphs of a batch can be processed concurrently.
+     */
+    Gradients computeGradients(GCNGraph graph, MatrixBackend blas, Workspace ws, Gradients out) {
+        SparseMatrix A = graph.getNormalizedAdjSparse();
+        double[] label = graph.getGraphLevelLabel()[0];
+        int numClasses = label.length;
+
+        // Forward through model, layer 1 starting from the cached Â · X
+        long start = System.nanoTime();
+        ForwardPass pass = model.forwardPass(graph, ws);
+        double[] graphOut = pass.getOutput();
+        long forwardDone = System.nanoTime();
+        metrics.addForward(forwardDone - start);
+
+        // Loss
+        out.clear();
+        out.loss = computeLoss(graphOut, label);
+
+        // Gradient at output
+        double[] dGraph = ws.vector(Workspace.Buffer.D_OUT, numClasses);  // shape [C]
+        computeLossGradient(graphOut, 0, label, 0, dGraph, 0, numClasses);
+
+        // BACKWARD PASS (high-level):
+        // 1) Dense layer grads
+        //    - compute grad w.r.t. weights and bias
+        //    - compute grad w.r.t. combined feature vector
+        double[] combined = pass.getCombined(); // retrieve from forward
+        blas.outer(dGraph, combined, out.wDense, false);
+        for (int c = 0; c < numClasses; c++) out.bDense.set(0, c, dGraph[c]);
+        double[] dCombined = ws.vector(Workspace.Buffer.D_COMBINED, combined.length);
+        blas.gemvT(model.dense.weights, dGraph, dCombined, false);
+
+        // 2) dCombined holds dMean in [0, h) and dMax in [h, 2h)
+        int h = dCombined.length / 2;
+
+        // 3) Backprop through pooling to get gradient on H2 embeddings
+        int N = graph.getNodeCount();
+        if (pass.parameters != null) {
+            // FLOAT model: the same into a float dH2, then the float layers
+            FloatMatrix dH2 = ws.floatMatrix(Workspace.Buffer.D_H2, N, h);
+            for (int i = 0; i < N; i++) {
+                for (int j = 0; j < h; j++) {
+                    dH2.set(i, j, (float) (dCombined[j] / N));
+                }
+            }
+            for (int j = 0; j < h; j++) {
+                dH2.add(pass.getMaxIndex(j), j, (float) dCombined[h + j]);
+            }
+            backpropLayers(A, pass.floatAX, pass.contextScale, pass.context, null, pass.floatPre1, pass.floatZ1,
+                pass.floatAh1, pass.floatPre2, pass.floatZ2, dH2, pass.parameters, blas, ws, out);
+            metrics.addBackward(System.nanoTime() - forwardDone);
+            return out;
+        }
+        Matrix dH2 = ws.matrix(Workspace.Buffer.D_H2, N, h);
+
+        // Mean pooling gradient: equally distribute
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j < h; j++) {
+                dH2.set(i, j, dCombined[j] / N);
             }
         }
-        return loss / n;
+        // Max pooling gradient: only at max indices
+        for (int j = 0; j < h; j++) {
+            int idx = pass.getMaxIndex(j); // saved argmax per dim
+            dH2.add(idx, j, dCombined[h + j]);
+        }
+
+        backpropLayers(A, pass.AX, pass.contextScale, pass.context, null, pass.pre1, pass.z1, pass.ah1,
+            pass.pre2, pass.z2, dH2, blas, ws, out);
+        metrics.addBackward(System.nanoTime() - forwardDone);
+        return out;
+    }
+
+    /**
+     * Backward pass through both GCN layers from the gradient on H2, shared
+     * by the per-graph and block-diagonal paths. Adds the gradients of each
+     * layer's weights, bias and LayerNorm into out. Layer 1's input comes
+     * split into AN = Â·N, As = Â·s and the graph contexts (see
+     * {@link GCNLayer#forwardSplit}).
+     */
+    private void backpropLayers(SparseMatrix A, Matrix AN, double[] As, Matrix contexts, int[] offsets,
+                                Matrix pre1, Matrix Z1, Matrix AH1, Matrix pre2, Matrix Z2, Matrix dH2,
+                                MatrixBackend blas, Workspace ws, Gradients out) {
+        int N = dH2.getRows(), h = dH2.getCols();
+
+        // Layer 2: through leakyReLU, then LayerNorm, bias and weights (dZ2 becomes dPre2)
+        Matrix dZ2 = leakyReLUBackward(dH2, Z2, ws.matrix(Workspace.Buffer.D_Z2, N, h));
+        model.gcn2.backward(AH1, pre2, dZ2, dZ2, blas, out.w2, out.b2, out.gamma2, out.beta2);
+
+        // gradient to H1, through Â·H1·W2 and the residual connection
+        Matrix dZ2W = ws.matrix(Workspace.Buffer.D_H1_PRE, N, model.gcn2.weights.getRows());
+        Matrix dH1 = ws.matrix(Workspace.Buffer.D_H1, N, dZ2W.getCols());
+        model.gcn2.inputGradient(A, dZ2, blas, dZ2W, dH1);
+
+        // Layer 1, from the propagated node features and context
+        Matrix dZ1 = leakyReLUBackward(dH1, Z1, ws.matrix(Workspace.Buffer.D_Z1, N, dH1.getCols()));
+        Matrix dProj = ws.matrix(Workspace.Buffer.D_CONTEXT_PROJ, contexts.getRows(), dZ1.getCols());
+        model.gcn1.backwardSplit(AN, As, contexts, offsets, pre1, dZ1, dZ1, blas, dProj,
+            out.w1, out.b1, out.gamma1, out.beta1);
     }
 
-    private double[][] computeLossGradient(double[][] predictions, double[][] labels) {
-        int n = labels.length;
-        int numClasses = labels[0].length;
-        double[][] grad = new double[n][numClasses];
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < numClasses; j++) {
-                grad[i][j] = predictions[i][j] - labels[i][j];
+    /**
+     * {@link #backpropLayers(SparseMatrix, Matrix, double[], Matrix, int[], Matrix, Matrix, Matrix, Matrix, Matrix, Matrix, MatrixBackend, Workspace, Gradients)}
+     * for a model computing in FLOAT, from the float activations and the
+     * parameters rounded to float. The gradients in out stay double.
+     */
+    private void backpropLayers(SparseMatrix A, FloatMatrix AN, double[] As, Matrix contexts, int[] offsets,
+                                FloatMatrix pre1, FloatMatrix Z1, FloatMatrix AH1, FloatMatrix pre2, FloatMatrix Z2,
+                                FloatMatrix dH2, float[] params, MatrixBackend blas, Workspace ws, Gradients out) {
+        int N = dH2.getRows(), h = dH2.getCols();
+
+        FloatMatrix dZ2 = leakyReLUBackward(dH2, Z2, ws.floatMatrix(Workspace.Buffer.D_Z2, N, h));
+        model.gcn2.backward(AH1, pre2, dZ2, dZ2, params, blas, out.w2, out.b2, out.gamma2, out.beta2);
+
+        FloatMatrix dZ2W = ws.floatMatrix(Workspace.Buffer.D_H1_PRE, N, model.gcn2.weights.getRows());
+        FloatMatrix dH1 = ws.floatMatrix(Workspace.Buffer.D_H1, N, dZ2W.getCols());
+        model.gcn2.inputGradient(A, dZ2, params, blas, dZ2W, dH1);
+
+        FloatMatrix dZ1 = leakyReLUBackward(dH1, Z1, ws.floatMatrix(Workspace.Buffer.D_Z1, N, dH1.getCols()));
+        Matrix dProj = ws.matrix(Workspace.Buffer.D_CONTEXT_PROJ, contexts.getRows(), dZ1.getCols());
+        model.gcn1.backwardSplit(AN, As, contexts, offsets, pre1, dZ1, dZ1, params, blas, dProj,
+            out.w1, out.b1, out.gamma1, out.beta1);
+    }
+
+    /**
+     * Sum of the gradients over a mini-batch. The batch is halved
+     * recursively; the two halves run in parallel and the right sum is added
+     * into the left one. The split depends only on the batch size, so the
+     * additions happen in the same order whatever the thread count.
+     */
+    Gradients batchGradients(List<GCNGraph> batch, MatrixBackend blas) {
+        ensureGradientSlots(batch.size());
+        if (blockDiagonal) {
+            // Packing counts as data loading
+            long start = System.nanoTime();
+            GraphBatch packed = new GraphBatch(batch, model.getPropagationHops(), model.getPrecision());
+            metrics.addLoading(System.nanoTime() - start);
+            return blockDiagonalGradients(packed, blas, workspace.get(), gradientSlots[0]);
+        }
+        boolean parallel = parallelism > 1 && batch.size() > 1;
+        BatchSplit task = new BatchSplit(batch, 0, batch.size(), blas, parallel);
+        return parallel ? pool().invoke(task) : task.compute();
+    }
+
+    // One reusable gradient buffer per position in the batch; the tree sum lands in slot 0
+    private void ensureGradientSlots(int batchSize) {
+        if (gradientSlots.length < batchSize) {
+            Gradients[] grown = Arrays.copyOf(gradientSlots, batchSize);
+            for (int i = gradientSlots.length; i < batchSize; i++) grown[i] = new Gradients(model);
+            gradientSlots = grown;
+        }
+    }
+
+    /**
+     * Summed gradients of a whole batch from one block-diagonal forward and
+     * backward pass, written over out. Same result as the per-graph path up
+     * to rounding.
+     */
+    Gradients blockDiagonalGradients(GraphBatch batch, MatrixBackend blas, Workspace ws, Gradients out) {
+        SparseMatrix A = batch.getAdjacency();
+        long forwardStart = System.nanoTime();
+        BatchForwardPass pass = model.forwardBatch(batch, ws);
+        Matrix probs = pass.getOutput(), labels = batch.getLabels();
+        long forwardDone = System.nanoTime();
+        metrics.addForward(forwardDone - forwardStart);
+        int graphs = batch.getGraphCount(), numClasses = probs.getCols();
+
+        // Loss and gradient at the softmax output, one row per graph
+        out.clear();
+        Matrix dOut = ws.matrix(Workspace.Buffer.BATCH_D_OUT, graphs, numClasses);
+        for (int g = 0; g < graphs; g++) {
+            out.loss += computeLoss(probs.getData(), probs.index(g, 0),
+                labels.getData(), labels.index(g, 0), numClasses);
+            computeLossGradient(probs.getData(), probs.index(g, 0), labels.getData(), labels.index(g, 0),
+                dOut.getData(), dOut.index(g, 0), numClasses);
+        }
+
+        // 1) Dense layer: one GEMM for the weights, one for the pooled features
+        Matrix combined = pass.getCombined();
+        blas.gemmTN(dOut, combined, out.wDense, false);
+        for (int g = 0; g < graphs; g++) {
+            for (int c = 0; c < numClasses; c++) out.bDense.add(0, c, dOut.get(g, c));
+        }
+        Matrix dCombined = ws.matrix(Workspace.Buffer.BATCH_D_COMBINED, graphs, combined.getCols());
+        blas.gemm(dOut, model.dense.weights, dCombined, false);
+
+        // 2-3) Pooling backward per graph into the stacked dH2
+        int h = combined.getCols() / 2;
+        if (pass.parameters != null) {
+            // FLOAT model: the same into a float dH2, then the float layers
+            FloatMatrix dH2 = ws.floatMatrix(Workspace.Buffer.D_H2, batch.getNodeCount(), h);
+            for (int g = 0; g < graphs; g++) {
+                int start = batch.getOffset(g), n = batch.getOffset(g + 1) - start;
+                for (int i = start; i < start + n; i++) {
+                    for (int j = 0; j < h; j++) {
+                        dH2.set(i, j, (float) (dCombined.get(g, j) / n));
+                    }
+                }
+                for (int j = 0; j < h; j++) {
+                    dH2.add(pass.getMaxIndex(g, j), j, (float) dCombined.get(g, h + j));
+                }
             }
+            backpropLayers(A, batch.getPropagatedFloatFeatures(), batch.getPropagatedContextScale(),
+                batch.getContexts(), batch.getOffsets(), pass.floatPre1, pass.floatZ1, pass.floatAh1,
+                pass.floatPre2, pass.floatZ2, dH2, pass.parameters, blas, ws, out);
+            metrics.addBackward(System.nanoTime() - forwardDone);
+            return out;
         }
-        return grad;
-    }
-
-    private double[][] transpose(double[][] m) {
-        assert m.length > 0 : "Cannot transpose empty matrix";
-        int rows = m.length, cols = m[0].length;
-        double[][] result = new double[cols][rows];
-        for (int i = 0; i < rows; i++)
-            for (int j = 0; j < cols; j++)
-                result[j][i] = m[i][j];
-        return result;
-    }
-
-    private double[][] leakyReLUGradient(double[][] m) {
-        int rows = m.length, cols = m[0].length;
-        double[][] grad = new double[rows][cols];
-        for (int i = 0; i < rows; i++)
-            for (int j = 0; j < cols; j++)
-                grad[i][j] = m[i][j] > 0 ? 1.0 : 0.01;
-        return grad;
-    }
-
-    private double[][] matmul(double[][] A, double[][] B) {
-        int rowsA = A.length, colsA = A[0].length;
-        int rowsB = B.length, colsB = B[0].length;
-        assert colsA == rowsB : "matmul dimension mismatch: " + colsA + " vs " + rowsB;
-        double[][] result = new double[rowsA][colsB];
-        for (int i = 0; i < rowsA; i++)
-            for (int j = 0; j < colsB; j++)
-                for (int k = 0; k < colsA; k++)
-                    result[i][j] += A[i][k] * B[k][j];
-        return result;
-    }
-
- // NEW helper: matrix-vector multiplication
-    private double[] matVecMul(double[][] M, double[] v) {
-        int rows = M.length;
-        int cols = M[0].length;
-        assert v.length == cols : "matVecMul dimension mismatch: vector length " + v.length + " vs cols " + cols;
-        double[] result = new double[rows];
-        for (int i = 0; i < rows; i++) {
-            double sum = 0.0;
-            for (int j = 0; j < cols; j++) {
-                sum += M[i][j] * v[j];
+        Matrix dH2 = ws.matrix(Workspace.Buffer.D_H2, batch.getNodeCount(), h);
+        for (int g = 0; g < graphs; g++) {
+            int start = batch.getOffset(g), n = batch.getOffset(g + 1) - start;
+            for (int i = start; i < start + n; i++) {
+                for (int j = 0; j < h; j++) {
+                    dH2.set(i, j, dCombined.get(g, j) / n);
+                }
             }
-            result[i] = sum;
+            for (int j = 0; j < h; j++) {
+                dH2.add(pass.getMaxIndex(g, j), j, dCombined.get(g, h + j));
+            }
+        }
+
+        // 4) GCN layers over the block-diagonal adjacency
+        backpropLayers(A, batch.getPropagatedNodeFeatures(), batch.getPropagatedContextScale(),
+            batch.getContexts(), batch.getOffsets(), pass.pre1, pass.z1, pass.ah1,
+            pass.pre2, pass.z2, dH2, blas, ws, out);
+        metrics.addBackward(System.nanoTime() - forwardDone);
+        return out;
+    }
+
+    private class BatchSplit extends RecursiveTask<Gradients> {
+        private static final long serialVersionUID = 1L;
+        private final List<GCNGraph> batch;
+        private final int from, to;
+        private final MatrixBackend blas;
+        private final boolean parallel;
+
+        BatchSplit(List<GCNGraph> batch, int from, int to, MatrixBackend blas, boolean parallel) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+            this.blas = blas;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected Gradients compute() {
+            if (to - from == 1)
+                return computeGradients(batch.get(from), blas, workspace.get(), gradientSlots[from]);
+            int mid = (from + to) >>> 1;
+            BatchSplit right = new BatchSplit(batch, mid, to, blas, parallel);
+            // Without a pool there is nothing to fork to
+            if (parallel) right.fork();
+            Gradients sum = new BatchSplit(batch, from, mid, blas, parallel).compute();
+            sum.add(parallel ? right.join() : right.compute());
+            return sum;
         }
-        return result;
     }
-    private double[][] elementwiseMultiply(double[][] A, double[][] B) {
-        int rows = A.length, cols = A[0].length;
-        assert rows == B.length && cols == B[0].length : "elementwiseMultiply dimension mismatch";
-        double[][] result = new double[rows][cols];
-        for (int i = 0; i < rows; i++)
-            for (int j = 0; j < cols; j++)
-                result[i][j] = A[i][j] * B[i][j];
-        return result;
+
+    private synchronized ForkJoinPool pool() {
+        if (pool == null) pool = new ForkJoinPool(parallelism);
+        return pool;
+    }
+
+    /**
+     * Number of graphs of a mini-batch processed at once. 1 runs the batch
+     * on the calling thread. Defaults to the system property
+     * gcn.trainThreads, or the number of processors.
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1");
+        if (parallelism == this.parallelism) return;
+        if (pool != null) pool.shutdown();
+        pool = null;
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Packs each mini-batch into one block-diagonal graph so every layer
+     * runs as a single large product instead of one small product per
+     * graph. Defaults to the system property gcn.blockBatch.
+     */
+    public void setBlockDiagonalBatching(boolean blockDiagonal) {
+        this.blockDiagonal = blockDiagonal;
+    }
+
+    public boolean isBlockDiagonalBatching() {
+        return blockDiagonal;
     }
 
     private List<List<GCNGraph>> createMiniBatches(List<GCNGraph> graphs, int batchSize) {
@@ -111,162 +424,237 @@ public class GCNTrainer {
     }
 
     public void train(List<GCNGraph> graphs, List<GCNGraph> validationGraphs, int epochs, int batchSize) {
-    	//keep track of the validation accuracy 
-    	double validationAccuracy=0.0;
-    	
+        train(new ListDataLoader(graphs), validationGraphs, epochs, batchSize);
+    }
+
+    /**
+     * Trains on the mini-batches the loader hands out, one shuffled pass over
+     * its data per epoch, validating on validationGraphs after each epoch.
+     * An epoch that yields no batches is not counted; training then stops,
+     * saving the session first if a stop was requested.
+     */
+    public void train(DataLoader data, List<GCNGraph> validationGraphs, int epochs, int batchSize) {
+        metrics.register();
+        try {
+            trainEpochs(data, validationGraphs, epochs, batchSize);
+        } finally {
+            awaitValidation();
+            metrics.close();
+        }
+    }
+
+    private void trainEpochs(DataLoader data, List<GCNGraph> validationGraphs, int epochs, int batchSize) {
         for (int epoch = currentEpoch; epoch < epochs; epoch++) {
         	
             if (stopRequested) {
+                awaitValidation();
                 GCNMemory.saveSession(model, epoch, learningRate, this, "TRAIN",validationAccuracy);
-                GCNMemory.saveGraphList(graphs, "GRAPH");
+                data.saveSession("GRAPH");
+                if (checkpointWriter != null) checkpointWriter.flush();
                 System.out.println("Training stopped at epoch " + epoch);
                 return;
             }
 
-            // Shuffle training data
-            Collections.shuffle(graphs);
-            List<List<GCNGraph>> miniBatches = createMiniBatches(graphs, batchSize);
+            metrics.beginEpoch();
+            long waitStart = System.nanoTime();
             double epochLoss = 0.0;
-
-            // Training phase
-            for (List<GCNGraph> batch : miniBatches) {
-                // Accumulated gradients
-                double[][] accGradW1 = new double[model.gcn1.weights.length][model.gcn1.weights[0].length];
-                double[][] accGradW2 = new double[model.gcn2.weights.length][model.gcn2.weights[0].length];
-                double[][] accGradWDense = new double[model.dense.weights.length][model.dense.weights[0].length];
-                double batchLoss = 0.0;
-
-                for (GCNGraph graph : batch) {
-                    double[][] A =  graph.getNormalizedAdjMatrix();
-                    double[][] X = graph.getFeatureMatrix();
-                    double[][] label = graph.getGraphLevelLabel();
-
-                    // Forward through model
-                    double[] graphOut = model.forward(A, X);
-                    double[][] pred = new double[][] { graphOut };
-
-                    // Loss
-                    double loss = computeLoss(pred, label);
-                    batchLoss += loss;
-
-                    // Gradient at output
-                    double[][] dGraph = computeLossGradient(pred, label);  // shape [1][C]
-
-                 // BACKWARD PASS (high-level):
-                    // 1) Dense layer grads
-                    //    - compute grad w.r.t. weights and bias
-                    //    - compute grad w.r.t. combined feature vector
-                    double[] combined = model.getLastCombined(); // retrieve from forward
-                    double[][] gradWDense = outerProduct(dGraph[0], combined);
-                    double[] dCombined = matVecMul(transpose(model.dense.weights), dGraph[0]);
-
-                    // 2) Split dCombined into dMean and dMax parts
-                    int h = dCombined.length / 2;
-                    double[] dMean = Arrays.copyOfRange(dCombined, 0, h);
-                    double[] dMax  = Arrays.copyOfRange(dCombined, h, dCombined.length);
-
-                    // 3) Backprop through pooling to get gradient on H2 embeddings
-                    double[][] H2 = model.getLastH2(); // saved from forward
-                    int N = H2.length;
-                    double[][] dH2 = new double[N][h];
-
-                    // Mean pooling gradient: equally distribute
-                    for (int i = 0; i < N; i++) {
-                        for (int j = 0; j < h; j++) {
-                            dH2[i][j] += dMean[j] / N;
-                        }
-                    }
-                    // Max pooling gradient: only at max indices
-                    for (int j = 0; j < h; j++) {
-                        int idx = model.getMaxIndex(j); // saved argmax per dim
-                        dH2[idx][j] += dMax[j];
-                    }
-
-                    // 4) Backprop through GCN layers (same as before but two layers)
-                    // grad for layer2 weights
-                    double[][] H1 = model.getLastH1();
-                    double[][] dZ2 = elementwiseMultiply(dH2, leakyReLUGradient(model.getLastZ2()));
-                    double[][] gradW2 = matmul(transpose(H1), matmul(A, dZ2));
-
-                    // gradient to H1
-                    double[][] dH1 = matmul(A, matmul(dZ2, transpose(model.gcn2.weights)));
-
-                    // grad for layer1 weights
-                    double[][] X0 = X;
-                    double[][] dZ1 = elementwiseMultiply(dH1, leakyReLUGradient(model.getLastZ1()));
-                    double[][] gradW1 = matmul(transpose(X0), matmul(A, dZ1));
-
-                    // accumulate
-                    accumulate(accGradW1, gradW1);
-                    accumulate(accGradW2, gradW2);
-                    accumulate(accGradWDense, gradWDense);
-                    
+            int trainedGraphs = 0, steps = 0;
+
+            // Training phase over the shuffled mini-batches of this epoch; closing them
+            // stops any read-ahead if a step throws
+            MatrixBackend blas = LinearAlgebra.get();
+            try (DataLoader.Batches miniBatches = data.batches(batchSize)) {
+                while (miniBatches.hasNext()) {
+                    List<GCNGraph> batch = miniBatches.next();
+                    metrics.addLoading(System.nanoTime() - waitStart);
+                    // Per-graph gradients in parallel, summed in a fixed tree order
+                    Gradients acc = batchGradients(batch, blas);
+                    double batchLoss = acc.loss;
+
+                    // Average over the batch, clip to [-1, 1] and step every parameter in one fused pass
+                    long stepStart = System.nanoTime();
+                    optimizer.setCurrentLR(learningRate);
+                    optimizer.update(model.getParameters().getValues(), acc.flat, 1.0 / batch.size(), 1.0);
+                    metrics.addOptimizer(System.nanoTime() - stepStart);
+                
+                    epochLoss += batchLoss;
+                    trainedGraphs += batch.size();
+                    steps++;
+                    metrics.endStep();
+                    waitStart = System.nanoTime();
                 }
+            }
+            if (trainedGraphs == 0) {
+                // A cancelled loader, or nothing readable: nothing to validate, and the epoch does not count.
+                // When a stop was requested, go round again so the stop branch saves at this epoch
+                System.out.println("Epoch " + epoch + " produced no batches");
+                if (stopRequested) {
+                    epoch--;
+                    continue;
+                }
+                break;
+            }
+            metrics.addLoading(System.nanoTime() - waitStart);
+            TrainingMetrics.EpochStats trained = metrics.endEpoch(epoch, trainedGraphs, steps,
+                epochLoss / trainedGraphs, learningRate);
+
+            // Validation phase, on a copy of the weights so the next epoch can train meanwhile
+            if (overlapValidation) {
+                awaitValidation();  // at most one validation in flight
+                GCNModel snapshot = model.copy();
+                pendingValidation = validationExecutor().submit(() ->
+                    validateAndReport(snapshot, validationGraphs, batchSize, trained));
+            } else {
+                validateAndReport(model, validationGraphs, batchSize, trained);
+            }
 
-                scaleGradients(accGradW1, batch.size());
-                scaleGradients(accGradW2, batch.size());
-                scaleGradients(accGradWDense, batch.size());
-
-                // clip
-                clipGradients(accGradW1, 1.0);
-                clipGradients(accGradW2, 1.0);
-                clipGradients(accGradWDense, 1.0);
+            currentEpoch = epoch + 1;
 
-                // update
-                optimizer1.update(model.gcn1.weights, accGradW1);
-                optimizer2.update(model.gcn2.weights, accGradW2);
-                optimizerDense.update(model.dense.getWeights(), accGradWDense);
-                
-                epochLoss += batchLoss;
+            // Snapshot now; the writer thread saves it while the next epoch trains. With overlapped
+            // validation the accuracy recorded is the latest one finished
+            if (checkpointWriter != null && checkpointWriter.isDue(currentEpoch)) {
+                checkpointWriter.submit(Checkpoint.snapshot(model, optimizer, currentEpoch, learningRate,
+                    validationAccuracy));
             }
+        }
+        awaitValidation();
+        if (checkpointWriter != null) checkpointWriter.flush();
+    }
 
-            // Validation phase
-            double validationLoss = 0.0;
-            int correctPredictions = 0;
-            int totalPredictions = 0;
-
+    /** Mean loss and accuracy (in percent) of a model over a validation set */
+    private double[] validate(GCNModel model, List<GCNGraph> validationGraphs, int batchSize) {
+        double validationLoss = 0.0;
+        int correctPredictions = 0;
+        int totalPredictions = 0;
+
+        if (blockDiagonal) {
+            // One batched forward per mini-batch worth of validation graphs
+            for (List<GCNGraph> chunk : createMiniBatches(validationGraphs, batchSize)) {
+                GraphBatch batch = new GraphBatch(chunk, model.getPropagationHops(), model.getPrecision());
+                Matrix out = model.forwardBatch(batch, workspace.get()).getOutput();
+                Matrix labels = batch.getLabels();
+                int numClasses = out.getCols();
+                for (int g = 0; g < chunk.size(); g++) {
+                    int o = out.index(g, 0), l = labels.index(g, 0);
+                    validationLoss += computeLoss(out.getData(), o, labels.getData(), l, numClasses);
+                    if (getMaxIndex(out.getData(), o, numClasses)
+                            == getMaxIndex(labels.getData(), l, numClasses)) correctPredictions++;
+                    totalPredictions++;
+                }
+            }
+        } else {
             for (GCNGraph graph : validationGraphs) {
-                double[][] A = graph.getNormalizedAdjMatrix();
-                double[][] X = graph.getFeatureMatrix();
-                double[][] label = graph.getGraphLevelLabel();
+                double[] label = graph.getGraphLevelLabel()[0];
 
                 // Forward through model
-                double[] graphOut = model.forward(A, X);
-                double[][] pred = new double[][] { graphOut };
+                double[] graphOut = model.forwardPass(graph, workspace.get()).getOutput();
 
                 // Calculate loss
-                double loss = computeLoss(pred, label);
+                double loss = computeLoss(graphOut, label);
                 validationLoss += loss;
 
                 // Calculate accuracy
                 int predictedClass = getMaxIndex(graphOut);
-                int trueClass = getMaxIndex(label[0]); 
+                int trueClass = getMaxIndex(label); 
 
                 if (predictedClass == trueClass) {
                     correctPredictions++;
                 }
                 totalPredictions++;
             }
+        }
 
-            // Compute validation loss and accuracy
-            double avgValidationLoss = validationLoss / validationGraphs.size();
-             validationAccuracy = (double)correctPredictions / totalPredictions*100.0;
+        // Compute validation loss and accuracy
+        return new double[] { validationLoss / validationGraphs.size(),
+            (double) correctPredictions / totalPredictions * 100.0 };
+    }
 
-            // Print epoch stats
-            System.out.println("Epoch " + epoch + " Avg Loss: " + (epochLoss / graphs.size())
-                    + " Validation Loss: " + avgValidationLoss
-                    + " Validation Accuracy: " + validationAccuracy
-                    + " Learning rate: " + learningRate);
+    // Validates an epoch, then records, prints and publishes the result; runs on the validation
+    // thread when overlapped
+    private void validateAndReport(GCNModel model, List<GCNGraph> validationGraphs, int batchSize,
+                                   TrainingMetrics.EpochStats trained) {
+        long start = System.nanoTime();
+        double[] result = validate(model, validationGraphs, batchSize);
+        long validationNanos = System.nanoTime() - start;
+        validationAccuracy = result[1];
+
+        // Print epoch stats
+        System.out.println("Epoch " + trained.epoch + " Avg Loss: " + trained.trainingLoss
+                + " Validation Loss: " + result[0]
+                + " Validation Accuracy: " + result[1]
+                + " Learning rate: " + trained.learningRate);
+
+        ValidationListener listener = validationListener;
+        if (listener != null) listener.validated(trained.epoch, trained.trainingLoss, result[0], result[1]);
+        metrics.publish(trained, validationNanos, result[0], result[1]);
+    }
 
-            currentEpoch = epoch + 1;
+    // Waits for the validation still running, if any
+    private void awaitValidation() {
+        Future<?> pending = pendingValidation;
+        if (pending == null) return;
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        pendingValidation = null;
+    }
+
+    private synchronized ExecutorService validationExecutor() {
+        if (validationExecutor == null) {
+            validationExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "validation");
+                t.setDaemon(true);
+                return t;
+            });
         }
+        return validationExecutor;
+    }
+
+    /** Told about each epoch's validation result, on the validation thread when it is overlapped */
+    public interface ValidationListener {
+        void validated(int epoch, double trainingLoss, double validationLoss, double validationAccuracy);
+    }
+
+    public void setValidationListener(ValidationListener listener) {
+        this.validationListener = listener;
+    }
+
+    /**
+     * Validates each epoch on a copy of the weights on a separate thread
+     * while the next epoch trains, instead of in between epochs. Defaults to
+     * the system property gcn.overlapValidation, which is on unless set to false.
+     */
+    public void setOverlapValidation(boolean overlap) {
+        this.overlapValidation = overlap;
+    }
+
+    public boolean isOverlapValidation() {
+        return overlapValidation;
+    }
+
+    /** Per-epoch timings and resource use, also registered as an MBean once training starts */
+    public TrainingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Accuracy of the most recently finished validation, in percent */
+    public double getValidationAccuracy() {
+        return validationAccuracy;
     }
 
     // Helper method to get the index of the maximum value in an array (for classification)
     private int getMaxIndex(double[] array) {
+        return getMaxIndex(array, 0, array.length);
+    }
+
+    private int getMaxIndex(double[] array, int offset, int length) {
         int maxIndex = 0;
-        for (int i = 1; i < array.length; i++) {
-            if (array[i] > array[maxIndex]) {
+        for (int i = 1; i < length; i++) {
+            if (array[offset + i] > array[offset + maxIndex]) {
                 maxIndex = i;
             }
         }
@@ -279,57 +667,29 @@ public class GCNTrainer {
 
 	public void setModel(GCNModel model) {
 		this.model = model;
+		gradientSlots = new Gradients[0];
 	}
 
-	public AdamOptimizer getOptimizer2() {
-		return optimizer2;
+	public CheckpointWriter getCheckpointWriter() {
+		return checkpointWriter;
 	}
 
-	public void setOptimizer2(AdamOptimizer optimizer2) {
-		this.optimizer2 = optimizer2;
+	/** Sets where periodic checkpoints go during training; null turns them off */
+	public void setCheckpointWriter(CheckpointWriter checkpointWriter) {
+		this.checkpointWriter = checkpointWriter;
 	}
 
-	public AdamOptimizer getOptimizerDense() {
-		return optimizerDense;
+	public AdamOptimizer getOptimizer() {
+		return optimizer;
 	}
 
-	public void setOptimizerDense(AdamOptimizer optimizerDense) {
-		this.optimizerDense = optimizerDense;
+	public void setOptimizer(AdamOptimizer optimizer) {
+		this.optimizer = optimizer;
 	}
 
-	private void accumulate(double[][] total, double[][] grad) {
-        for (int i = 0; i < total.length; i++) {
-            for (int j = 0; j < total[0].length; j++) {
-                total[i][j] += grad[i][j];
-            }
-        }
-    }
-
-    private void scaleGradients(double[][] grad, int batchSize) {
-        for (int i = 0; i < grad.length; i++) {
-            for (int j = 0; j < grad[0].length; j++) {
-                grad[i][j] /= batchSize;
-            }
-        }
-    }
-
-
-    
     public double getLearningRate() {
 		return learningRate;
 	}
-
-
-	//I tried to clip the gradients 
-    private double[][] clipGradients(double[][] grads, double threshold) {
-        double[][] clipped = new double[grads.length][grads[0].length];
-        for (int i = 0; i < grads.length; i++) {
-            for (int j = 0; j < grads[0].length; j++) {
-                clipped[i][j] = Math.max(-threshold, Math.min(threshold, grads[i][j]));
-            }
-        }
-        return clipped;
-    }
     
     public void setCurrentEpoch(int epoch) {
         this.currentEpoch = epoch;
@@ -345,14 +705,6 @@ public class GCNTrainer {
     	this.learningRate=lr;
     }
 
-	public AdamOptimizer getOptimizer1() {
-		return optimizer1;
-	}
-
-	public void setOptimizer1(AdamOptimizer optimizer1) {
-		this.optimizer1 = optimizer1;
-	}
-
 	
     public void requestStop() {
     	System.out.println("Session stoping...");
@@ -363,34 +715,23 @@ public class GCNTrainer {
 		this.stopRequested = stopRequested;
 	}
 	
-	public double[][] meanAcrossNodes(double[][] nodeOutputs) {
-	    int numNodes = nodeOutputs.length;
-	    int numClasses = nodeOutputs[0].length;
-	    double[] graphOutput = new double[numClasses];
+	public Matrix meanAcrossNodes(Matrix nodeOutputs) {
+	    int numNodes = nodeOutputs.getRows();
+	    int numClasses = nodeOutputs.getCols();
+	    Matrix graphOutput = new Matrix(1, numClasses);
 	    
 	    for (int i = 0; i < numNodes; i++) {
 	        for (int j = 0; j < numClasses; j++) {
-	            graphOutput[j] += nodeOutputs[i][j];
+	            graphOutput.add(0, j, nodeOutputs.get(i, j));
 	        }
 	    }
 	    
 	    for (int j = 0; j < numClasses; j++) {
-	        graphOutput[j] /= numNodes;
+	        graphOutput.set(0, j, graphOutput.get(0, j) / numNodes);
 	    }
 	    
-	    return new double[][]{graphOutput}; // returning [1][numClasses] shape
+	    return graphOutput; // returning [1][numClasses] shape
 	}
-
-
-	private double[][] outerProduct(double[] a, double[] b) {
-        double[][] result = new double[a.length][b.length];
-        for (int i = 0; i < a.length; i++) {
-            for (int j = 0; j < b.length; j++) {
-                result[i][j] = a[i] * b[j];
-            }
-        }
-        return result;
-    }
 	
 }
 
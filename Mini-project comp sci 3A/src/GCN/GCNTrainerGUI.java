@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
 import WGraph.*;
 
 public class GCNTrainerGUI extends JFrame {
@@ -30,21 +31,33 @@ public class GCNTrainerGUI extends JFrame {
     private JButton increaseLRButton ;
     private JButton decreaseLRButton;
     private JPanel previewPanel; // Panel to display graph representation (thumbnail)
+    private JProgressBar loadProgress;
+    private TrainingMetricsPanel metricsPanel;
+    private TrainingChart lossChart, accuracyChart;
+    // Training threads publish here and never wait for the UI, which drains both rings once per frame
+    private final TelemetryRing<String> logEvents = new TelemetryRing<>(4096);
+    private final TelemetryRing<TrainingMetrics.EpochStats> epochEvents = new TelemetryRing<>(1024);
+    private static final int FRAME_MILLIS = 100;
+    private static final int MAX_LOG_LINES = 2000;
     private JFileChooser folderChooser;
     private File selectedFolder;
     //GCN variables 
     private GCNTrainer trainer;
     private GCNModel model;  // keep a reference for test-time prediction
+    private final GraphPipeline pipeline = GraphPipeline.createDefault();
    
     List<BufferedImage> originalImages = new ArrayList<>();
     // experimentation variables 
 	private static final int batchsize=25;
     private int totalEpochs =100000000;
     private static  double LearningRate=0.0001;
-    private List<GCNGraph> graphsList= new ArrayList<GCNGraph>();
     List<Integer> originalLabels = new ArrayList<>();
     public static final String testFolder="./test-data";
     private static final String[] classNames= {"metal", "paper", "plastic", "brown-glass"};
+    // Images taken from each class folder; every image unless -Dgcn.maxPerClass is set
+    private static final int maxPerClass = Integer.getInteger("gcn.maxPerClass", Integer.MAX_VALUE);
+    // Stream training graphs from disk every epoch instead of holding them all (-Dgcn.streamTraining=true)
+    private static final boolean streamTraining = Boolean.getBoolean("gcn.streamTraining");
 
 
     @SuppressWarnings("serial")
@@ -75,6 +88,10 @@ public class GCNTrainerGUI extends JFrame {
         buttonPanel.add(saveButton);
         buttonPanel.add(resumeButton);
         buttonPanel.add(decreaseLRButton);
+        loadProgress = new JProgressBar();
+        loadProgress.setStringPainted(true);
+        loadProgress.setString("");
+        buttonPanel.add(loadProgress);
         add(topPanel, BorderLayout.NORTH);
         add(buttonPanel,BorderLayout.SOUTH);
         // Center panel for log area and preview panel
@@ -98,6 +115,21 @@ public class GCNTrainerGUI extends JFrame {
         previewPanel.setBorder(BorderFactory.createTitledBorder("Graph Representation"));
         centerPanel.add(previewPanel, BorderLayout.EAST);
 
+        // Live per-epoch timings and curves from the trainer
+        metricsPanel = new TrainingMetricsPanel();
+        lossChart = new TrainingChart("Loss", new String[] { "training", "validation" },
+            new Color[] { Color.BLUE, Color.RED });
+        accuracyChart = new TrainingChart("Validation Accuracy %", new String[] { "accuracy" },
+            new Color[] { new Color(0, 140, 0) });
+        JPanel telemetryPanel = new JPanel(new GridLayout(1, 3));
+        telemetryPanel.setPreferredSize(new Dimension(800, 170));
+        telemetryPanel.add(metricsPanel);
+        telemetryPanel.add(lossChart);
+        telemetryPanel.add(accuracyChart);
+        centerPanel.add(telemetryPanel, BorderLayout.SOUTH);
+        trainer.getMetrics().addListener(epochEvents::offer);
+        new Timer(FRAME_MILLIS, e -> drainTelemetry()).start();
+
         add(centerPanel, BorderLayout.CENTER);
 
         folderChooser = new JFileChooser();
@@ -106,15 +138,9 @@ public class GCNTrainerGUI extends JFrame {
 
         
         loadButton.addActionListener(e -> selectFolder());
-        trainButton.addActionListener(e -> {
-        	    try {
-					startTraining();
-				} catch (IOException e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				}
-        });
+        trainButton.addActionListener(e -> startTraining());
         saveButton.addActionListener(e -> {
+            pipeline.cancel();
             trainer.requestStop();
             log("Session saved successfully! Training stopped.");
         });
@@ -165,9 +191,13 @@ public class GCNTrainerGUI extends JFrame {
                 if (graphOption == JFileChooser.APPROVE_OPTION) {
                     File selectedGraphFile = graphChooser.getSelectedFile();
                     
-                    // Load the graph from the chosen file
-                    graphsList=GCNMemory.loadGraphList(selectedGraphFile.getAbsolutePath());
-                    List<GCNGraph> validationGraphs = loadValidationData();
+                    // Open the graphs of the chosen file; a dataset file is trained on straight from disk,
+                    // the file list of a streamed session streams its images again
+                    DataLoader graphData = GCNMemory.openGraphData(selectedGraphFile.getAbsolutePath(), pipeline);
+                    if (graphData == null) {
+                        JOptionPane.showMessageDialog(this, "Failed to load graph file.", "Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
                     trainer.setStopRequested(false);
                     // Start the training process
                     
@@ -176,8 +206,19 @@ public class GCNTrainerGUI extends JFrame {
                     {
                     	trainer.setCurrentEpoch(0);
                     }
+                    pipeline.reset();
                     new Thread(() -> {
-                    	trainer.train(graphsList, validationGraphs, totalEpochs, batchsize);
+                        List<GCNGraph> validationGraphs;
+                        try {
+                            validationGraphs = loadValidationData();
+                        } catch (CancellationException e) {
+                            log("Loading cancelled.");
+                            return;
+                        } catch (IOException e) {
+                            log("Loading validation data failed: " + e.getMessage());
+                            return;
+                        }
+                    	trainer.train(graphData, validationGraphs, totalEpochs, batchsize);
                         log("Training complete!");
                         // After training, test the model on the "test-data" folder.
                         displayRandomTrainingImage();
@@ -207,27 +248,44 @@ public class GCNTrainerGUI extends JFrame {
         }
     }
 
-    public void startTraining() throws IOException {
-        List<GCNGraph> trainingGraphs = loadTrainingData();
-        List<GCNGraph> validationGraphs = loadValidationData();
+    public void startTraining() {
+        // Load and train on a separate thread so the window stays responsive
+        pipeline.reset();
+        trainButton.setEnabled(false);
+        new Thread(() -> {
+            DataLoader trainingData;
+            List<GCNGraph> validationGraphs;
+            try {
+                trainingData = loadTrainingData();
+                validationGraphs = loadValidationData();
+            } catch (CancellationException e) {
+                log("Loading cancelled.");
+                SwingUtilities.invokeLater(() -> trainButton.setEnabled(true));
+                return;
+            } catch (IOException e) {
+                log("Loading failed: " + e.getMessage());
+                SwingUtilities.invokeLater(() -> trainButton.setEnabled(true));
+                return;
+            }
 
-        if (trainingGraphs.isEmpty()) {
-            log("No valid training data!");
-            return;
-        }
+            if (trainingData.size() == 0) {
+                log("No valid training data!");
+                SwingUtilities.invokeLater(() -> trainButton.setEnabled(true));
+                return;
+            }
 
-        // Start the training process on a separate thread
-        new Thread(() -> {
-            trainer.train(trainingGraphs, validationGraphs, totalEpochs, batchsize);
-            log("Training complete—" + trainingGraphs.size() + " graphs.");
+            trainer.train(trainingData, validationGraphs, totalEpochs, batchsize);
+            log("Training complete—" + trainingData.size() + " graphs.");
             displayRandomTrainingImage();
             testModel();
+            SwingUtilities.invokeLater(() -> trainButton.setEnabled(true));
         }).start();
     }
     
-    private List<GCNGraph> loadTrainingData() throws IOException {
+    private DataLoader loadTrainingData() throws IOException {
         List<GCNGraph> graphsList = new ArrayList<>();
-        final int maxPerClass = 50;
+        List<File> imageFiles = new ArrayList<>();
+        List<Integer> imageClasses = new ArrayList<>();
 
         for (int cls = 0; cls < classNames.length; cls++) {
             File subFolder = new File(selectedFolder, classNames[cls]);
@@ -242,27 +300,39 @@ public class GCNTrainerGUI extends JFrame {
                 continue;
             }
 
-            int taken = 0;
-            for (File file : files) {
-              
-                // Assuming ImageLoader is a utility that extracts the graph from the image
-                GCNGraph graph = ImageLoader.extractGraphUsingSLICF2(file, classNames.length);
-                if (graph != null) {
-                    double[] oneHot = new double[classNames.length];
-                    oneHot[cls] = 1; // Set the class as 1 in one-hot encoding
-
-                    // Set labels to nodes in the graph
-                    for (int i = 0; i < graph.getNodeCount(); i++) {
-                        graph.setNodeLabel(i, oneHot);
-                    }
+            // Sorted so that every run sees the images in the same order
+            Arrays.sort(files);
+            for (int f = 0; f < Math.min(files.length, maxPerClass); f++) {
+                imageFiles.add(files[f]);
+                imageClasses.add(cls);
+            }
+        }
+
+        if (streamTraining) {
+            int[] classes = imageClasses.stream().mapToInt(Integer::intValue).toArray();
+            log("Streaming " + imageFiles.size() + " training images from disk.");
+            return new FileDataLoader(imageFiles, classes, classNames.length, pipeline, System.nanoTime());
+        }
 
-                    graphsList.add(graph);
-                    taken++;
-                    if (taken == maxPerClass) break;  // Limit per class
+        // Graphs come back in the order of imageFiles, null for unreadable images
+        List<GCNGraph> graphs = pipeline.load(imageFiles, classNames.length,
+            (done, total) -> showProgress("Training images", done, total));
+        for (int f = 0; f < graphs.size(); f++) {
+            GCNGraph graph = graphs.get(f);
+            if (graph != null) {
+                double[] oneHot = new double[classNames.length];
+                oneHot[imageClasses.get(f)] = 1; // Set the class as 1 in one-hot encoding
+
+                // Set labels to nodes in the graph
+                for (int i = 0; i < graph.getNodeCount(); i++) {
+                    graph.setNodeLabel(i, oneHot);
                 }
+
+                graphsList.add(graph);
             }
         }
-        return graphsList;
+        log("Loaded " + graphsList.size() + " training graphs.");
+        return new ListDataLoader(graphsList);
     }
 
     private List<GCNGraph> loadValidationData() throws IOException {
@@ -283,14 +353,15 @@ public class GCNTrainerGUI extends JFrame {
         // Sort files to process in numerical order, assuming files are named consistently
         Arrays.sort(files);
 
-        // Go through each file and assign class based on image number
-        for (File file : files) {            
-            // Extract the graph from the image
-            GCNGraph graph = ImageLoader.extractGraphUsingSLICF2(file, classNames.length);
+        // Extract the graphs, then assign each its class based on image number
+        List<GCNGraph> graphs = pipeline.load(Arrays.asList(files), classNames.length,
+            (done, total) -> showProgress("Validation images", done, total));
+        for (int f = 0; f < files.length; f++) {
+            GCNGraph graph = graphs.get(f);
             
             if (graph != null) {
                 // Determine the class based on image number
-                int imageNumber = getImageNumber(file.getName()); // Extract image number from the filename
+                int imageNumber = getImageNumber(files[f].getName()); // Extract image number from the filename
                 
                 int classIdx = getClassIndexForImage(imageNumber);
 
@@ -418,8 +489,8 @@ public class GCNTrainerGUI extends JFrame {
             if (miniGraph == null) continue;
 
             // Run forward pass on GCN model
-            double[][] A = miniGraph.getNormalizedAdjMatrix();
-            double[][] X = miniGraph.getFeatureMatrix();
+            SparseMatrix A = miniGraph.getNormalizedAdjSparse();
+            Matrix X = miniGraph.getFeatures();
             double[] avgScores = model.forward(A, X);
 
             // Determine prediction
@@ -494,7 +565,51 @@ public class GCNTrainerGUI extends JFrame {
     
 
     private void log(String message) {
-        SwingUtilities.invokeLater(() -> logArea.append(message + "\n"));
+        logEvents.offer(message);
+    }
+
+    // Runs on the EDT once per frame: applies everything published since the last frame in one go
+    private void drainTelemetry() {
+        StringBuilder text = new StringBuilder();
+        logEvents.drain(message -> text.append(message).append('\n'), logEvents.capacity());
+        long dropped = logEvents.takeDropped();
+        if (dropped > 0) text.append("[").append(dropped).append(" log lines dropped]\n");
+        if (text.length() > 0) {
+            logArea.append(text.toString());
+            trimLog();
+        }
+
+        TrainingMetrics.EpochStats[] latest = new TrainingMetrics.EpochStats[1];
+        int epochs = epochEvents.drain(stats -> {
+            lossChart.add(0, stats.epoch, stats.trainingLoss);
+            lossChart.add(1, stats.epoch, stats.validationLoss);
+            accuracyChart.add(0, stats.epoch, stats.validationAccuracy);
+            latest[0] = stats;
+        }, epochEvents.capacity());
+        if (epochs > 0) {
+            metricsPanel.showEpoch(latest[0]);
+            lossChart.repaint();
+            accuracyChart.repaint();
+        }
+    }
+
+    // Keeps only the newest MAX_LOG_LINES lines of the log
+    private void trimLog() {
+        int excess = logArea.getLineCount() - MAX_LOG_LINES;
+        if (excess <= 0) return;
+        try {
+            logArea.replaceRange("", 0, logArea.getLineStartOffset(excess));
+        } catch (javax.swing.text.BadLocationException e) {
+            logArea.setText("");
+        }
+    }
+
+    private void showProgress(String stage, int done, int total) {
+        SwingUtilities.invokeLater(() -> {
+            loadProgress.setMaximum(total);
+            loadProgress.setValue(done);
+            loadProgress.setString(stage + " " + done + "/" + total);
+        });
     }
 
 
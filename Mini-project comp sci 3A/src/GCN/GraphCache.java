@@ -0,0 +1,222 @@
+package GCN;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import WGraph.GCNGraph;
+
+/**
+ * On-disk cache of preprocessed image graphs, one serialized GCNGraph per
+ * file. An entry is keyed by the SHA-256 of the image bytes together with
+ * every preprocessing parameter, so a changed image or setting simply
+ * misses. The total size is bounded and the least recently used entries
+ * are evicted first; file modification times record use across runs.
+ *
+ * The default cache lives in the directory given by gcn.graphCache
+ * (default graph_cache; "off" disables it) and holds up to gcn.graphCacheMB
+ * megabytes (default 512). Safe to use from several threads.
+ */
+public final class GraphCache {
+    private static final String SUFFIX = ".graph";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final GraphCache DEFAULT = createDefault();
+
+    private final File dir;
+    private final long maxBytes;
+    // Entry key -> file size, in least-recently-used order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hits, misses;
+
+    /**
+     * Opens the cache in dir, creating it if needed, and indexes the entries
+     * already there from least to most recently used. Temporary files left
+     * by an interrupted store are deleted.
+     */
+    public GraphCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        dir.mkdirs();
+        File[] stale = dir.listFiles((d, name) -> name.endsWith(TMP_SUFFIX));
+        if (stale != null) {
+            for (File f : stale) f.delete();
+        }
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File f : files) {
+                String name = f.getName();
+                entries.put(name.substring(0, name.length() - SUFFIX.length()), f.length());
+                totalBytes += f.length();
+            }
+        }
+    }
+
+    private static GraphCache createDefault() {
+        String dir = System.getProperty("gcn.graphCache", "graph_cache");
+        if (dir.equalsIgnoreCase("off")) return null;
+        return new GraphCache(new File(dir), Long.getLong("gcn.graphCacheMB", 512) << 20);
+    }
+
+    /** The cache ImageLoader uses, or null when caching is disabled */
+    public static GraphCache getDefault() {
+        return DEFAULT;
+    }
+
+    /** Hex SHA-256 of the content followed by the parameter description */
+    public static String key(byte[] content, String parameters) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(content);
+            sha.update((byte) 0);
+            sha.update(parameters.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : sha.digest()) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Returns the cached graph for key, or null on a miss. Every call returns
+     * a fresh copy, so callers may relabel it freely. An unreadable entry is
+     * dropped and counts as a miss. The file is read outside the lock, so it
+     * may be evicted or stored again meanwhile; an entry that vanished is
+     * just a miss, and only the file that failed to read is ever dropped.
+     */
+    public GCNGraph load(String key) {
+        Long size;
+        synchronized (this) {
+            size = entries.get(key);
+            if (size == null) {
+                misses++;
+                return null;
+            }
+        }
+        File f = file(key);
+        Object fileKey = null;
+        try {
+            fileKey = Files.readAttributes(f.toPath(), BasicFileAttributes.class).fileKey();
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                GCNGraph graph = (GCNGraph) in.readObject();
+                f.setLastModified(System.currentTimeMillis());
+                synchronized (this) {
+                    hits++;
+                }
+                return graph;
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            // Evicted by another thread since the lookup, or deleted from outside; in the
+            // latter case forget the entry, unless the key has been stored again meanwhile
+            synchronized (this) {
+                misses++;
+                if (size.equals(entries.get(key)) && !f.exists()) {
+                    entries.remove(key);
+                    totalBytes -= size;
+                }
+            }
+            return null;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            synchronized (this) {
+                misses++;
+                // Drop the entry only if it is still the one read here, not a newer store of the same key
+                if (size.equals(entries.get(key)) && isSameFile(f, fileKey)) remove(key);
+            }
+            return null;
+        }
+    }
+
+    // Whether the file is still the one identified by fileKey; without file keys, assume so
+    private static boolean isSameFile(File f, Object fileKey) {
+        if (fileKey == null) return true;
+        try {
+            return Objects.equals(fileKey, Files.readAttributes(f.toPath(), BasicFileAttributes.class).fileKey());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the graph under key, then evicts least recently used entries
+     * until the cache fits its bound again. The file is written under a
+     * temporary name and moved into place, so readers never see half an
+     * entry. Failures only cost the cache entry.
+     */
+    public void store(String key, GCNGraph graph) {
+        File target = file(key);
+        long size;
+        try {
+            File tmp = File.createTempFile("entry", TMP_SUFFIX, dir);
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeObject(graph);
+            }
+            Files.move(tmp.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            size = target.length();
+        } catch (IOException e) {
+            System.out.println("Graph cache: could not store " + target + ": " + e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            Long old = entries.put(key, size);
+            totalBytes += size - (old == null ? 0 : old);
+            Iterator<Map.Entry<String, Long>> lru = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && lru.hasNext()) {
+                Map.Entry<String, Long> e = lru.next();
+                if (e.getKey().equals(key)) continue;  // never evict what was just stored
+                totalBytes -= e.getValue();
+                file(e.getKey()).delete();
+                lru.remove();
+            }
+        }
+    }
+
+    // Caller holds the lock
+    private void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) totalBytes -= size;
+        file(key).delete();
+    }
+
+    private File file(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
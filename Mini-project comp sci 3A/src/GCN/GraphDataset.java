@@ -0,0 +1,450 @@
+package GCN;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import WGraph.GCNGraph;
+import WGraph.Matrix;
+import WGraph.Precision;
+
+/**
+ * A whole set of graphs in one little-endian file, stored by column
+ * instead of as serialized objects:
+ *
+ * <pre>
+ *   0  "GCND"                 magic
+ *   4  int    version         currently 2
+ *   8  int    graph count, node feature dim, context dim, class count
+ *  24  int    precision       0 = DOUBLE, 1 = FLOAT
+ *  28  int    propagation hops, 0 if the propagation is not stored
+ *  32  long   total nodes, total edges
+ *  48  long   offset of each column below, in this order
+ *
+ *  node offsets    long[graphs + 1]   first node of each graph
+ *  edge pointers   long[nodes + 1]    CSR: first edge of each node
+ *  edge targets    int[edges]         other end, local to the graph
+ *  edge weights    int[edges]
+ *  features        [nodes x node feature dim], double or float by precision
+ *  context scales  double[nodes]
+ *  contexts        double[graphs x context dim]
+ *  labels          double[graphs x class count]
+ *  propagated      [nodes x node feature dim], Â^hops · features, like features
+ *  propagated scales  double[nodes], Â^hops · context scales
+ * </pre>
+ *
+ * Version 1 files have no hops and no propagation columns; their graphs
+ * compute the propagation when it is first needed.
+ *
+ * Each column is mapped separately, so it may be up to 2 GB whatever the
+ * total, and nothing is read until a graph is asked for. {@link #get}
+ * bulk-copies one graph's slice of every column into arrays the graph
+ * keeps as they are, propagation included, so nothing is recomputed. As a
+ * {@link DataLoader} the dataset hands out shuffled batches built the same
+ * way by a background thread that reads ahead of training (see
+ * {@link PrefetchedBatches}), and keeps only those batches on the heap.
+ * Reads use absolute positions only, so one dataset can be shared between
+ * threads.
+ */
+public final class GraphDataset implements DataLoader {
+    public static final String EXTENSION = ".gds";
+
+    private static final byte[] MAGIC = { 'G', 'C', 'N', 'D' };
+    private static final int VERSION = 2;
+    private static final int COLUMNS = 10, VERSION_1_COLUMNS = 8;
+    private static final int NODE_OFFSETS = 0, EDGE_POINTERS = 1, EDGE_TARGETS = 2, EDGE_WEIGHTS = 3,
+        FEATURES = 4, CONTEXT_SCALES = 5, CONTEXTS = 6, LABELS = 7, PROPAGATED = 8, PROPAGATED_SCALES = 9;
+
+    private final int graphCount, nodeDim, contextDim, numClasses, hops;
+    private final Precision precision;
+    private final ByteBuffer[] columns = new ByteBuffer[COLUMNS];
+    private final LongBuffer nodeOffsets, edgePointers;
+    private final IntBuffer targets, weights;
+    private final DoubleBuffer scales, contexts, labels, propagatedScales;
+    private final DoubleBuffer features, propagated;            // DOUBLE
+    private final FloatBuffer floatFeatures, floatPropagated;   // FLOAT
+    private final Random random = new Random();
+
+    private GraphDataset(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(headerBytes(COLUMNS)).order(ByteOrder.LITTLE_ENDIAN);
+        header.limit(headerBytes(VERSION_1_COLUMNS));
+        readFully(channel, header);
+        for (int k = 0; k < MAGIC.length; k++) {
+            if (header.get(k) != MAGIC[k]) throw new IOException("Not a graph dataset file");
+        }
+        int version = header.getInt(4);
+        if (version != 1 && version != VERSION) throw new IOException("Unsupported dataset version " + version);
+        int columnCount = version == 1 ? VERSION_1_COLUMNS : COLUMNS;
+        header.limit(headerBytes(columnCount));
+        readFully(channel, header);
+        graphCount = header.getInt(8);
+        nodeDim = header.getInt(12);
+        contextDim = header.getInt(16);
+        numClasses = header.getInt(20);
+        precision = Precision.values()[header.getInt(24)];
+        hops = version == 1 ? 0 : header.getInt(28);
+        long nodes = header.getLong(32), edges = header.getLong(40);
+
+        long[] lengths = columnLengths(graphCount, nodes, edges, nodeDim, contextDim, numClasses, precision, hops);
+        for (int c = 0; c < COLUMNS; c++) {
+            long offset = c < columnCount ? header.getLong(48 + 8 * c) : 0;
+            if (offset + lengths[c] > channel.size()) throw new IOException("Truncated dataset file");
+            columns[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset, lengths[c]).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        nodeOffsets = columns[NODE_OFFSETS].asLongBuffer();
+        edgePointers = columns[EDGE_POINTERS].asLongBuffer();
+        targets = columns[EDGE_TARGETS].asIntBuffer();
+        weights = columns[EDGE_WEIGHTS].asIntBuffer();
+        scales = columns[CONTEXT_SCALES].asDoubleBuffer();
+        contexts = columns[CONTEXTS].asDoubleBuffer();
+        labels = columns[LABELS].asDoubleBuffer();
+        propagatedScales = columns[PROPAGATED_SCALES].asDoubleBuffer();
+        boolean single = precision == Precision.FLOAT;
+        features = single ? null : columns[FEATURES].asDoubleBuffer();
+        propagated = single ? null : columns[PROPAGATED].asDoubleBuffer();
+        floatFeatures = single ? columns[FEATURES].asFloatBuffer() : null;
+        floatPropagated = single ? columns[PROPAGATED].asFloatBuffer() : null;
+    }
+
+    private static int headerBytes(int columnCount) {
+        return 48 + 8 * columnCount;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Truncated dataset file");
+        }
+    }
+
+    /** True if the file starts with the dataset magic */
+    public static boolean isDataset(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] head = new byte[MAGIC.length];
+            return in.length() >= headerBytes(VERSION_1_COLUMNS) && in.read(head) == head.length && Arrays.equals(head, MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Maps the columns of a dataset file; graphs are read from them on demand */
+    public static GraphDataset open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new GraphDataset(channel);
+        }
+    }
+
+    /**
+     * Writes the graphs as a dataset. They must agree on feature and context
+     * width, class count and precision. If the first graph has a stored
+     * propagation it is written for every graph, at the same hops,
+     * computing it for any graph that lacks it.
+     */
+    public static void write(File file, List<GCNGraph> graphs) throws IOException {
+        GCNGraph first = graphs.isEmpty() ? null : graphs.get(0);
+        int nodeDim = first == null ? 0 : first.getNodeFeatureDim();
+        int contextDim = first == null ? 0 : first.getContextDim();
+        int numClasses = first == null ? 0 : first.getGraphLevelLabel()[0].length;
+        Precision precision = first == null ? Precision.DOUBLE : first.getPrecision();
+        int hops = first == null ? 0 : first.getPropagationHops();
+        long nodes = 0, edges = 0;
+        for (GCNGraph g : graphs) {
+            if (g.getNodeFeatureDim() != nodeDim || g.getContextDim() != contextDim
+                    || g.getGraphLevelLabel()[0].length != numClasses || g.getPrecision() != precision)
+                throw new IllegalArgumentException("Graphs of a dataset must all have the same shape and precision");
+            nodes += g.getNodeCount();
+            edges += g.getEdgeCount();
+        }
+
+        long[] lengths = columnLengths(graphs.size(), nodes, edges, nodeDim, contextDim, numClasses, precision, hops);
+        long[] offsets = new long[COLUMNS];
+        long end = align(headerBytes(COLUMNS));
+        for (int c = 0; c < COLUMNS; c++) {
+            offsets[c] = end;
+            end = align(end + lengths[c]);
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ColumnWriter out = new ColumnWriter(channel);
+            out.bytes(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(graphs.size());
+            out.putInt(nodeDim);
+            out.putInt(contextDim);
+            out.putInt(numClasses);
+            out.putInt(precision.ordinal());
+            out.putInt(hops);
+            out.putLong(nodes);
+            out.putLong(edges);
+            for (long offset : offsets) out.putLong(offset);
+
+            out.seek(offsets[NODE_OFFSETS]);
+            long node = 0;
+            out.putLong(0);
+            for (GCNGraph g : graphs) out.putLong(node += g.getNodeCount());
+
+            // Each graph's edges bucketed by source node, so every node's edges are contiguous
+            List<int[]> bySource = new ArrayList<>(graphs.size());
+            out.seek(offsets[EDGE_POINTERS]);
+            long edge = 0;
+            out.putLong(0);
+            for (GCNGraph g : graphs) {
+                int n = g.getNodeCount(), e = g.getEdgeCount();
+                int[] start = new int[n + 1];
+                for (int k = 0; k < e; k++) start[g.getEdgeSource(k) + 1]++;
+                for (int i = 0; i < n; i++) {
+                    out.putLong(edge += start[i + 1]);
+                    start[i + 1] += start[i];
+                }
+                int[] order = new int[e];
+                for (int k = 0; k < e; k++) order[start[g.getEdgeSource(k)]++] = k;
+                bySource.add(order);
+            }
+            out.seek(offsets[EDGE_TARGETS]);
+            for (int k = 0; k < graphs.size(); k++) {
+                for (int e : bySource.get(k)) out.putInt(graphs.get(k).getEdgeTarget(e));
+            }
+            out.seek(offsets[EDGE_WEIGHTS]);
+            for (int k = 0; k < graphs.size(); k++) {
+                for (int e : bySource.get(k)) out.putInt(graphs.get(k).getEdgeWeight(e));
+            }
+
+            out.seek(offsets[FEATURES]);
+            for (GCNGraph g : graphs) out.putRows(g.getNodeFeatures(null), precision);
+            out.seek(offsets[CONTEXT_SCALES]);
+            for (GCNGraph g : graphs) {
+                for (int i = 0; i < g.getNodeCount(); i++) out.putDouble(g.getContextScale(i));
+            }
+            out.seek(offsets[CONTEXTS]);
+            for (GCNGraph g : graphs) {
+                Matrix context = g.getContext();
+                for (int j = 0; j < contextDim; j++) out.putDouble(context.get(0, j));
+            }
+            out.seek(offsets[LABELS]);
+            for (GCNGraph g : graphs) {
+                for (double x : g.getGraphLevelLabel()[0]) out.putDouble(x);
+            }
+            if (hops > 0) {
+                out.seek(offsets[PROPAGATED]);
+                for (GCNGraph g : graphs) out.putRows(g.getPropagatedNodeFeatures(hops, null), precision);
+                out.seek(offsets[PROPAGATED_SCALES]);
+                for (GCNGraph g : graphs) {
+                    for (double x : g.getPropagatedContextScale(hops)) out.putDouble(x);
+                }
+            }
+            out.seek(end);
+            out.flush();
+        }
+    }
+
+    private static long[] columnLengths(int graphs, long nodes, long edges, int nodeDim, int contextDim,
+                                        int numClasses, Precision precision, int hops) {
+        long[] lengths = new long[COLUMNS];
+        lengths[NODE_OFFSETS] = 8L * (graphs + 1);
+        lengths[EDGE_POINTERS] = 8L * (nodes + 1);
+        lengths[EDGE_TARGETS] = 4L * edges;
+        lengths[EDGE_WEIGHTS] = 4L * edges;
+        int width = precision == Precision.FLOAT ? 4 : 8;
+        lengths[FEATURES] = nodes * nodeDim * width;
+        lengths[CONTEXT_SCALES] = 8L * nodes;
+        lengths[CONTEXTS] = 8L * graphs * contextDim;
+        lengths[LABELS] = 8L * graphs * numClasses;
+        lengths[PROPAGATED] = hops > 0 ? nodes * nodeDim * width : 0;
+        lengths[PROPAGATED_SCALES] = hops > 0 ? 8L * nodes : 0;
+        return lengths;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /** Number of graphs */
+    @Override
+    public int size() {
+        return graphCount;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /** Hops of the stored propagation, or 0 if the file has none */
+    public int getPropagationHops() {
+        return hops;
+    }
+
+    /**
+     * Builds graph g over copies of its slice of the columns, with the
+     * stored propagation if there is one. Every call returns a new graph.
+     */
+    public GCNGraph get(int g) {
+        if (g < 0 || g >= graphCount) throw new IndexOutOfBoundsException("Graph " + g + " of " + graphCount);
+        int first = (int) nodeOffsets.get(g);
+        int n = (int) (nodeOffsets.get(g + 1) - first);
+
+        long[] pointers = new long[n + 1];
+        edgePointers.get(first, pointers);
+        int firstEdge = (int) pointers[0], e = (int) (pointers[n] - firstEdge);
+        int[] from = new int[e], to = new int[e], weight = new int[e];
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(from, (int) (pointers[i] - firstEdge), (int) (pointers[i + 1] - firstEdge), i);
+        }
+        targets.get(firstEdge, to);
+        weights.get(firstEdge, weight);
+
+        double[] context = contextDim > 0 ? new double[contextDim] : null;
+        if (context != null) contexts.get(g * contextDim, context);
+        double[] label = new double[numClasses];
+        labels.get(g * numClasses, label);
+        double[] scale = new double[n];
+        scales.get(first, scale);
+
+        int base = first * nodeDim, size = n * nodeDim;
+        GCNGraph graph;
+        if (precision == Precision.FLOAT) {
+            float[] x = new float[size];
+            floatFeatures.get(base, x);
+            graph = GCNGraph.packed(label, context, x, nodeDim, scale, from, to, weight);
+            if (hops > 0) {
+                float[] ax = new float[size];
+                floatPropagated.get(base, ax);
+                graph.setPropagation(hops, ax, propagatedScale(first, n));
+            }
+        } else {
+            double[] x = new double[size];
+            features.get(base, x);
+            graph = GCNGraph.packed(label, context, x, nodeDim, scale, from, to, weight);
+            if (hops > 0) {
+                double[] ax = new double[size];
+                propagated.get(base, ax);
+                graph.setPropagation(hops, ax, propagatedScale(first, n));
+            }
+        }
+        return graph;
+    }
+
+    private double[] propagatedScale(int first, int n) {
+        double[] out = new double[n];
+        propagatedScales.get(first, out);
+        return out;
+    }
+
+    /** Every graph, read into memory */
+    public List<GCNGraph> toList() {
+        List<GCNGraph> graphs = new ArrayList<>(graphCount);
+        for (int g = 0; g < graphCount; g++) graphs.add(get(g));
+        return graphs;
+    }
+
+    /** Shuffled batches, built from the mapped columns by a thread reading ahead of training */
+    @Override
+    public Batches batches(int batchSize) {
+        List<Integer> order = new ArrayList<>(graphCount);
+        for (int g = 0; g < graphCount; g++) order.add(g);
+        Collections.shuffle(order, random);
+        return new PrefetchedBatches((graphCount + batchSize - 1) / batchSize, b -> {
+            int end = Math.min(graphCount, (b + 1) * batchSize);
+            List<GCNGraph> batch = new ArrayList<>(end - b * batchSize);
+            for (int k = b * batchSize; k < end; k++) batch.add(get(order.get(k)));
+            return batch;
+        });
+    }
+
+    // Buffered little-endian writes to a channel, with zero padding up to each column
+    private static final class ColumnWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        ColumnWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes) flush();
+        }
+
+        void bytes(byte[] b) throws IOException {
+            ensure(b.length);
+            buf.put(b);
+            position += b.length;
+        }
+
+        void putInt(int x) throws IOException {
+            ensure(4);
+            buf.putInt(x);
+            position += 4;
+        }
+
+        void putLong(long x) throws IOException {
+            ensure(8);
+            buf.putLong(x);
+            position += 8;
+        }
+
+        void putFloat(float x) throws IOException {
+            ensure(4);
+            buf.putFloat(x);
+            position += 4;
+        }
+
+        void putDouble(double x) throws IOException {
+            ensure(8);
+            buf.putDouble(x);
+            position += 8;
+        }
+
+        // Row by row, as float or double by precision
+        void putRows(Matrix X, Precision precision) throws IOException {
+            for (int i = 0; i < X.getRows(); i++)
+                for (int j = 0; j < X.getCols(); j++)
+                    if (precision == Precision.FLOAT) putFloat((float) X.get(i, j));
+                    else putDouble(X.get(i, j));
+        }
+
+        // Pads with zeros up to an offset at or after the current position
+        void seek(long offset) throws IOException {
+            while (position < offset) {
+                ensure(1);
+                buf.put((byte) 0);
+                position++;
+            }
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) channel.write(buf);
+            buf.clear();
+        }
+    }
+
+    /**
+     * Converts serialized graph lists (.dat, from saveGraphList before this
+     * format) to datasets next to them: java GCN.GraphDataset graphs.dat [...]
+     */
+    public static void main(String[] args) throws IOException {
+        for (String path : args) {
+            List<GCNGraph> graphs = GCNMemory.loadGraphList(path);
+            if (graphs == null) {
+                System.out.println("Could not convert " + path);
+                continue;
+            }
+            File converted = new File(path.replaceFirst("\\.dat$", "") + EXTENSION);
+            write(converted, graphs);
+            System.out.println("Converted " + path + " to " + converted);
+        }
+    }
+}
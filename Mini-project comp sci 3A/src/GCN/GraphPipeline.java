@@ -0,0 +1,138 @@
+package GCN;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import WGraph.GCNGraph;
+
+/**
+ * Turns image files into graphs on a fixed pool of worker threads. Each
+ * worker runs the whole {@link ImageLoader} chain (decode, resize, SLIC,
+ * features, KNN) for one image; since those stages depend on each other,
+ * the parallelism is across images. At most a window of images is in
+ * flight at once, so a slow consumer holds back the workers instead of
+ * letting finished graphs pile up, and results are handed back in the
+ * order of the input files whatever order they finish in.
+ *
+ * The pool size comes from gcn.loadThreads (default: the number of
+ * processors). A load can be cancelled from any thread with
+ * {@link #cancel()}.
+ */
+public final class GraphPipeline implements AutoCloseable {
+
+    /** Told about every image once its graph is ready, in input order */
+    public interface Progress {
+        void update(int done, int total);
+    }
+
+    private final ExecutorService pool;
+    private final int window;
+    private volatile boolean cancelled;
+    private final List<Future<GCNGraph>> inFlight = new ArrayList<>();
+
+    public GraphPipeline(int threads, int window) {
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "graph-pipeline");
+            t.setDaemon(true);
+            return t;
+        });
+        this.window = Math.max(1, window);
+    }
+
+    /** A pipeline with gcn.loadThreads workers and a window of four images per worker */
+    public static GraphPipeline createDefault() {
+        int threads = Integer.getInteger("gcn.loadThreads", Runtime.getRuntime().availableProcessors());
+        return new GraphPipeline(threads, 4 * threads);
+    }
+
+    /**
+     * Builds the graph of every file. The result has one entry per file, in
+     * the same order, holding null where the file is not a readable image.
+     *
+     * @throws CancellationException if {@link #cancel()} was called
+     * @throws IOException if reading any of the files failed
+     */
+    public List<GCNGraph> load(List<File> files, int numClasses, Progress progress) throws IOException {
+        List<GCNGraph> graphs = new ArrayList<>(files.size());
+        ArrayDeque<Future<GCNGraph>> pending = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (graphs.size() < files.size()) {
+                while (next < files.size() && pending.size() < window) {
+                    File file = files.get(next++);
+                    pending.add(submit(() -> ImageLoader.extractGraphUsingSLICF2(file, numClasses)));
+                }
+                graphs.add(await(pending.poll()));
+                if (progress != null) progress.update(graphs.size(), files.size());
+            }
+        } finally {
+            for (Future<GCNGraph> f : pending) f.cancel(true);
+            synchronized (inFlight) {
+                inFlight.removeAll(pending);
+            }
+        }
+        return graphs;
+    }
+
+    private Future<GCNGraph> submit(Callable<GCNGraph> task) {
+        synchronized (inFlight) {
+            // Checked under the lock so a concurrent cancel() cannot miss this task
+            if (cancelled) throw new CancellationException("Graph loading cancelled");
+            Future<GCNGraph> f = pool.submit(task);
+            inFlight.add(f);
+            return f;
+        }
+    }
+
+    private GCNGraph await(Future<GCNGraph> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Graph loading interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            synchronized (inFlight) {
+                inFlight.remove(f);
+            }
+        }
+    }
+
+    /**
+     * Stops the current and any later load: images not yet started are
+     * skipped and the loading thread gets a CancellationException.
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (inFlight) {
+            for (Future<GCNGraph> f : inFlight) f.cancel(true);
+        }
+    }
+
+    /** Lets loads run again after {@link #cancel()} */
+    public void reset() {
+        cancelled = false;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -2,23 +2,79 @@ package GCN;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.ObjectStreamClass;
+import java.nio.file.Files;
 import java.util.Arrays;
 import javax.imageio.ImageIO;
 import WGraph.*;
 
 public class ImageLoader {
-    private static final int NUM_SUPERPIXELS = 75;
+    static final int NUM_SUPERPIXELS = 75;
     private static final double COMPACTNESS = 10.0;
+    private static final int IMAGE_SIZE = 64;
+    // Â · X is precomputed to this many hops when a graph is built
+    static final int PROPAGATION_HOPS = 1;
+    // Leave background superpixels out of the graph instead of zeroing them (-Dgcn.dropBackground=true)
+    private static final boolean DROP_BACKGROUND = Boolean.getBoolean("gcn.dropBackground");
 
     public static GCNGraph extractGraphUsingSLICF2(File file, int numClasses) throws IOException {
-        BufferedImage image = ImageIO.read(file);
+        return extractGraphUsingSLICF2(file, numClasses, DROP_BACKGROUND);
+    }
+
+    /**
+     * Builds the superpixel graph of an image. Background superpixels are
+     * kept as zeroed nodes, or with dropBackground left out altogether, so
+     * that KNN, both GCN layers and pooling only see foreground regions; when
+     * nodes are dropped the graph context is computed over the kept ones
+     * only. An image whose superpixels are all background keeps every node,
+     * and its context covers the whole image. A model
+     * must be used with the same setting it was trained with.
+     *
+     * Graphs are looked up in the {@link GraphCache#getDefault() graph cache}
+     * by the image bytes and every preprocessing parameter, and stored there
+     * when built, so an unchanged image is only segmented once.
+     */
+    public static GCNGraph extractGraphUsingSLICF2(File file, int numClasses, boolean dropBackground)
+            throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Precision precision = Precision.fromProperty();
+        GraphCache cache = GraphCache.getDefault();
+        String key = null;
+        if (cache != null) {
+            key = GraphCache.key(bytes, cacheParameters(numClasses, dropBackground, precision));
+            GCNGraph cached = cache.load(key);
+            if (cached != null) return cached;
+        }
+
+        GCNGraph graph = buildGraph(bytes, numClasses, dropBackground, precision);
+        if (graph != null && cache != null) cache.store(key, graph);
+        return graph;
+    }
+
+    // Everything that changes the graph built from the same image bytes
+    private static String cacheParameters(int numClasses, boolean dropBackground, Precision precision) {
+        return "graph=" + ObjectStreamClass.lookup(GCNGraph.class).getSerialVersionUID()
+            + "|superpixels=" + NUM_SUPERPIXELS
+            + "|compactness=" + COMPACTNESS
+            + "|size=" + IMAGE_SIZE
+            + "|k=" + KNN.NEIGHBOURS
+            + "|hops=" + PROPAGATION_HOPS
+            + "|classes=" + numClasses
+            + "|dropBackground=" + dropBackground + (dropBackground ? "|context=foreground" : "")
+            + "|precision=" + precision;
+    }
+
+    private static GCNGraph buildGraph(byte[] bytes, int numClasses, boolean dropBackground, Precision precision)
+            throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
         if (image == null) return null;
 
-        // Step 1: Resize image to standard 64x64
-        Image tmp = image.getScaledInstance(64, 64, Image.SCALE_SMOOTH);
-        BufferedImage resized = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        // Step 1: Resize image to standard IMAGE_SIZE x IMAGE_SIZE
+        Image tmp = image.getScaledInstance(IMAGE_SIZE, IMAGE_SIZE, Image.SCALE_SMOOTH);
+        BufferedImage resized = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
         Graphics2D g = resized.createGraphics();
         g.drawImage(tmp, 0, 0, null);
         g.dispose();
@@ -32,47 +88,59 @@ public class ImageLoader {
         double[][] baseFeatures = extractionResult.features;
         boolean[] backgroundMask = extractionResult.mask;
 
-        // Step 4: Compute global mean and max across all features
+        // Background nodes are only dropped if some foreground is left
+        boolean drop = dropBackground;
+        if (drop) {
+            drop = false;
+            for (boolean background : backgroundMask) drop |= !background;
+        }
+
+        // Step 4: Compute global mean and max across the features of the nodes kept
         int dim = baseFeatures[0].length;
         double[] mean = new double[dim];
         double[] max = new double[dim];
         Arrays.fill(max, Double.NEGATIVE_INFINITY);
 
-        for (double[] feat : baseFeatures) {
+        int kept = 0;
+        for (int i = 0; i < baseFeatures.length; i++) {
+            if (drop && backgroundMask[i]) continue;
+            double[] feat = baseFeatures[i];
             for (int d = 0; d < dim; d++) {
                 mean[d] += feat[d];
                 if (feat[d] > max[d]) max[d] = feat[d];
             }
+            kept++;
         }
         for (int d = 0; d < dim; d++) {
-            mean[d] /= baseFeatures.length;
+            mean[d] /= kept;
         }
 
-        // Step 5: Enhance each node feature by concatenating [original | mean | max]
-        double[][] enhancedFeatures = new double[baseFeatures.length][];
-        for (int i = 0; i < baseFeatures.length; i++) {
-            enhancedFeatures[i] = new double[dim * 3];
-            System.arraycopy(baseFeatures[i], 0, enhancedFeatures[i], 0, dim);
-            System.arraycopy(mean, 0, enhancedFeatures[i], dim, dim);
-            System.arraycopy(max, 0, enhancedFeatures[i], dim * 2, dim);
-        }
+        // Step 5: [mean | max] is the same for every node, so it is kept once
+        // as the graph context; each node's features are [original | mean | max]
+        double[] context = new double[dim * 2];
+        System.arraycopy(mean, 0, context, 0, dim);
+        System.arraycopy(max, 0, context, dim, dim);
 
         // Step 6: Create GCN graph
         GCNGraph graph = new GCNGraph(numClasses);
-        for (int i = 0; i < enhancedFeatures.length; i++) {
-            double[] nodeFeature = enhancedFeatures[i];
-
-            // If node is background, zero-out its feature vector
+        graph.setContext(context);
+        for (int i = 0; i < baseFeatures.length; i++) {
+            // A background node is dropped, or kept with its whole feature row zeroed, context included
             if (backgroundMask[i]) {
-                Arrays.fill(nodeFeature, 0.0);
+                if (drop) continue;
+                graph.addNode(new double[dim], new double[numClasses], 0.0);
+            } else {
+                graph.addNode(baseFeatures[i], new double[numClasses], 1.0);
             }
-
-            // Add node to graph with initialized zero label vector
-            graph.addNode(nodeFeature, new double[numClasses]);
         }
 
-        // Step 7: Connect nodes using 16-NN over enhanced features
-        KNN.makeCombined16NNConnections(graph, enhancedFeatures);
+        // Step 7: Connect nodes using 16-NN over the enhanced features
+        KNN.makeCombined16NNConnections(graph, graph.getFeatureMatrix());
+        graph.trimToSize();
+        // Â · X is fixed from here on; compute it once so training reuses it every epoch
+        graph.getPropagatedNodeFeatures(PROPAGATION_HOPS, null);
+        // Propagated in double above; narrow the stored features when running in FLOAT
+        graph.setPrecision(precision);
 
         return graph;
     }
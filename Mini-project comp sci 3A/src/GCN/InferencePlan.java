@@ -0,0 +1,268 @@
+package GCN;
+
+import java.util.Arrays;
+
+import WGraph.FloatMatrix;
+import WGraph.GCNGraph;
+import WGraph.Matrix;
+import WGraph.Precision;
+import WGraph.SparseMatrix;
+
+/**
+ * A trained {@link GCNModel} compiled for classification at fixed shapes.
+ * Both GCN layers, pooling, the dense layer and the softmax run as one
+ * straight-line method over flat arrays: each node row goes through its
+ * GEMM row, context term, bias, residual, LayerNorm and leakyReLU in a
+ * single pass, and the second layer feeds mean and max pooling directly
+ * instead of storing its output.
+ *
+ * The plan computes in double; a graph stored in FLOAT has its propagated
+ * rows read in place rather than widened first.
+ *
+ * The weights are copied when the plan is compiled, so later training does
+ * not affect it. Every intermediate buffer is allocated up front for
+ * maxNodes nodes and only grows if a larger graph arrives. A plan must be
+ * used by one thread at a time; {@link #copy()} gives another thread its
+ * own buffers over the same read-only weights.
+ */
+public final class InferencePlan {
+    private final int in, hidden, classes, hops;
+    private final boolean residual1, residual2;
+    private final double eps1, eps2;
+
+    // Row-major copies of the parameters, shared read-only between copies of the plan
+    private final double[] w1, b1, gamma1, beta1;
+    private final double[] w2, b2, gamma2, beta2;
+    private final double[] wDense, bDense;   // [classes x 2 * hidden]
+    private final InferencePlan source;       // the compiled plan these weights came from
+
+    // Per-plan buffers
+    private int maxNodes;
+    private double[] x, h1;   // [maxNodes x in], [maxNodes x hidden]
+    private final double[] row;  // one node of the current layer, before its LayerNorm
+    private final double[] ahRow;
+    private final double[] proj;  // graph context · context rows of W1
+    private final double[] pooled, probs;
+
+    private InferencePlan(GCNModel model, int maxNodes) {
+        in = model.gcn1.weights.getRows();
+        hidden = model.gcn1.weights.getCols();
+        classes = model.dense.outputDim;
+        hops = model.getPropagationHops();
+        residual1 = model.gcn1.hasResidual();
+        residual2 = model.gcn2.hasResidual();
+        eps1 = model.gcn1.ln.getEps();
+        eps2 = model.gcn2.ln.getEps();
+        w1 = flat(model.gcn1.weights);
+        b1 = flat(model.gcn1.bias);
+        gamma1 = flat(model.gcn1.ln.gamma);
+        beta1 = flat(model.gcn1.ln.beta);
+        w2 = flat(model.gcn2.weights);
+        b2 = flat(model.gcn2.bias);
+        gamma2 = flat(model.gcn2.ln.gamma);
+        beta2 = flat(model.gcn2.ln.beta);
+        wDense = flat(model.dense.weights);
+        bDense = flat(model.dense.biases);
+        source = this;
+        row = new double[hidden];
+        ahRow = new double[hidden];
+        proj = new double[hidden];
+        pooled = new double[2 * hidden];
+        probs = new double[classes];
+        allocate(maxNodes);
+    }
+
+    private InferencePlan(InferencePlan other) {
+        in = other.in;
+        hidden = other.hidden;
+        classes = other.classes;
+        hops = other.hops;
+        residual1 = other.residual1;
+        residual2 = other.residual2;
+        eps1 = other.eps1;
+        eps2 = other.eps2;
+        w1 = other.w1;
+        b1 = other.b1;
+        gamma1 = other.gamma1;
+        beta1 = other.beta1;
+        w2 = other.w2;
+        b2 = other.b2;
+        gamma2 = other.gamma2;
+        beta2 = other.beta2;
+        wDense = other.wDense;
+        bDense = other.bDense;
+        source = other.source;
+        row = new double[hidden];
+        ahRow = new double[hidden];
+        proj = new double[hidden];
+        pooled = new double[2 * hidden];
+        probs = new double[classes];
+        allocate(other.maxNodes);
+    }
+
+    /**
+     * Snapshots the model's parameters and preallocates buffers for graphs
+     * of up to maxNodes nodes.
+     */
+    public static InferencePlan compile(GCNModel model, int maxNodes) {
+        return new InferencePlan(model, maxNodes);
+    }
+
+    /** A plan over the same weights with its own buffers, for another thread */
+    public InferencePlan copy() {
+        return new InferencePlan(this);
+    }
+
+    /** The plan returned by {@link #compile} that this one was copied from, or itself */
+    public InferencePlan getSource() {
+        return source;
+    }
+
+    private void allocate(int nodes) {
+        maxNodes = nodes;
+        x = new double[nodes * in];
+        h1 = new double[nodes * hidden];
+    }
+
+    /** Index of the most likely class */
+    public int classify(GCNGraph graph) {
+        double[] p = probabilities(graph);
+        int best = 0;
+        for (int c = 1; c < classes; c++) {
+            if (p[c] > p[best]) best = c;
+        }
+        return best;
+    }
+
+    /**
+     * Softmax class probabilities, same as {@link GCNModel#predict}. The
+     * returned array belongs to the plan and is overwritten by the next call.
+     */
+    public double[] probabilities(GCNGraph graph) {
+        int n = graph.getNodeCount();
+        if (graph.getFeatureDim() != in)
+            throw new IllegalArgumentException("Expected feature length=" + in + ", got " + graph.getFeatureDim());
+        if (n > maxNodes) allocate(n);
+        SparseMatrix A = graph.getNormalizedAdjSparse();
+        int nodeDim = graph.getNodeFeatureDim(), contextDim = graph.getContextDim();
+        boolean single = graph.getPrecision() == Precision.FLOAT;
+        Matrix AN = single ? null : graph.getPropagatedNodeFeatures(hops, null);
+        FloatMatrix floatAN = single ? graph.getPropagatedFloatFeatures(hops, null) : null;
+        double[] As = graph.getPropagatedContextScale(hops);
+        Matrix X = residual1 ? graph.getFeatures(new Matrix(x, 0, n, in, in)) : null;
+
+        // Context rows of W1 applied once: proj = context · Wc
+        Matrix context = graph.getContext();
+        Arrays.fill(proj, 0.0);
+        for (int k = 0; k < contextDim; k++) {
+            double c = context.get(0, k);
+            int wk = (nodeDim + k) * hidden;
+            for (int j = 0; j < hidden; j++) proj[j] += c * w1[wk + j];
+        }
+
+        // Layer 1: h1 = leakyReLU(LN(AN·Wn + As ⊗ proj + b1 (+ X)))
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(b1, 0, row, 0, hidden);
+            if (single) {
+                float[] axData = floatAN.getData();
+                int ai = floatAN.index(i, 0);
+                for (int k = 0; k < nodeDim; k++) {
+                    double a = axData[ai + k];
+                    int wk = k * hidden;
+                    for (int j = 0; j < hidden; j++) row[j] += a * w1[wk + j];
+                }
+            } else {
+                double[] axData = AN.getData();
+                int ai = AN.index(i, 0);
+                for (int k = 0; k < nodeDim; k++) {
+                    double a = axData[ai + k];
+                    int wk = k * hidden;
+                    for (int j = 0; j < hidden; j++) row[j] += a * w1[wk + j];
+                }
+            }
+            if (contextDim > 0) {
+                double s = As[i];
+                for (int j = 0; j < hidden; j++) row[j] += s * proj[j];
+            }
+            if (residual1) {
+                for (int j = 0; j < hidden; j++) row[j] += X.get(i, j);
+            }
+            normalizeAndActivate(row, gamma1, beta1, eps1, h1, i * hidden);
+        }
+
+        // Layer 2, row by row: Â·h1 for the node, then ·W2 + b2 (+ h1), LN and
+        // leakyReLU, folded straight into mean and max pooling
+        int[] rowPtr = A.getRowPtr(), colIdx = A.getColIdx();
+        double[] values = A.getValues();
+        for (int j = 0; j < hidden; j++) {
+            pooled[j] = 0.0;
+            pooled[hidden + j] = Double.NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(ahRow, 0.0);
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                double a = values[p];
+                int hk = colIdx[p] * hidden;
+                for (int j = 0; j < hidden; j++) ahRow[j] += a * h1[hk + j];
+            }
+            System.arraycopy(b2, 0, row, 0, hidden);
+            for (int k = 0; k < hidden; k++) {
+                double a = ahRow[k];
+                int wk = k * hidden;
+                for (int j = 0; j < hidden; j++) row[j] += a * w2[wk + j];
+            }
+            if (residual2) {
+                int hi = i * hidden;
+                for (int j = 0; j < hidden; j++) row[j] += h1[hi + j];
+            }
+            normalizeAndActivate(row, gamma2, beta2, eps2, row, 0);
+            for (int j = 0; j < hidden; j++) {
+                pooled[j] += row[j];
+                if (row[j] > pooled[hidden + j]) pooled[hidden + j] = row[j];
+            }
+        }
+        for (int j = 0; j < hidden; j++) pooled[j] /= n;
+
+        // Dense + softmax
+        int width = 2 * hidden;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < classes; c++) {
+            double s = bDense[c];
+            int wc = c * width;
+            for (int j = 0; j < width; j++) s += wDense[wc + j] * pooled[j];
+            probs[c] = s;
+            max = Math.max(max, s);
+        }
+        double sum = 0.0;
+        for (int c = 0; c < classes; c++) {
+            probs[c] = Math.exp(probs[c] - max);
+            sum += probs[c];
+        }
+        for (int c = 0; c < classes; c++) probs[c] /= sum;
+        return probs;
+    }
+
+    // LayerNorm of v (same one-pass shifted variance as the kernels), then
+    // leakyReLU, written to out[off .. off + hidden); out may be v itself
+    private void normalizeAndActivate(double[] v, double[] gamma, double[] beta, double eps,
+                                      double[] out, int off) {
+        double shift = v[0], s1 = 0, s2 = 0;
+        for (int j = 0; j < hidden; j++) {
+            double d = v[j] - shift;
+            s1 += d;
+            s2 += d * d;
+        }
+        double m1 = s1 / hidden;
+        double mean = shift + m1;
+        double var = Math.max(0.0, s2 / hidden - m1 * m1);
+        double inv = 1.0 / Math.sqrt(var + eps);
+        for (int j = 0; j < hidden; j++) {
+            double z = gamma[j] * ((v[j] - mean) * inv) + beta[j];
+            out[off + j] = z > 0 ? z : GCNLayer.LEAKY_SLOPE * z;
+        }
+    }
+
+    private static double[] flat(Matrix m) {
+        return m.copy().getData();
+    }
+}
@@ -5,6 +5,8 @@ import DataStructures.Entry;
 import WGraph.GCNGraph;
 
 public class KNN {
+    // Neighbours per node; part of the graph cache key
+    static final int NEIGHBOURS = 16;
 
     /**
      * Connect each node to its 16 nearest neighbors based on combined spatial+color distance.
@@ -34,7 +36,7 @@ public class KNN {
                 double combined = spatial + colorDist;
                 int scaled = (int) (combined * 1e6);
 
-                if (nearest.size() < 16) {
+                if (nearest.size() < NEIGHBOURS) {
                     nearest.insert(scaled, j);
                 } else {
                     Entry<Integer, Integer> max = nearest.min(); // Since we use reversed comparator, this is the max
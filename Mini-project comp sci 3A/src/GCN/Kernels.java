@@ -0,0 +1,203 @@
+package GCN;
+
+import java.util.Random;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+
+/**
+ * Holds the {@link ElementwiseKernels} used by the GCN package. The SIMD
+ * kernels are used when the JVM was started with
+ * --add-modules jdk.incubator.vector and they agree with the scalar kernels
+ * on a numerical check; otherwise, or with -Dgcn.simd=false, the scalar
+ * kernels are used.
+ */
+public final class Kernels {
+    private static final double TOLERANCE = 1e-10;
+    // Float kernels may round differently (fused multiply-add, summation order)
+    private static final double FLOAT_TOLERANCE = 1e-5;
+    private static volatile ElementwiseKernels kernels = init();
+
+    private Kernels() { }
+
+    private static ElementwiseKernels init() {
+        ElementwiseKernels scalar = new ScalarKernels();
+        if (!Boolean.parseBoolean(System.getProperty("gcn.simd", "true"))) return scalar;
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) return scalar;
+        try {
+            // Loaded reflectively so this class links without the incubator module
+            ElementwiseKernels simd = (ElementwiseKernels) Class.forName("GCN.VectorKernels")
+                .getDeclaredConstructor().newInstance();
+            verify(simd);
+            return simd;
+        } catch (ReflectiveOperationException | LinkageError | IllegalStateException e) {
+            System.out.println("SIMD kernels unavailable, using scalar kernels: " + e);
+            return scalar;
+        }
+    }
+
+    public static ElementwiseKernels get() {
+        return kernels;
+    }
+
+    /**
+     * Installs a kernel set after checking it against the scalar kernels.
+     */
+    public static void set(ElementwiseKernels newKernels) {
+        verify(newKernels);
+        kernels = newKernels;
+    }
+
+    /**
+     * Runs every kernel of the candidate on random rows, including views and
+     * lengths that are not a multiple of the vector width, and throws
+     * IllegalStateException if any output strays from the scalar kernels by
+     * more than a relative 1e-10, or 1e-5 for the float overloads.
+     */
+    public static void verify(ElementwiseKernels candidate) {
+        if (candidate instanceof ScalarKernels) return;
+        ElementwiseKernels ref = new ScalarKernels();
+        Random rand = new Random(7);
+        int[][] shapes = { {1, 1}, {3, 4}, {81, 16}, {5, 37}, {2, 67} };
+
+        for (int[] s : shapes) {
+            int rows = s[0], cols = s[1];
+            Matrix X = random(rows + 1, cols + 3, rand, 3.0).view(1, rows, 2, cols);
+            Matrix Z = random(rows, cols, rand, 1.0);
+            // gamma and beta as offset views, like rows of the flat parameter store
+            Matrix gamma = random(1, cols + 2, rand, 1.0).view(0, 1, 1, cols);
+            Matrix beta = random(1, cols + 2, rand, 1.0).view(0, 1, 2, cols);
+
+            Matrix a = new Matrix(rows, cols), b = new Matrix(rows, cols);
+            ref.leakyReLU(X, a, 0.01);
+            candidate.leakyReLU(X, b, 0.01);
+            check(candidate.name() + " leakyReLU", a, b);
+
+            ref.leakyReLUBackward(X, Z, a, 0.01);
+            candidate.leakyReLUBackward(X, Z, b, 0.01);
+            check(candidate.name() + " leakyReLUBackward", a, b);
+
+            ref.sigmoid(X, a);
+            candidate.sigmoid(X, b);
+            check(candidate.name() + " sigmoid", a, b);
+
+            ref.layerNorm(X, a, gamma, beta, 1e-5);
+            candidate.layerNorm(X, b, gamma, beta, 1e-5);
+            check(candidate.name() + " layerNorm", a, b);
+
+            Matrix dGammaA = random(1, cols, rand, 1.0), dGammaB = dGammaA.copy();
+            Matrix dBetaA = random(1, cols, rand, 1.0), dBetaB = dBetaA.copy();
+            ref.layerNormBackward(X, Z, gamma, 1e-5, a, dGammaA, dBetaA);
+            candidate.layerNormBackward(X, Z, gamma, 1e-5, b, dGammaB, dBetaB);
+            check(candidate.name() + " layerNormBackward", a, b);
+            check(candidate.name() + " layerNormBackward(gamma)", dGammaA, dGammaB);
+            check(candidate.name() + " layerNormBackward(beta)", dBetaA, dBetaB);
+
+            ref.softmax(X, a);
+            candidate.softmax(X, b);
+            check(candidate.name() + " softmax", a, b);
+
+            int len = rows * cols;
+            Matrix g = random(1, len, rand, 3.0);
+            Matrix w1 = random(1, len, rand, 1.0), w2 = w1.copy();
+            Matrix m1 = random(1, len, rand, 0.1), m2 = m1.copy();
+            Matrix v1 = random(1, len, rand, 0.1), v2 = v1.copy();
+            for (int k = 0; k < len; k++) {
+                v1.set(0, k, Math.abs(v1.get(0, k)));
+                v2.set(0, k, v1.get(0, k));
+            }
+            int from = len / 3;
+            ref.adamUpdate(w1.getData(), g.getData(), m1.getData(), v1.getData(), from, len,
+                0.5, 1.0, 1e-3, 0.9, 0.999, 0.1, 0.001, 1e-8);
+            candidate.adamUpdate(w2.getData(), g.getData(), m2.getData(), v2.getData(), from, len,
+                0.5, 1.0, 1e-3, 0.9, 0.999, 0.1, 0.001, 1e-8);
+            check(candidate.name() + " adamUpdate", w1, w2);
+            check(candidate.name() + " adamUpdate(m)", m1, m2);
+            check(candidate.name() + " adamUpdate(v)", v1, v2);
+
+            // Single-precision moments: compare after widening them back
+            float[] mf1 = new float[len], vf1 = new float[len];
+            for (int k = 0; k < len; k++) {
+                mf1[k] = (float) m1.get(0, k);
+                vf1[k] = (float) v1.get(0, k);
+            }
+            float[] mf2 = mf1.clone(), vf2 = vf1.clone();
+            ref.adamUpdate(w1.getData(), g.getData(), mf1, vf1, from, len,
+                0.5, 1.0, 1e-3, 0.9, 0.999, 0.1, 0.001, 1e-8);
+            candidate.adamUpdate(w2.getData(), g.getData(), mf2, vf2, from, len,
+                0.5, 1.0, 1e-3, 0.9, 0.999, 0.1, 0.001, 1e-8);
+            check(candidate.name() + " adamUpdate(float)", w1, w2);
+            check(candidate.name() + " adamUpdate(float m)", widen(mf1), widen(mf2));
+            check(candidate.name() + " adamUpdate(float v)", widen(vf1), widen(vf2));
+
+            FloatMatrix Xf = narrow(X, new FloatMatrix(rows + 1, cols + 3).view(1, rows, 2, cols));
+            FloatMatrix Zf = narrow(Z, new FloatMatrix(rows, cols));
+            FloatMatrix gammaF = narrow(gamma, new FloatMatrix(1, cols + 2).view(0, 1, 1, cols));
+            FloatMatrix betaF = narrow(beta, new FloatMatrix(1, cols + 2).view(0, 1, 2, cols));
+            FloatMatrix af = new FloatMatrix(rows, cols), bf = new FloatMatrix(rows, cols);
+            ref.leakyReLU(Xf, af, 0.01);
+            candidate.leakyReLU(Xf, bf, 0.01);
+            check(candidate.name() + " leakyReLU(float)", af, bf);
+
+            ref.leakyReLUBackward(Xf, Zf, af, 0.01);
+            candidate.leakyReLUBackward(Xf, Zf, bf, 0.01);
+            check(candidate.name() + " leakyReLUBackward(float)", af, bf);
+
+            ref.layerNorm(Xf, af, gammaF, betaF, 1e-5);
+            candidate.layerNorm(Xf, bf, gammaF, betaF, 1e-5);
+            check(candidate.name() + " layerNorm(float)", af, bf);
+
+            ref.layerNormBackward(Xf, Zf, gammaF, 1e-5, af, dGammaA, dBetaA);
+            candidate.layerNormBackward(Xf, Zf, gammaF, 1e-5, bf, dGammaB, dBetaB);
+            check(candidate.name() + " layerNormBackward(float)", af, bf);
+            check(candidate.name() + " layerNormBackward(float gamma)", dGammaA, dGammaB, FLOAT_TOLERANCE);
+            check(candidate.name() + " layerNormBackward(float beta)", dBetaA, dBetaB, FLOAT_TOLERANCE);
+        }
+    }
+
+    private static void check(String what, FloatMatrix expected, FloatMatrix actual) {
+        check(what, widen(expected), widen(actual), FLOAT_TOLERANCE);
+    }
+
+    private static void check(String what, Matrix expected, Matrix actual) {
+        check(what, expected, actual, TOLERANCE);
+    }
+
+    private static void check(String what, Matrix expected, Matrix actual, double tolerance) {
+        for (int i = 0; i < expected.getRows(); i++) {
+            for (int j = 0; j < expected.getCols(); j++) {
+                double e = expected.get(i, j), a = actual.get(i, j);
+                if (Math.abs(a - e) > tolerance * Math.max(1.0, Math.abs(e)))
+                    throw new IllegalStateException(what + " differs from scalar kernel at (" + i + ", " + j
+                        + "): " + a + " vs " + e);
+            }
+        }
+    }
+
+    private static Matrix widen(float[] a) {
+        Matrix m = new Matrix(1, a.length);
+        for (int k = 0; k < a.length; k++) m.set(0, k, a[k]);
+        return m;
+    }
+
+    private static Matrix widen(FloatMatrix a) {
+        Matrix m = new Matrix(a.getRows(), a.getCols());
+        for (int i = 0; i < a.getRows(); i++)
+            for (int j = 0; j < a.getCols(); j++)
+                m.set(i, j, a.get(i, j));
+        return m;
+    }
+
+    private static FloatMatrix narrow(Matrix m, FloatMatrix out) {
+        out.copyFrom(m);
+        return out;
+    }
+
+    private static Matrix random(int rows, int cols, Random rand, double scale) {
+        Matrix m = new Matrix(rows, cols);
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < cols; j++)
+                m.set(i, j, rand.nextGaussian() * scale);
+        return m;
+    }
+}
@@ -1,34 +1,68 @@
 package GCN;
-import java.util.Arrays;
+import java.util.Map;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
 
 public class LayerNorm {
     private int features;
     private double eps = 1e-5;
-    private double[] gamma, beta;
+    Matrix gamma, beta;   // [1 x features]
 
     public LayerNorm(int features) {
         this.features = features;
-        gamma = new double[features];
-        beta  = new double[features];
-        Arrays.fill(gamma, 1.0);
-    }
-
-    public double[][] forward(double[][] X) {
-        int N = X.length;
-        double[][] out = new double[N][features];
-        for (int i = 0; i < N; i++) {
-            // compute mean & var per node
-            double mean=0, var=0;
-            for (int j = 0; j < features; j++) mean += X[i][j];
-            mean /= features;
-            for (int j = 0; j < features; j++) var += Math.pow(X[i][j] - mean, 2);
-            var /= features;
-            // normalize
-            for (int j = 0; j < features; j++) {
-                double xhat = (X[i][j] - mean) / Math.sqrt(var + eps);
-                out[i][j] = gamma[j]*xhat + beta[j];
-            }
-        }
+        gamma = new Matrix(1, features);
+        beta  = new Matrix(1, features);
+        gamma.fill(1.0);
+    }
+
+    public Matrix forward(Matrix X) {
+        return forward(X, new Matrix(X.getRows(), features));
+    }
+
+    /**
+     * Normalizes X into out, which may be X itself.
+     */
+    public Matrix forward(Matrix X, Matrix out) {
+        // mean & var per node in one fused pass, then normalize
+        Kernels.get().layerNorm(X, out, gamma, beta, eps);
+        return out;
+    }
+
+    /**
+     * Given the input X of a forward pass and the gradient dOut on its
+     * output, writes the gradient on X to dX (which may be dOut) and adds
+     * the gamma and beta gradients into dGamma and dBeta.
+     */
+    public void backward(Matrix X, Matrix dOut, Matrix dX, Matrix dGamma, Matrix dBeta) {
+        Kernels.get().layerNormBackward(X, dOut, gamma, eps, dX, dGamma, dBeta);
+    }
+
+    /**
+     * {@link #forward(Matrix, Matrix)} in float, with gamma and beta read
+     * from the parameters rounded by {@link ParameterStore#narrow}.
+     */
+    public FloatMatrix forward(FloatMatrix X, FloatMatrix out, float[] params) {
+        Kernels.get().layerNorm(X, out, ParameterStore.view(params, gamma), ParameterStore.view(params, beta), eps);
         return out;
     }
+
+    /** {@link #backward(Matrix, Matrix, Matrix, Matrix, Matrix)} in float; the gradients on gamma and beta stay double */
+    public void backward(FloatMatrix X, FloatMatrix dOut, float[] params, FloatMatrix dX, Matrix dGamma, Matrix dBeta) {
+        Kernels.get().layerNormBackward(X, dOut, ParameterStore.view(params, gamma), eps, dX, dGamma, dBeta);
+    }
+
+    double getEps() {
+        return eps;
+    }
+
+    void collectParameters(String prefix, Map<String, Matrix> out) {
+        out.put(prefix + ".gamma", gamma);
+        out.put(prefix + ".beta", beta);
+    }
+
+    void bindParameters(String prefix, ParameterStore store) {
+        gamma = store.get(prefix + ".gamma");
+        beta = store.get(prefix + ".beta");
+    }
 }
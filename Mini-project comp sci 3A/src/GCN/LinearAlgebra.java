@@ -0,0 +1,198 @@
+package GCN;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+import WGraph.SparseMatrix;
+
+/**
+ * Holds the {@link MatrixBackend} used by the whole GCN package.
+ * The initial backend comes from the system property gcn.backend
+ * (reference, blocked or parallel; default parallel) and the pool size for
+ * the parallel one from gcn.threads. Every backend is checked against the
+ * reference kernels before it is installed.
+ */
+public final class LinearAlgebra {
+    // Float kernels are checked against the reference's double sums
+    private static final double FLOAT_TOLERANCE = 1e-4;
+    private static volatile MatrixBackend backend = init();
+
+    private LinearAlgebra() { }
+
+    private static MatrixBackend init() {
+        MatrixBackend b = forName(System.getProperty("gcn.backend", "parallel"));
+        verify(b);
+        return b;
+    }
+
+    public static MatrixBackend get() {
+        return backend;
+    }
+
+    /**
+     * Installs a backend after validating it against the reference kernels.
+     */
+    public static void set(MatrixBackend newBackend) {
+        verify(newBackend);
+        backend = newBackend;
+        System.out.println("Linear algebra backend: " + newBackend.name());
+    }
+
+    public static MatrixBackend forName(String name) {
+        switch (name.toLowerCase()) {
+            case "reference":
+                return new ReferenceBackend();
+            case "blocked":
+                return new BlockedBackend();
+            case "parallel":
+                int threads = Integer.getInteger("gcn.threads", Runtime.getRuntime().availableProcessors());
+                return new ParallelBackend(threads);
+            default:
+                throw new IllegalArgumentException("Unknown backend: " + name);
+        }
+    }
+
+    /**
+     * Runs every kernel of the candidate on random operands, including
+     * strided views and sizes that straddle the block boundaries, and throws
+     * IllegalStateException if any result differs from the reference. Float
+     * results may differ by float rounding.
+     */
+    public static void verify(MatrixBackend candidate) {
+        if (candidate instanceof ReferenceBackend) return;
+        MatrixBackend ref = new ReferenceBackend();
+        Random rand = new Random(42);
+        int[][] shapes = { {1, 1, 1}, {7, 24, 16}, {81, 16, 16}, {70, 300, 130}, {130, 9, 3} };
+
+        for (int[] s : shapes) {
+            int m = s[0], k = s[1], n = s[2];
+            Matrix A = random(m, k, rand), B = random(k, n, rand);
+            Matrix At = random(k, m, rand), Bt = random(n, k, rand);
+            Matrix C0 = random(m, n, rand);
+
+            compare(candidate.name() + " gemm", ref, candidate, C0,
+                (b, C) -> b.gemm(A, B, C, true));
+            compare(candidate.name() + " gemmTN", ref, candidate, C0,
+                (b, C) -> b.gemmTN(At, B, C, false));
+            compare(candidate.name() + " gemmNT", ref, candidate, C0,
+                (b, C) -> b.gemmNT(A, Bt, C, true));
+
+            // Strided view operands
+            Matrix wide = random(m + 2, k + 5, rand);
+            Matrix Av = wide.view(1, m, 3, k);
+            compare(candidate.name() + " gemm(view)", ref, candidate, C0,
+                (b, C) -> b.gemm(Av, B, C, false));
+
+            double[] x = random(k, 1, rand).getData(), xt = random(m, 1, rand).getData();
+            double[] y = new double[m], yr = new double[m];
+            double[] yt = new double[k], ytr = new double[k];
+            candidate.gemv(A, x, y, false);
+            ref.gemv(A, x, yr, false);
+            candidate.gemvT(A, xt, yt, false);
+            ref.gemvT(A, xt, ytr, false);
+            check(candidate.name() + " gemv", new Matrix(m, 1, y), new Matrix(m, 1, yr));
+            check(candidate.name() + " gemvT", new Matrix(k, 1, yt), new Matrix(k, 1, ytr));
+
+            double[] u = random(m, 1, rand).getData(), v = random(n, 1, rand).getData();
+            compare(candidate.name() + " outer", ref, candidate, C0,
+                (b, C) -> b.outer(u, v, C, true));
+
+            SparseMatrix S = randomSparse(m, k, rand);
+            Matrix Bs = random(k, n, rand);
+            compare(candidate.name() + " spmm", ref, candidate, C0,
+                (b, C) -> b.spmm(S, Bs, C, false));
+
+            FloatMatrix Af = narrow(A), Bf = narrow(B), Atf = narrow(At), Btf = narrow(Bt);
+            FloatMatrix Bsf = narrow(Bs), C0f = narrow(C0);
+            compareFloat(candidate.name() + " gemm(float)", ref, candidate, C0f,
+                (b, C) -> b.gemm(Af, Bf, C, true));
+            compare(candidate.name() + " gemmTN(float)", ref, candidate, C0,
+                (b, C) -> b.gemmTN(Atf, Bf, C, true));
+            compareFloat(candidate.name() + " gemmNT(float)", ref, candidate, C0f,
+                (b, C) -> b.gemmNT(Af, Btf, C, false));
+            FloatMatrix wideF = narrow(wide);
+            compareFloat(candidate.name() + " gemm(float view)", ref, candidate, C0f,
+                (b, C) -> b.gemm(wideF.view(1, m, 3, k), Bf, C, false));
+            compareFloat(candidate.name() + " spmm(float)", ref, candidate, C0f,
+                (b, C) -> b.spmm(S, Bsf, C, true));
+        }
+    }
+
+    private interface Kernel {
+        void run(MatrixBackend b, Matrix C);
+    }
+
+    private interface FloatKernel {
+        void run(MatrixBackend b, FloatMatrix C);
+    }
+
+    private static void compareFloat(String what, MatrixBackend ref, MatrixBackend candidate, FloatMatrix C0,
+                                     FloatKernel kernel) {
+        FloatMatrix expected = new FloatMatrix(C0.getRows(), C0.getCols());
+        FloatMatrix actual = new FloatMatrix(C0.getRows(), C0.getCols());
+        expected.copyFrom(C0);
+        actual.copyFrom(C0);
+        kernel.run(ref, expected);
+        kernel.run(candidate, actual);
+        for (int i = 0; i < expected.getRows(); i++) {
+            for (int j = 0; j < expected.getCols(); j++) {
+                double e = expected.get(i, j), a = actual.get(i, j);
+                if (Math.abs(a - e) > FLOAT_TOLERANCE * Math.max(1.0, Math.abs(e)))
+                    throw new IllegalStateException(what + " differs from reference at (" + i + ", " + j
+                        + "): " + a + " vs " + e);
+            }
+        }
+    }
+
+    private static FloatMatrix narrow(Matrix m) {
+        FloatMatrix f = new FloatMatrix(m.getRows(), m.getCols());
+        f.copyFrom(m);
+        return f;
+    }
+
+    private static void compare(String what, MatrixBackend ref, MatrixBackend candidate, Matrix C0, Kernel kernel) {
+        Matrix expected = C0.copy(), actual = C0.copy();
+        kernel.run(ref, expected);
+        kernel.run(candidate, actual);
+        check(what, actual, expected);
+    }
+
+    private static void check(String what, Matrix actual, Matrix expected) {
+        for (int i = 0; i < expected.getRows(); i++) {
+            for (int j = 0; j < expected.getCols(); j++) {
+                double e = expected.get(i, j), a = actual.get(i, j);
+                if (Math.abs(a - e) > 1e-9 * Math.max(1.0, Math.abs(e)))
+                    throw new IllegalStateException(what + " differs from reference at (" + i + ", " + j
+                        + "): " + a + " vs " + e);
+            }
+        }
+    }
+
+    private static Matrix random(int rows, int cols, Random rand) {
+        Matrix m = new Matrix(rows, cols);
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < cols; j++)
+                m.set(i, j, rand.nextGaussian());
+        return m;
+    }
+
+    private static SparseMatrix randomSparse(int rows, int cols, Random rand) {
+        int[] rowPtr = new int[rows + 1];
+        int[] colIdx = new int[rows * Math.min(cols, 4)];
+        double[] values = new double[colIdx.length];
+        int nnz = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols && nnz - rowPtr[i] < 4; j++) {
+                if (rand.nextInt(3) == 0) {
+                    colIdx[nnz] = j;
+                    values[nnz++] = rand.nextGaussian();
+                }
+            }
+            rowPtr[i + 1] = nnz;
+        }
+        return new SparseMatrix(rows, cols, rowPtr,
+            Arrays.copyOf(colIdx, nnz), Arrays.copyOf(values, nnz));
+    }
+}
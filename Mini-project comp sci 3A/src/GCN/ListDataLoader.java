@@ -0,0 +1,43 @@
+package GCN;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import WGraph.GCNGraph;
+
+/**
+ * Graphs held in memory. The list is shuffled in place at the start of
+ * every epoch and cut into consecutive mini-batches.
+ */
+public class ListDataLoader implements DataLoader {
+    private final List<GCNGraph> graphs;
+
+    public ListDataLoader(List<GCNGraph> graphs) {
+        this.graphs = graphs;
+    }
+
+    public List<GCNGraph> getGraphs() {
+        return graphs;
+    }
+
+    @Override
+    public int size() {
+        return graphs.size();
+    }
+
+    @Override
+    public Batches batches(int batchSize) {
+        Collections.shuffle(graphs);
+        List<List<GCNGraph>> miniBatches = new ArrayList<>();
+        for (int i = 0; i < graphs.size(); i += batchSize)
+            miniBatches.add(graphs.subList(i, Math.min(graphs.size(), i + batchSize)));
+        return Batches.of(miniBatches.iterator());
+    }
+
+    /** Saves the graph list so a resumed session can train on it again */
+    @Override
+    public void saveSession(String sessionName) {
+        GCNMemory.saveGraphList(graphs, sessionName);
+    }
+}
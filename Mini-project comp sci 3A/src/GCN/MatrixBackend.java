@@ -0,0 +1,97 @@
+package GCN;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+import WGraph.SparseMatrix;
+
+/**
+ * Linear-algebra kernels used by the GCN layers and the trainer.
+ * Every method writes into a caller-supplied output; when accumulate is
+ * true the result is added to the output instead of overwriting it.
+ * Transposed variants read their operand in place, so no transpose is
+ * ever materialized.
+ *
+ * The FloatMatrix overloads serve models computing in FLOAT. A layer's
+ * products sum along its feature width, which is short, so gemm, gemmNT
+ * and spmm keep their sums in float; gemmTN sums over every node of a
+ * batch and accumulates into a double output.
+ */
+public interface MatrixBackend {
+
+    String name();
+
+    /** C = A * B */
+    void gemm(Matrix A, Matrix B, Matrix C, boolean accumulate);
+
+    /** C = A^T * B */
+    void gemmTN(Matrix A, Matrix B, Matrix C, boolean accumulate);
+
+    /** C = A * B^T */
+    void gemmNT(Matrix A, Matrix B, Matrix C, boolean accumulate);
+
+    /** y = A * x */
+    void gemv(Matrix A, double[] x, double[] y, boolean accumulate);
+
+    /** y = A^T * x */
+    void gemvT(Matrix A, double[] x, double[] y, boolean accumulate);
+
+    /** C = x * y^T */
+    void outer(double[] x, double[] y, Matrix C, boolean accumulate);
+
+    /** C = A * B for a sparse A */
+    void spmm(SparseMatrix A, Matrix B, Matrix C, boolean accumulate);
+
+    /** C = A * B in float */
+    void gemm(FloatMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate);
+
+    /** C = A^T * B, summed in double */
+    void gemmTN(FloatMatrix A, FloatMatrix B, Matrix C, boolean accumulate);
+
+    /** C = A * B^T in float */
+    void gemmNT(FloatMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate);
+
+    /** C = A * B for a sparse A, in float */
+    void spmm(SparseMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate);
+
+    // Allocating conveniences on top of the kernels above
+
+    default Matrix gemm(Matrix A, Matrix B) {
+        Matrix C = new Matrix(A.getRows(), B.getCols());
+        gemm(A, B, C, false);
+        return C;
+    }
+
+    default Matrix gemmTN(Matrix A, Matrix B) {
+        Matrix C = new Matrix(A.getCols(), B.getCols());
+        gemmTN(A, B, C, false);
+        return C;
+    }
+
+    default Matrix gemmNT(Matrix A, Matrix B) {
+        Matrix C = new Matrix(A.getRows(), B.getRows());
+        gemmNT(A, B, C, false);
+        return C;
+    }
+
+    default Matrix spmm(SparseMatrix A, Matrix B) {
+        Matrix C = new Matrix(A.getRows(), B.getCols());
+        spmm(A, B, C, false);
+        return C;
+    }
+
+    static void checkGemm(int m, int k1, int k2, int n, Matrix C) {
+        checkGemm(m, k1, k2, n, C.getRows(), C.getCols());
+    }
+
+    static void checkGemm(int m, int k1, int k2, int n, FloatMatrix C) {
+        checkGemm(m, k1, k2, n, C.getRows(), C.getCols());
+    }
+
+    private static void checkGemm(int m, int k1, int k2, int n, int rows, int cols) {
+        if (k1 != k2)
+            throw new IllegalArgumentException("matmul dimension mismatch: " + k1 + " vs " + k2);
+        if (rows != m || cols != n)
+            throw new IllegalArgumentException("Output is [" + rows + " x " + cols
+                + "], expected [" + m + " x " + n + "]");
+    }
+}
@@ -0,0 +1,161 @@
+package GCN;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+import WGraph.SparseMatrix;
+
+/**
+ * Fork-join backend: splits the rows of the output across a pool and runs
+ * the blocked kernels on each slice. Products too small to be worth a fork
+ * run inline on the calling thread. Each output element is still computed
+ * by one thread in the reference order, so results match exactly.
+ */
+public class ParallelBackend implements MatrixBackend {
+    // Multiply-adds below which a product is not worth splitting further
+    private static final long MIN_WORK = 1 << 16;
+
+    private final BlockedBackend serial = new BlockedBackend();
+    private final ForkJoinPool pool;
+
+    public ParallelBackend(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    public ParallelBackend() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    @Override
+    public String name() {
+        return "parallel(" + pool.getParallelism() + ")";
+    }
+
+    @Override
+    public void gemm(Matrix A, Matrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getRows(), B.getCols(), C);
+        long work = (long) A.getCols() * B.getCols();
+        run(C.getRows(), work, (r0, len) ->
+            serial.gemm(A.rowView(r0, len), B, C.rowView(r0, len), accumulate));
+    }
+
+    @Override
+    public void gemmTN(Matrix A, Matrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getCols(), A.getRows(), B.getRows(), B.getCols(), C);
+        long work = (long) A.getRows() * B.getCols();
+        run(C.getRows(), work, (r0, len) ->
+            serial.gemmTN(A.view(0, A.getRows(), r0, len), B, C.rowView(r0, len), accumulate));
+    }
+
+    @Override
+    public void gemmNT(Matrix A, Matrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getCols(), B.getRows(), C);
+        long work = (long) A.getCols() * B.getRows();
+        run(C.getRows(), work, (r0, len) ->
+            serial.gemmNT(A.rowView(r0, len), B, C.rowView(r0, len), accumulate));
+    }
+
+    // Matrix-vector and outer products are O(n * d) and stay serial
+
+    @Override
+    public void gemv(Matrix A, double[] x, double[] y, boolean accumulate) {
+        serial.gemv(A, x, y, accumulate);
+    }
+
+    @Override
+    public void gemvT(Matrix A, double[] x, double[] y, boolean accumulate) {
+        serial.gemvT(A, x, y, accumulate);
+    }
+
+    @Override
+    public void outer(double[] x, double[] y, Matrix C, boolean accumulate) {
+        serial.outer(x, y, C, accumulate);
+    }
+
+    @Override
+    public void spmm(SparseMatrix A, Matrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getRows(), B.getCols(), C);
+        long work = (long) Math.max(1, A.nnz() / Math.max(1, A.getRows())) * B.getCols();
+        run(C.getRows(), work, (r0, len) ->
+            serial.spmmRows(A, B, C, r0, r0 + len, accumulate));
+    }
+
+    @Override
+    public void gemm(FloatMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getRows(), B.getCols(), C);
+        long work = (long) A.getCols() * B.getCols();
+        run(C.getRows(), work, (r0, len) ->
+            serial.gemm(A.rowView(r0, len), B, C.rowView(r0, len), accumulate));
+    }
+
+    @Override
+    public void gemmTN(FloatMatrix A, FloatMatrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getCols(), A.getRows(), B.getRows(), B.getCols(), C);
+        long work = (long) A.getRows() * B.getCols();
+        run(C.getRows(), work, (r0, len) ->
+            serial.gemmTN(A.view(0, A.getRows(), r0, len), B, C.rowView(r0, len), accumulate));
+    }
+
+    @Override
+    public void gemmNT(FloatMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getCols(), B.getRows(), C);
+        long work = (long) A.getCols() * B.getRows();
+        run(C.getRows(), work, (r0, len) ->
+            serial.gemmNT(A.rowView(r0, len), B, C.rowView(r0, len), accumulate));
+    }
+
+    @Override
+    public void spmm(SparseMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getRows(), B.getCols(), C);
+        long work = (long) Math.max(1, A.nnz() / Math.max(1, A.getRows())) * B.getCols();
+        run(C.getRows(), work, (r0, len) ->
+            serial.spmmRows(A, B, C, r0, r0 + len, accumulate));
+    }
+
+    private interface RowTask {
+        void compute(int rowStart, int rowCount);
+    }
+
+    /**
+     * Runs task over rows [0, rows), splitting while a slice holds more than
+     * MIN_WORK multiply-adds. workPerRow is the cost of one output row.
+     */
+    private void run(int rows, long workPerRow, RowTask task) {
+        int grain = (int) Math.max(1, Math.min(rows, MIN_WORK / Math.max(1, workPerRow)));
+        if (rows <= grain || pool.getParallelism() == 1) {
+            task.compute(0, rows);
+            return;
+        }
+        pool.invoke(new RowSplit(task, 0, rows, grain));
+    }
+
+    private static final class RowSplit extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final RowTask task;
+        private final int start, count, grain;
+
+        RowSplit(RowTask task, int start, int count, int grain) {
+            this.task = task;
+            this.start = start;
+            this.count = count;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (count <= grain) {
+                task.compute(start, count);
+                return;
+            }
+            int half = count / 2;
+            invokeAll(new RowSplit(task, start, half, grain),
+                      new RowSplit(task, start + half, count - half, grain));
+        }
+    }
+}
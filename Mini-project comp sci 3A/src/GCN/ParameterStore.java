@@ -0,0 +1,100 @@
+package GCN;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+
+/**
+ * Every trainable parameter of a model packed into one contiguous array.
+ * Layers hold {@link Matrix} views into it, so an optimizer can update all
+ * parameters in a single pass. Gradient and optimizer-moment buffers are
+ * plain arrays of {@link #size()} elements with the same layout; use
+ * {@link #get(double[], String)} to view one parameter inside them.
+ */
+public class ParameterStore {
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, int[]> layout = new HashMap<>();  // name -> {offset, rows, cols}
+    private final double[] values;
+
+    /**
+     * Packs the given parameters, in iteration order, and copies their
+     * current values in. Callers then replace their own matrices with the
+     * views returned by {@link #get(String)}.
+     */
+    public ParameterStore(Map<String, Matrix> initial) {
+        int size = 0;
+        for (Map.Entry<String, Matrix> e : initial.entrySet()) {
+            Matrix m = e.getValue();
+            names.add(e.getKey());
+            layout.put(e.getKey(), new int[] { size, m.getRows(), m.getCols() });
+            size += m.getRows() * m.getCols();
+        }
+        values = new double[size];
+        for (Map.Entry<String, Matrix> e : initial.entrySet()) {
+            get(e.getKey()).copyFrom(e.getValue());
+        }
+    }
+
+    /** Total number of scalar parameters */
+    public int size() {
+        return values.length;
+    }
+
+    /** The flat parameter array; layers see it through their views */
+    public double[] getValues() {
+        return values;
+    }
+
+    public List<String> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    /** View of one parameter */
+    public Matrix get(String name) {
+        return get(values, name);
+    }
+
+    /** View of one parameter inside a buffer laid out like this store */
+    public Matrix get(double[] buffer, String name) {
+        int[] slot = layout.get(name);
+        if (slot == null) throw new IllegalArgumentException("Unknown parameter: " + name);
+        if (buffer.length != values.length)
+            throw new IllegalArgumentException("Expected buffer length=" + values.length + ", got " + buffer.length);
+        return new Matrix(buffer, slot[0], slot[1], slot[2], slot[2]);
+    }
+
+    /** Every parameter rounded to float into out, which has {@link #size()} elements */
+    public void narrow(float[] out) {
+        if (out.length != values.length)
+            throw new IllegalArgumentException("Expected buffer length=" + values.length + ", got " + out.length);
+        for (int k = 0; k < values.length; k++) out[k] = (float) values[k];
+    }
+
+    /**
+     * The float counterpart of a parameter view from {@link #get(String)},
+     * at the same place in a buffer filled by {@link #narrow}.
+     */
+    static FloatMatrix view(float[] buffer, Matrix parameter) {
+        return new FloatMatrix(buffer, parameter.getOffset(), parameter.getRows(), parameter.getCols(),
+            parameter.getStride());
+    }
+
+    /**
+     * Names and shapes in storage order, e.g. "gcn1.weights:24x16,...".
+     * Two stores with the same description can exchange flat arrays.
+     */
+    public String describeLayout() {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            int[] slot = layout.get(name);
+            if (sb.length() > 0) sb.append(',');
+            sb.append(name).append(':').append(slot[1]).append('x').append(slot[2]);
+        }
+        return sb.toString();
+    }
+}
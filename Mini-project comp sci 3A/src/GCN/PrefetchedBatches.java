@@ -0,0 +1,109 @@
+package GCN;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import WGraph.GCNGraph;
+
+/**
+ * Batches read by a background thread a few ahead of the one in use, so
+ * building the next batch overlaps training on the current one. The depth
+ * comes from gcn.prefetchBatches (default 2, one being filled while the
+ * other waits).
+ *
+ * Empty batches are skipped. A CancellationException from the reader just
+ * ends the epoch early; an IOException is thrown from the iterator as an
+ * UncheckedIOException, and a RuntimeException as it is. Closing the
+ * batches early stops the reading thread and drops the batches read ahead.
+ */
+final class PrefetchedBatches implements DataLoader.Batches {
+
+    /** Reads batch b of an epoch */
+    interface Reader {
+        List<GCNGraph> read(int b) throws IOException;
+    }
+
+    // Marks the end of an epoch in the queue
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(depth());
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Thread producer;
+    private Object next;
+
+    /** Starts reading batches 0 to count - 1 in the background */
+    PrefetchedBatches(int count, Reader reader) {
+        producer = new Thread(() -> {
+            try {
+                for (int b = 0; b < count && !closed.get(); b++) {
+                    List<GCNGraph> batch = reader.read(b);
+                    if (!batch.isEmpty()) queue.put(batch);
+                }
+                queue.put(END);
+            } catch (CancellationException e) {
+                put(END);
+            } catch (IOException e) {
+                put(new UncheckedIOException(e));
+            } catch (RuntimeException e) {
+                put(e);
+            } catch (InterruptedException e) {
+                // Nobody is reading any more
+            }
+        }, "data-loader");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /** Batches read ahead, from gcn.prefetchBatches */
+    static int depth() {
+        return Math.max(1, Integer.getInteger("gcn.prefetchBatches", 2));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                producer.interrupt();
+                next = END;
+            }
+        }
+        if (next instanceof RuntimeException) throw (RuntimeException) next;
+        return next != END;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<GCNGraph> next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        List<GCNGraph> batch = (List<GCNGraph>) next;
+        next = null;
+        return batch;
+    }
+
+    @Override
+    public void close() {
+        if (closed.getAndSet(true)) return;
+        // Wakes the reader from a full queue or a pending load; it exits without handing anything over
+        producer.interrupt();
+        queue.clear();
+        next = END;
+    }
+
+    // Hands the end marker or an error to the reader, giving up if interrupted
+    private void put(Object item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package GCN;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+import WGraph.SparseMatrix;
+
+/**
+ * Straightforward triple-loop kernels. Slow, but simple enough to trust,
+ * so the other backends are checked against it. The float kernels sum in
+ * double and round once, giving the most accurate float result.
+ */
+public class ReferenceBackend implements MatrixBackend {
+
+    @Override
+    public String name() {
+        return "reference";
+    }
+
+    @Override
+    public void gemm(Matrix A, Matrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getRows(), B.getCols(), C);
+        for (int i = 0; i < C.getRows(); i++)
+            for (int j = 0; j < C.getCols(); j++) {
+                double sum = accumulate ? C.get(i, j) : 0.0;
+                for (int k = 0; k < A.getCols(); k++)
+                    sum += A.get(i, k) * B.get(k, j);
+                C.set(i, j, sum);
+            }
+    }
+
+    @Override
+    public void gemmTN(Matrix A, Matrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getCols(), A.getRows(), B.getRows(), B.getCols(), C);
+        for (int i = 0; i < C.getRows(); i++)
+            for (int j = 0; j < C.getCols(); j++) {
+                double sum = accumulate ? C.get(i, j) : 0.0;
+                for (int k = 0; k < A.getRows(); k++)
+                    sum += A.get(k, i) * B.get(k, j);
+                C.set(i, j, sum);
+            }
+    }
+
+    @Override
+    public void gemmNT(Matrix A, Matrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getCols(), B.getRows(), C);
+        for (int i = 0; i < C.getRows(); i++)
+            for (int j = 0; j < C.getCols(); j++) {
+                double sum = accumulate ? C.get(i, j) : 0.0;
+                for (int k = 0; k < A.getCols(); k++)
+                    sum += A.get(i, k) * B.get(j, k);
+                C.set(i, j, sum);
+            }
+    }
+
+    @Override
+    public void gemv(Matrix A, double[] x, double[] y, boolean accumulate) {
+        if (x.length != A.getCols() || y.length != A.getRows())
+            throw new IllegalArgumentException("gemv dimension mismatch");
+        for (int i = 0; i < A.getRows(); i++) {
+            double sum = accumulate ? y[i] : 0.0;
+            for (int j = 0; j < A.getCols(); j++)
+                sum += A.get(i, j) * x[j];
+            y[i] = sum;
+        }
+    }
+
+    @Override
+    public void gemvT(Matrix A, double[] x, double[] y, boolean accumulate) {
+        if (x.length != A.getRows() || y.length != A.getCols())
+            throw new IllegalArgumentException("gemvT dimension mismatch");
+        for (int j = 0; j < A.getCols(); j++) {
+            double sum = accumulate ? y[j] : 0.0;
+            for (int i = 0; i < A.getRows(); i++)
+                sum += A.get(i, j) * x[i];
+            y[j] = sum;
+        }
+    }
+
+    @Override
+    public void outer(double[] x, double[] y, Matrix C, boolean accumulate) {
+        if (C.getRows() != x.length || C.getCols() != y.length)
+            throw new IllegalArgumentException("outer dimension mismatch");
+        for (int i = 0; i < x.length; i++)
+            for (int j = 0; j < y.length; j++)
+                C.set(i, j, (accumulate ? C.get(i, j) : 0.0) + x[i] * y[j]);
+    }
+
+    @Override
+    public void spmm(SparseMatrix A, Matrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getRows(), B.getCols(), C);
+        int[] rowPtr = A.getRowPtr(), colIdx = A.getColIdx();
+        double[] values = A.getValues();
+        for (int i = 0; i < C.getRows(); i++)
+            for (int j = 0; j < C.getCols(); j++) {
+                double sum = accumulate ? C.get(i, j) : 0.0;
+                for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++)
+                    sum += values[p] * B.get(colIdx[p], j);
+                C.set(i, j, sum);
+            }
+    }
+
+    @Override
+    public void gemm(FloatMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getRows(), B.getCols(), C);
+        for (int i = 0; i < C.getRows(); i++)
+            for (int j = 0; j < C.getCols(); j++) {
+                double sum = accumulate ? C.get(i, j) : 0.0;
+                for (int k = 0; k < A.getCols(); k++)
+                    sum += (double) A.get(i, k) * B.get(k, j);
+                C.set(i, j, (float) sum);
+            }
+    }
+
+    @Override
+    public void gemmTN(FloatMatrix A, FloatMatrix B, Matrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getCols(), A.getRows(), B.getRows(), B.getCols(), C);
+        for (int i = 0; i < C.getRows(); i++)
+            for (int j = 0; j < C.getCols(); j++) {
+                double sum = accumulate ? C.get(i, j) : 0.0;
+                for (int k = 0; k < A.getRows(); k++)
+                    sum += (double) A.get(k, i) * B.get(k, j);
+                C.set(i, j, sum);
+            }
+    }
+
+    @Override
+    public void gemmNT(FloatMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getCols(), B.getRows(), C);
+        for (int i = 0; i < C.getRows(); i++)
+            for (int j = 0; j < C.getCols(); j++) {
+                double sum = accumulate ? C.get(i, j) : 0.0;
+                for (int k = 0; k < A.getCols(); k++)
+                    sum += (double) A.get(i, k) * B.get(j, k);
+                C.set(i, j, (float) sum);
+            }
+    }
+
+    @Override
+    public void spmm(SparseMatrix A, FloatMatrix B, FloatMatrix C, boolean accumulate) {
+        MatrixBackend.checkGemm(A.getRows(), A.getCols(), B.getRows(), B.getCols(), C);
+        int[] rowPtr = A.getRowPtr(), colIdx = A.getColIdx();
+        double[] values = A.getValues();
+        for (int i = 0; i < C.getRows(); i++)
+            for (int j = 0; j < C.getCols(); j++) {
+                double sum = accumulate ? C.get(i, j) : 0.0;
+                for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++)
+                    sum += values[p] * B.get(colIdx[p], j);
+                C.set(i, j, (float) sum);
+            }
+    }
+}
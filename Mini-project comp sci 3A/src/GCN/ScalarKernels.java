@@ -0,0 +1,265 @@
+package GCN;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+
+/**
+ * Plain-Java kernels, used when the Vector API is not available and as the
+ * reference the SIMD kernels are checked against.
+ */
+public class ScalarKernels implements ElementwiseKernels {
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public void leakyReLU(Matrix X, Matrix out, double alpha) {
+        X.checkSameShape(out);
+        double[] x = X.getData(), o = out.getData();
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            for (int j = 0; j < X.getCols(); j++) {
+                double v = x[xi + j];
+                o[oi + j] = v > 0 ? v : alpha * v;
+            }
+        }
+    }
+
+    @Override
+    public void leakyReLUBackward(Matrix dH, Matrix Z, Matrix out, double alpha) {
+        dH.checkSameShape(Z);
+        dH.checkSameShape(out);
+        double[] d = dH.getData(), z = Z.getData(), o = out.getData();
+        for (int i = 0; i < dH.getRows(); i++) {
+            int di = dH.index(i, 0), zi = Z.index(i, 0), oi = out.index(i, 0);
+            for (int j = 0; j < dH.getCols(); j++) {
+                o[oi + j] = d[di + j] * (z[zi + j] > 0 ? 1.0 : alpha);
+            }
+        }
+    }
+
+    @Override
+    public void sigmoid(Matrix X, Matrix out) {
+        X.checkSameShape(out);
+        double[] x = X.getData(), o = out.getData();
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            for (int j = 0; j < X.getCols(); j++) {
+                o[oi + j] = 1.0 / (1.0 + Math.exp(-x[xi + j]));
+            }
+        }
+    }
+
+    @Override
+    public void layerNorm(Matrix X, Matrix out, Matrix gammaRow, Matrix betaRow, double eps) {
+        X.checkSameShape(out);
+        int n = X.getCols();
+        double[] x = X.getData(), o = out.getData();
+        double[] gamma = gammaRow.getData(), beta = betaRow.getData();
+        int gOff = gammaRow.index(0, 0), bOff = betaRow.index(0, 0);
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            // Sums shifted by the first element keep the one-pass variance stable
+            double shift = x[xi], s1 = 0, s2 = 0;
+            for (int j = 0; j < n; j++) {
+                double d = x[xi + j] - shift;
+                s1 += d;
+                s2 += d * d;
+            }
+            double m1 = s1 / n;
+            double mean = shift + m1;
+            double var = Math.max(0.0, s2 / n - m1 * m1);
+            double inv = 1.0 / Math.sqrt(var + eps);
+            for (int j = 0; j < n; j++) {
+                o[oi + j] = gamma[gOff + j] * ((x[xi + j] - mean) * inv) + beta[bOff + j];
+            }
+        }
+    }
+
+    @Override
+    public void layerNormBackward(Matrix X, Matrix dOut, Matrix gammaRow, double eps,
+                                  Matrix dX, Matrix dGammaRow, Matrix dBetaRow) {
+        X.checkSameShape(dOut);
+        X.checkSameShape(dX);
+        int n = X.getCols();
+        double[] x = X.getData(), d = dOut.getData(), o = dX.getData();
+        double[] gamma = gammaRow.getData(), dGamma = dGammaRow.getData(), dBeta = dBetaRow.getData();
+        int gOff = gammaRow.index(0, 0), dgOff = dGammaRow.index(0, 0), dbOff = dBetaRow.index(0, 0);
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), di = dOut.index(i, 0), oi = dX.index(i, 0);
+            // Recompute the row statistics exactly as the forward pass did
+            double shift = x[xi], s1 = 0, s2 = 0;
+            for (int j = 0; j < n; j++) {
+                double dd = x[xi + j] - shift;
+                s1 += dd;
+                s2 += dd * dd;
+            }
+            double m1 = s1 / n;
+            double mean = shift + m1;
+            double var = Math.max(0.0, s2 / n - m1 * m1);
+            double inv = 1.0 / Math.sqrt(var + eps);
+
+            // Sums of dxhat and dxhat * xhat, and the gamma/beta gradients
+            double sumD = 0, sumDX = 0;
+            for (int j = 0; j < n; j++) {
+                double xhat = (x[xi + j] - mean) * inv;
+                double g = d[di + j];
+                double dxhat = g * gamma[gOff + j];
+                sumD += dxhat;
+                sumDX += dxhat * xhat;
+                dGamma[dgOff + j] += g * xhat;
+                dBeta[dbOff + j] += g;
+            }
+            double meanD = sumD / n, meanDX = sumDX / n;
+            for (int j = 0; j < n; j++) {
+                double xhat = (x[xi + j] - mean) * inv;
+                o[oi + j] = inv * (d[di + j] * gamma[gOff + j] - meanD - xhat * meanDX);
+            }
+        }
+    }
+
+    @Override
+    public void leakyReLU(FloatMatrix X, FloatMatrix out, double alpha) {
+        X.checkSameShape(out);
+        float[] x = X.getData(), o = out.getData();
+        float a = (float) alpha;
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            for (int j = 0; j < X.getCols(); j++) {
+                float v = x[xi + j];
+                o[oi + j] = v > 0 ? v : a * v;
+            }
+        }
+    }
+
+    @Override
+    public void leakyReLUBackward(FloatMatrix dH, FloatMatrix Z, FloatMatrix out, double alpha) {
+        dH.checkSameShape(Z);
+        dH.checkSameShape(out);
+        float[] d = dH.getData(), z = Z.getData(), o = out.getData();
+        float a = (float) alpha;
+        for (int i = 0; i < dH.getRows(); i++) {
+            int di = dH.index(i, 0), zi = Z.index(i, 0), oi = out.index(i, 0);
+            for (int j = 0; j < dH.getCols(); j++) {
+                o[oi + j] = d[di + j] * (z[zi + j] > 0 ? 1f : a);
+            }
+        }
+    }
+
+    @Override
+    public void layerNorm(FloatMatrix X, FloatMatrix out, FloatMatrix gammaRow, FloatMatrix betaRow, double eps) {
+        X.checkSameShape(out);
+        int n = X.getCols();
+        float[] x = X.getData(), o = out.getData();
+        float[] gamma = gammaRow.getData(), beta = betaRow.getData();
+        int gOff = gammaRow.index(0, 0), bOff = betaRow.index(0, 0);
+        double[] stats = new double[2];
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            rowStats(x, xi, n, eps, stats);
+            float mean = (float) stats[0], inv = (float) stats[1];
+            for (int j = 0; j < n; j++) {
+                o[oi + j] = gamma[gOff + j] * ((x[xi + j] - mean) * inv) + beta[bOff + j];
+            }
+        }
+    }
+
+    @Override
+    public void layerNormBackward(FloatMatrix X, FloatMatrix dOut, FloatMatrix gammaRow, double eps,
+                                  FloatMatrix dX, Matrix dGammaRow, Matrix dBetaRow) {
+        X.checkSameShape(dOut);
+        X.checkSameShape(dX);
+        int n = X.getCols();
+        float[] x = X.getData(), d = dOut.getData(), o = dX.getData(), gamma = gammaRow.getData();
+        double[] dGamma = dGammaRow.getData(), dBeta = dBetaRow.getData();
+        int gOff = gammaRow.index(0, 0), dgOff = dGammaRow.index(0, 0), dbOff = dBetaRow.index(0, 0);
+        double[] stats = new double[2];
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), di = dOut.index(i, 0), oi = dX.index(i, 0);
+            rowStats(x, xi, n, eps, stats);
+            float mean = (float) stats[0], inv = (float) stats[1];
+
+            double sumD = 0, sumDX = 0;
+            for (int j = 0; j < n; j++) {
+                float xhat = (x[xi + j] - mean) * inv;
+                float g = d[di + j];
+                float dxhat = g * gamma[gOff + j];
+                sumD += dxhat;
+                sumDX += (double) dxhat * xhat;
+                dGamma[dgOff + j] += (double) g * xhat;
+                dBeta[dbOff + j] += g;
+            }
+            float meanD = (float) (sumD / n), meanDX = (float) (sumDX / n);
+            for (int j = 0; j < n; j++) {
+                float xhat = (x[xi + j] - mean) * inv;
+                o[oi + j] = (d[di + j] * gamma[gOff + j] - meanD - xhat * meanDX) * inv;
+            }
+        }
+    }
+
+    // Mean and 1 / sqrt(var + eps) of a float row into stats, summed in double like the double kernel
+    private static void rowStats(float[] x, int xi, int n, double eps, double[] stats) {
+        double shift = x[xi], s1 = 0, s2 = 0;
+        for (int j = 0; j < n; j++) {
+            double d = x[xi + j] - shift;
+            s1 += d;
+            s2 += d * d;
+        }
+        double m1 = s1 / n;
+        double var = Math.max(0.0, s2 / n - m1 * m1);
+        stats[0] = shift + m1;
+        stats[1] = 1.0 / Math.sqrt(var + eps);
+    }
+
+    @Override
+    public void softmax(Matrix X, Matrix out) {
+        X.checkSameShape(out);
+        int n = X.getCols();
+        double[] x = X.getData(), o = out.getData();
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            double max = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < n; j++) max = Math.max(max, x[xi + j]);
+            double sum = 0.0;
+            for (int j = 0; j < n; j++) {
+                o[oi + j] = Math.exp(x[xi + j] - max); // Numerical stability
+                sum += o[oi + j];
+            }
+            for (int j = 0; j < n; j++) o[oi + j] /= sum;
+        }
+    }
+
+    @Override
+    public void adamUpdate(double[] w, double[] g, double[] m, double[] v, int from, int to,
+                           double gradScale, double clip, double lr, double beta1, double beta2,
+                           double biasCorr1, double biasCorr2, double eps) {
+        for (int k = from; k < to; k++) {
+            // Average over the batch and clip
+            double grad = Math.min(clip, Math.max(-clip, g[k] * gradScale));
+            // Update biased first and second raw moment estimates
+            m[k] = beta1 * m[k] + (1 - beta1) * grad;
+            v[k] = beta2 * v[k] + (1 - beta2) * grad * grad;
+            // Bias-corrected step
+            double mHat = m[k] / biasCorr1;
+            double vHat = v[k] / biasCorr2;
+            w[k] -= lr * mHat / (Math.sqrt(vHat) + eps);
+        }
+    }
+
+    @Override
+    public void adamUpdate(double[] w, double[] g, float[] m, float[] v, int from, int to,
+                           double gradScale, double clip, double lr, double beta1, double beta2,
+                           double biasCorr1, double biasCorr2, double eps) {
+        for (int k = from; k < to; k++) {
+            double grad = Math.min(clip, Math.max(-clip, g[k] * gradScale));
+            // Moments in double, stored back as float
+            double mk = beta1 * m[k] + (1 - beta1) * grad;
+            double vk = beta2 * v[k] + (1 - beta2) * grad * grad;
+            m[k] = (float) mk;
+            v[k] = (float) vk;
+            w[k] = (float) (w[k] - lr * (mk / biasCorr1) / (Math.sqrt(vk / biasCorr2) + eps));
+        }
+    }
+}
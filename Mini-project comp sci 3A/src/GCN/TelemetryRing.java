@@ -0,0 +1,92 @@
+package GCN;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free queue between threads that produce events (training,
+ * validation) and the one thread that consumes them (the GUI). Producers
+ * never block: when the ring is full an event is dropped and counted
+ * instead, so a consumer that falls behind costs events, not training
+ * time, and memory stays at the capacity fixed up front.
+ *
+ * Each slot carries a sequence number telling whether it is free for the
+ * producer of a given position or holds the event the consumer expects
+ * next, so producers only contend on one compare-and-set of the tail.
+ * Any number of threads may {@link #offer}; only one may {@link #drain}.
+ */
+public final class TelemetryRing<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequence;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();  // next position to write
+    private long head;                                 // next position to read, consumer only
+    private final LongAdder dropped = new LongAdder();
+
+    /** A ring of at least capacity slots, rounded up to a power of two */
+    public TelemetryRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("capacity out of range: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        slots = new AtomicReferenceArray<>(size);
+        sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequence.set(i, i);
+        mask = size - 1;
+    }
+
+    /** Adds the event unless the ring is full; never blocks */
+    public boolean offer(T event) {
+        long pos = tail.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long lag = sequence.get(i) - pos;
+            if (lag == 0) {
+                // Slot is free for this position; claim it
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.set(i, event);
+                    sequence.set(i, pos + 1);  // publish to the consumer
+                    return true;
+                }
+                pos = tail.get();
+            } else if (lag < 0) {
+                // The consumer has not freed this slot yet: full
+                dropped.increment();
+                return false;
+            } else {
+                pos = tail.get();  // another producer took this position
+            }
+        }
+    }
+
+    /**
+     * Hands up to max events to the consumer in the order they were
+     * offered and returns how many there were. Must only be called from
+     * one thread at a time.
+     */
+    public int drain(Consumer<? super T> consumer, int max) {
+        int n = 0;
+        while (n < max) {
+            int i = (int) head & mask;
+            if (sequence.get(i) != head + 1) break;  // not published yet
+            T event = slots.get(i);
+            slots.set(i, null);
+            sequence.set(i, head + mask + 1);  // free for the producer one lap later
+            head++;
+            consumer.accept(event);
+            n++;
+        }
+        return n;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** Events dropped because the ring was full, since the last call */
+    public long takeDropped() {
+        return dropped.sumThenReset();
+    }
+}
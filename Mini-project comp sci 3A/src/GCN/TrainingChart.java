@@ -0,0 +1,117 @@
+package GCN;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Line chart of per-epoch values such as loss or accuracy. Each series
+ * keeps at most a fixed number of points for the whole run: once full,
+ * neighbouring points are averaged in pairs and later epochs are averaged
+ * in buckets twice as wide. Memory and painting cost therefore stay the
+ * same however long training runs, and the chart always spans every epoch.
+ *
+ * Not thread safe; add points and repaint on the event dispatch thread.
+ */
+public class TrainingChart extends JPanel {
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_POINTS = 512;
+
+    /** One downsampled curve */
+    private static final class Series {
+        final String name;
+        final Color color;
+        final double[] x = new double[MAX_POINTS], y = new double[MAX_POINTS];
+        int size;
+        int bucket = 1;                // epochs averaged into each point
+        double sumX, sumY;             // the bucket being filled
+        int pending;
+
+        Series(String name, Color color) {
+            this.name = name;
+            this.color = color;
+        }
+
+        void add(double epoch, double value) {
+            sumX += epoch;
+            sumY += value;
+            if (++pending < bucket) return;
+            if (size == MAX_POINTS) halve();
+            x[size] = sumX / pending;
+            y[size] = sumY / pending;
+            size++;
+            sumX = sumY = 0;
+            pending = 0;
+        }
+
+        // Averages neighbouring points in pairs and doubles the bucket width
+        private void halve() {
+            for (int k = 0; k < size / 2; k++) {
+                x[k] = (x[2 * k] + x[2 * k + 1]) / 2;
+                y[k] = (y[2 * k] + y[2 * k + 1]) / 2;
+            }
+            size /= 2;
+            bucket *= 2;
+        }
+    }
+
+    private final Series[] series;
+
+    public TrainingChart(String title, String[] names, Color[] colors) {
+        setBorder(BorderFactory.createTitledBorder(title));
+        setBackground(Color.WHITE);
+        series = new Series[names.length];
+        for (int s = 0; s < names.length; s++) series[s] = new Series(names[s], colors[s]);
+    }
+
+    /** Adds the value of series s for an epoch; non-finite values are skipped */
+    public void add(int s, int epoch, double value) {
+        if (Double.isFinite(value)) series[s].add(epoch, value);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Insets in = getInsets();
+        int left = in.left + 4, top = in.top + 14;
+        int width = getWidth() - left - in.right - 4, height = getHeight() - top - in.bottom - 4;
+        if (width < 10 || height < 10) return;
+
+        double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (Series s : series) {
+            for (int k = 0; k < s.size; k++) {
+                minX = Math.min(minX, s.x[k]);
+                maxX = Math.max(maxX, s.x[k]);
+                minY = Math.min(minY, s.y[k]);
+                maxY = Math.max(maxY, s.y[k]);
+            }
+        }
+        if (minX > maxX) return;  // nothing yet
+        if (maxX == minX) maxX = minX + 1;
+        if (maxY == minY) maxY = minY + 1;
+
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setColor(Color.LIGHT_GRAY);
+        g2.drawRect(left, top, width, height);
+        g2.setColor(Color.DARK_GRAY);
+        g2.drawString(String.format("%.3g", maxY), left + 2, top + 11);
+        g2.drawString(String.format("%.3g", minY), left + 2, top + height - 2);
+
+        int legend = left + width;
+        for (int idx = series.length - 1; idx >= 0; idx--) {
+            Series s = series[idx];
+            legend -= g2.getFontMetrics().stringWidth(s.name) + 8;
+            g2.setColor(s.color);
+            g2.drawString(s.name, legend, top - 2);
+            int px = 0, py = 0;
+            for (int k = 0; k < s.size; k++) {
+                int cx = left + (int) Math.round((s.x[k] - minX) / (maxX - minX) * width);
+                int cy = top + height - (int) Math.round((s.y[k] - minY) / (maxY - minY) * height);
+                if (k > 0) g2.drawLine(px, py, cx, cy);
+                px = cx;
+                py = cy;
+            }
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package GCN;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Where the time of each training epoch goes. The trainer reports time
+ * spent waiting for batches (including packing block-diagonal batches),
+ * in forward and backward passes, in optimizer steps and in validation;
+ * around each epoch the heap allocated and the garbage collector's pauses
+ * are sampled from the platform MXBeans.
+ *
+ * Forward and backward times are summed over the threads that compute a
+ * batch, so with several training threads they can add up to more than
+ * the epoch's wall time. Allocation is tracked per thread and sampled at
+ * the start of the epoch and after every step, so it includes the loader
+ * and an overlapped validation; a thread that ends during the epoch only
+ * loses what it allocated since the last sample.
+ *
+ * Each finished epoch is published three ways: through the MBean
+ * GCN:type=TrainingMetrics, as one JSON object per line in the file named
+ * by gcn.metricsLog (default training_metrics.jsonl; "off" disables it),
+ * and to {@link Listener}s. {@link #close()} closes the log; the trainer
+ * calls it when training returns, and the next epoch reopens it.
+ */
+public final class TrainingMetrics implements TrainingMetricsMBean {
+    public static final String OBJECT_NAME = "GCN:type=TrainingMetrics";
+
+    // Collectors whose time is spent in pauses; G1, ZGC and Shenandoah also report
+    // their concurrent cycles as separate beans, which would count work done alongside training
+    private static final List<GarbageCollectorMXBean> PAUSE_COLLECTORS = pauseCollectors();
+
+    /** Told about every epoch once its validation has finished */
+    public interface Listener {
+        void epochFinished(EpochStats stats);
+    }
+
+    /** Timings and resource use of one epoch; times in nanoseconds */
+    public static final class EpochStats {
+        public final int epoch, graphs, steps;
+        public final long wallNanos, loadNanos, forwardNanos, backwardNanos, optimizerNanos, validationNanos;
+        public final long allocatedBytes, gcCount, gcPauseMillis;
+        public final double trainingLoss, learningRate, validationLoss, validationAccuracy;
+
+        EpochStats(int epoch, int graphs, int steps, long wallNanos, long loadNanos, long forwardNanos,
+                   long backwardNanos, long optimizerNanos, long validationNanos, long allocatedBytes,
+                   long gcCount, long gcPauseMillis, double trainingLoss, double learningRate,
+                   double validationLoss, double validationAccuracy) {
+            this.epoch = epoch;
+            this.graphs = graphs;
+            this.steps = steps;
+            this.wallNanos = wallNanos;
+            this.loadNanos = loadNanos;
+            this.forwardNanos = forwardNanos;
+            this.backwardNanos = backwardNanos;
+            this.optimizerNanos = optimizerNanos;
+            this.validationNanos = validationNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.gcCount = gcCount;
+            this.gcPauseMillis = gcPauseMillis;
+            this.trainingLoss = trainingLoss;
+            this.learningRate = learningRate;
+            this.validationLoss = validationLoss;
+            this.validationAccuracy = validationAccuracy;
+        }
+
+        /** The same epoch with its validation result filled in */
+        EpochStats validated(long validationNanos, double validationLoss, double validationAccuracy) {
+            return new EpochStats(epoch, graphs, steps, wallNanos, loadNanos, forwardNanos, backwardNanos,
+                optimizerNanos, validationNanos, allocatedBytes, gcCount, gcPauseMillis, trainingLoss,
+                learningRate, validationLoss, validationAccuracy);
+        }
+
+        /** Graphs trained per second of the epoch's training phase */
+        public double graphsPerSecond() {
+            return wallNanos == 0 ? 0.0 : graphs * 1e9 / wallNanos;
+        }
+
+        /** Heap allocated per mini-batch step, or -1 if the JVM cannot tell */
+        public long allocatedBytesPerStep() {
+            return allocatedBytes < 0 || steps == 0 ? -1 : allocatedBytes / steps;
+        }
+
+        /** One line of JSON, the format of the metrics log */
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                "{\"epoch\":%d,\"graphs\":%d,\"steps\":%d,\"graphsPerSecond\":%.3f,\"epochMs\":%.3f,"
+                + "\"loadMs\":%.3f,\"forwardMs\":%.3f,\"backwardMs\":%.3f,\"optimizerMs\":%.3f,"
+                + "\"validationMs\":%.3f,\"allocatedBytesPerStep\":%d,\"gcCount\":%d,\"gcPauseMs\":%d,"
+                + "\"trainingLoss\":%s,\"validationLoss\":%s,\"validationAccuracy\":%s,\"learningRate\":%s}",
+                epoch, graphs, steps, graphsPerSecond(), millis(wallNanos), millis(loadNanos),
+                millis(forwardNanos), millis(backwardNanos), millis(optimizerNanos), millis(validationNanos),
+                allocatedBytesPerStep(), gcCount, gcPauseMillis, json(trainingLoss), json(validationLoss),
+                json(validationAccuracy), json(learningRate));
+        }
+
+        // JSON has no NaN or Infinity
+        private static String json(double x) {
+            return Double.isFinite(x) ? Double.toString(x) : "null";
+        }
+    }
+
+    // Summed by the worker threads of a batch
+    private final LongAdder forwardNanos = new LongAdder(), backwardNanos = new LongAdder();
+    // Only touched by the training thread
+    private long loadNanos, optimizerNanos;
+    private long epochStart, gcCountAtStart, gcMillisAtStart;
+    // Allocated bytes of each live thread at the last sample, by thread id, and the sum of their growth
+    private HashMap<Long, Long> allocationSeen = new HashMap<>();
+    private long allocated;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final String logPath = System.getProperty("gcn.metricsLog", "training_metrics.jsonl");
+    private boolean logEnabled = !logPath.equalsIgnoreCase("off");
+    private Writer log;
+    private volatile EpochStats latest;
+    private long totalGraphs, totalNanos;
+
+    /**
+     * Registers this instance as the GCN:type=TrainingMetrics MBean, in place
+     * of any instance registered before. A JMX failure only costs the MBean.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.out.println("Training metrics MBean not registered: " + e.getMessage());
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Starts timing an epoch; called by the training thread */
+    void beginEpoch() {
+        forwardNanos.reset();
+        backwardNanos.reset();
+        loadNanos = 0;
+        optimizerNanos = 0;
+        allocationSeen.clear();
+        sampleAllocation();
+        allocated = allocationSeen.isEmpty() ? -1 : 0;
+        gcCountAtStart = gcCount();
+        gcMillisAtStart = gcMillis();
+        epochStart = System.nanoTime();
+    }
+
+    void addLoading(long nanos) {
+        loadNanos += nanos;
+    }
+
+    void addForward(long nanos) {
+        forwardNanos.add(nanos);
+    }
+
+    void addBackward(long nanos) {
+        backwardNanos.add(nanos);
+    }
+
+    void addOptimizer(long nanos) {
+        optimizerNanos += nanos;
+    }
+
+    /** Samples allocation after a step; called by the training thread */
+    void endStep() {
+        sampleAllocation();
+    }
+
+    /**
+     * Ends the training phase of an epoch. The stats are published once
+     * {@link #publish} adds the validation result.
+     */
+    EpochStats endEpoch(int epoch, int graphs, int steps, double trainingLoss, double learningRate) {
+        long wall = System.nanoTime() - epochStart;
+        sampleAllocation();
+        return new EpochStats(epoch, graphs, steps, wall, loadNanos, forwardNanos.sum(), backwardNanos.sum(),
+            optimizerNanos, 0, allocated, gcCount() - gcCountAtStart, gcMillis() - gcMillisAtStart,
+            trainingLoss, learningRate, Double.NaN, Double.NaN);
+    }
+
+    /** Completes an epoch's stats with its validation, then logs them and tells the listeners */
+    synchronized void publish(EpochStats trained, long validationNanos, double validationLoss,
+                              double validationAccuracy) {
+        EpochStats stats = trained.validated(validationNanos, validationLoss, validationAccuracy);
+        latest = stats;
+        totalGraphs += stats.graphs;
+        totalNanos += stats.wallNanos;
+        writeLog(stats);
+        for (Listener listener : listeners) listener.epochFinished(stats);
+    }
+
+    // Appends one line to the metrics log; a failure turns the log off for this run
+    private void writeLog(EpochStats stats) {
+        if (!logEnabled) return;
+        try {
+            if (log == null) log = new FileWriter(logPath, true);
+            log.write(stats.toJson());
+            log.write('\n');
+            log.flush();
+        } catch (IOException e) {
+            System.out.println("Training metrics log " + logPath + " disabled: " + e.getMessage());
+            logEnabled = false;
+        }
+    }
+
+    /** Closes the metrics log; it is opened again when the next epoch is published */
+    public synchronized void close() {
+        if (log == null) return;
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.out.println("Training metrics log " + logPath + " not closed cleanly: " + e.getMessage());
+        }
+        log = null;
+    }
+
+    /** The most recently published epoch, or null before the first one */
+    public EpochStats getLatest() {
+        return latest;
+    }
+
+    // Adds each live thread's growth since its last sample to allocated; a thread first seen
+    // now started during the epoch, so all it has allocated counts. Threads that ended are
+    // forgotten. Leaves allocationSeen empty if the JVM cannot measure allocation.
+    private void sampleAllocation() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return;
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        HashMap<Long, Long> seen = new HashMap<>(2 * ids.length);
+        for (int k = 0; k < ids.length; k++) {
+            if (bytes[k] < 0) continue;  // ended since the id was read
+            Long before = allocationSeen.get(ids[k]);
+            if (allocated >= 0) allocated += bytes[k] - (before == null ? 0 : before);
+            seen.put(ids[k], bytes[k]);
+        }
+        allocationSeen = seen;
+    }
+
+    private static List<GarbageCollectorMXBean> pauseCollectors() {
+        List<GarbageCollectorMXBean> beans = new ArrayList<>(ManagementFactory.getGarbageCollectorMXBeans());
+        beans.removeIf(gc -> gc.getName().contains("Concurrent") || gc.getName().contains("Cycles"));
+        return beans;
+    }
+
+    private static long gcCount() {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc : PAUSE_COLLECTORS) sum += Math.max(0, gc.getCollectionCount());
+        return sum;
+    }
+
+    private static long gcMillis() {
+        long sum = 0;
+        for (GarbageCollectorMXBean gc : PAUSE_COLLECTORS) sum += Math.max(0, gc.getCollectionTime());
+        return sum;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    // MBean attributes, from the latest epoch
+
+    @Override
+    public int getEpoch() {
+        EpochStats s = latest;
+        return s == null ? -1 : s.epoch;
+    }
+
+    @Override
+    public double getGraphsPerSecond() {
+        EpochStats s = latest;
+        return s == null ? 0.0 : s.graphsPerSecond();
+    }
+
+    @Override
+    public double getEpochMillis() {
+        EpochStats s = latest;
+        return s == null ? 0.0 : millis(s.wallNanos);
+    }
+
+    @Override
+    public double getDataLoadingMillis() {
+        EpochStats s = latest;
+        return s == null ? 0.0 : millis(s.loadNanos);
+    }
+
+    @Override
+    public double getForwardMillis() {
+        EpochStats s = latest;
+        return s == null ? 0.0 : millis(s.forwardNanos);
+    }
+
+    @Override
+    public double getBackwardMillis() {
+        EpochStats s = latest;
+        return s == null ? 0.0 : millis(s.backwardNanos);
+    }
+
+    @Override
+    public double getOptimizerMillis() {
+        EpochStats s = latest;
+        return s == null ? 0.0 : millis(s.optimizerNanos);
+    }
+
+    @Override
+    public double getValidationMillis() {
+        EpochStats s = latest;
+        return s == null ? 0.0 : millis(s.validationNanos);
+    }
+
+    @Override
+    public long getAllocatedBytesPerStep() {
+        EpochStats s = latest;
+        return s == null ? -1 : s.allocatedBytesPerStep();
+    }
+
+    @Override
+    public long getGcCount() {
+        EpochStats s = latest;
+        return s == null ? 0 : s.gcCount;
+    }
+
+    @Override
+    public double getGcPauseMillis() {
+        EpochStats s = latest;
+        return s == null ? 0.0 : s.gcPauseMillis;
+    }
+
+    @Override
+    public double getTrainingLoss() {
+        EpochStats s = latest;
+        return s == null ? Double.NaN : s.trainingLoss;
+    }
+
+    @Override
+    public double getValidationLoss() {
+        EpochStats s = latest;
+        return s == null ? Double.NaN : s.validationLoss;
+    }
+
+    @Override
+    public double getValidationAccuracy() {
+        EpochStats s = latest;
+        return s == null ? Double.NaN : s.validationAccuracy;
+    }
+
+    @Override
+    public double getLearningRate() {
+        EpochStats s = latest;
+        return s == null ? Double.NaN : s.learningRate;
+    }
+
+    @Override
+    public synchronized long getTotalGraphs() {
+        return totalGraphs;
+    }
+
+    @Override
+    public synchronized double getTotalTrainingSeconds() {
+        return totalNanos / 1e9;
+    }
+}
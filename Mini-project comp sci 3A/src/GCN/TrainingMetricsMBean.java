@@ -0,0 +1,42 @@
+package GCN;
+
+/**
+ * JMX view of {@link TrainingMetrics}, registered as GCN:type=TrainingMetrics.
+ * Per-epoch attributes describe the most recently validated epoch; times
+ * are in milliseconds.
+ */
+public interface TrainingMetricsMBean {
+    int getEpoch();
+
+    double getGraphsPerSecond();
+
+    double getEpochMillis();
+
+    double getDataLoadingMillis();
+
+    double getForwardMillis();
+
+    double getBackwardMillis();
+
+    double getOptimizerMillis();
+
+    double getValidationMillis();
+
+    long getAllocatedBytesPerStep();
+
+    long getGcCount();
+
+    double getGcPauseMillis();
+
+    double getTrainingLoss();
+
+    double getValidationLoss();
+
+    double getValidationAccuracy();
+
+    double getLearningRate();
+
+    long getTotalGraphs();
+
+    double getTotalTrainingSeconds();
+}
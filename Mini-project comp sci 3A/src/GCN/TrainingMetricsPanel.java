@@ -0,0 +1,62 @@
+package GCN;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Shows the latest epoch of a {@link TrainingMetrics}: throughput, where
+ * the epoch's time went, allocation per step and GC pauses. Call
+ * {@link #showEpoch} on the event dispatch thread.
+ */
+public class TrainingMetricsPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+
+    private final JLabel epoch = value(), throughput = value(), epochTime = value();
+    private final JLabel loading = value(), forward = value(), backward = value();
+    private final JLabel optimizer = value(), validation = value();
+    private final JLabel allocation = value(), gc = value();
+
+    public TrainingMetricsPanel() {
+        super(new GridLayout(0, 4, 8, 2));
+        setBorder(BorderFactory.createTitledBorder("Training Metrics"));
+        row("Epoch", epoch, "Graphs/s", throughput);
+        row("Epoch time", epochTime, "Data loading", loading);
+        row("Forward", forward, "Backward", backward);
+        row("Optimizer", optimizer, "Validation", validation);
+        row("Alloc/step", allocation, "GC pauses", gc);
+    }
+
+    public void showEpoch(TrainingMetrics.EpochStats s) {
+        epoch.setText(Integer.toString(s.epoch));
+        throughput.setText(String.format("%.1f", s.graphsPerSecond()));
+        epochTime.setText(millis(s.wallNanos));
+        loading.setText(share(s.loadNanos, s.wallNanos));
+        forward.setText(share(s.forwardNanos, s.wallNanos));
+        backward.setText(share(s.backwardNanos, s.wallNanos));
+        optimizer.setText(share(s.optimizerNanos, s.wallNanos));
+        validation.setText(millis(s.validationNanos));
+        long perStep = s.allocatedBytesPerStep();
+        allocation.setText(perStep < 0 ? "n/a" : String.format("%.1f MB", perStep / (1024.0 * 1024.0)));
+        gc.setText(s.gcCount + " (" + s.gcPauseMillis + " ms)");
+    }
+
+    private void row(String name1, JLabel value1, String name2, JLabel value2) {
+        add(new JLabel(name1 + ":"));
+        add(value1);
+        add(new JLabel(name2 + ":"));
+        add(value2);
+    }
+
+    private static JLabel value() {
+        return new JLabel("-");
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.0f ms", nanos / 1e6);
+    }
+
+    // Time and its share of the epoch's wall time
+    private static String share(long nanos, long wallNanos) {
+        return String.format("%.0f ms (%.0f%%)", nanos / 1e6, wallNanos == 0 ? 0.0 : 100.0 * nanos / wallNanos);
+    }
+}
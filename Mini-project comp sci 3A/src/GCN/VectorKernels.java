@@ -0,0 +1,471 @@
+package GCN;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+
+/**
+ * SIMD kernels on the incubating Vector API. Only loaded through
+ * {@link Kernels}, which checks that jdk.incubator.vector is present
+ * (run with --add-modules jdk.incubator.vector) and falls back to
+ * {@link ScalarKernels} otherwise. Rows are processed in full-width vectors
+ * with a scalar tail. The float overloads run on full-width float vectors,
+ * twice the lanes of a double vector, widening each half to double where a
+ * sum is kept in double.
+ */
+public class VectorKernels implements ElementwiseKernels {
+    private static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+    // Floats with the same lane count as S, for moments kept in single precision
+    private static final VectorSpecies<Float> F =
+        VectorSpecies.of(float.class, VectorShape.forBitSize(S.vectorBitSize() / 2));
+    // Full-width floats for the FloatMatrix overloads; each vector widens to two of S
+    private static final VectorSpecies<Float> W = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public String name() {
+        return "vector(" + S.length() + " x double)";
+    }
+
+    @Override
+    public void leakyReLU(Matrix X, Matrix out, double alpha) {
+        X.checkSameShape(out);
+        int n = X.getCols(), bound = S.loopBound(n);
+        double[] x = X.getData(), o = out.getData();
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            int j = 0;
+            for (; j < bound; j += S.length()) {
+                DoubleVector v = DoubleVector.fromArray(S, x, xi + j);
+                VectorMask<Double> positive = v.compare(VectorOperators.GT, 0.0);
+                v.mul(alpha).blend(v, positive).intoArray(o, oi + j);
+            }
+            for (; j < n; j++) {
+                double v = x[xi + j];
+                o[oi + j] = v > 0 ? v : alpha * v;
+            }
+        }
+    }
+
+    @Override
+    public void leakyReLUBackward(Matrix dH, Matrix Z, Matrix out, double alpha) {
+        dH.checkSameShape(Z);
+        dH.checkSameShape(out);
+        int n = dH.getCols(), bound = S.loopBound(n);
+        double[] d = dH.getData(), z = Z.getData(), o = out.getData();
+        DoubleVector one = DoubleVector.broadcast(S, 1.0), slope = DoubleVector.broadcast(S, alpha);
+        for (int i = 0; i < dH.getRows(); i++) {
+            int di = dH.index(i, 0), zi = Z.index(i, 0), oi = out.index(i, 0);
+            int j = 0;
+            for (; j < bound; j += S.length()) {
+                VectorMask<Double> positive = DoubleVector.fromArray(S, z, zi + j).compare(VectorOperators.GT, 0.0);
+                DoubleVector dv = DoubleVector.fromArray(S, d, di + j);
+                dv.mul(slope.blend(one, positive)).intoArray(o, oi + j);
+            }
+            for (; j < n; j++) {
+                o[oi + j] = d[di + j] * (z[zi + j] > 0 ? 1.0 : alpha);
+            }
+        }
+    }
+
+    @Override
+    public void sigmoid(Matrix X, Matrix out) {
+        X.checkSameShape(out);
+        int n = X.getCols(), bound = S.loopBound(n);
+        double[] x = X.getData(), o = out.getData();
+        DoubleVector one = DoubleVector.broadcast(S, 1.0);
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            int j = 0;
+            for (; j < bound; j += S.length()) {
+                DoubleVector e = DoubleVector.fromArray(S, x, xi + j).neg().lanewise(VectorOperators.EXP);
+                one.div(e.add(1.0)).intoArray(o, oi + j);
+            }
+            for (; j < n; j++) {
+                o[oi + j] = 1.0 / (1.0 + Math.exp(-x[xi + j]));
+            }
+        }
+    }
+
+    @Override
+    public void layerNorm(Matrix X, Matrix out, Matrix gammaRow, Matrix betaRow, double eps) {
+        X.checkSameShape(out);
+        int n = X.getCols(), bound = S.loopBound(n);
+        double[] x = X.getData(), o = out.getData();
+        double[] gamma = gammaRow.getData(), beta = betaRow.getData();
+        int gOff = gammaRow.index(0, 0), bOff = betaRow.index(0, 0);
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            // One pass: sums shifted by the first element, as in ScalarKernels
+            double shift = x[xi];
+            DoubleVector acc1 = DoubleVector.zero(S), acc2 = DoubleVector.zero(S);
+            int j = 0;
+            for (; j < bound; j += S.length()) {
+                DoubleVector dv = DoubleVector.fromArray(S, x, xi + j).sub(shift);
+                acc1 = acc1.add(dv);
+                acc2 = dv.fma(dv, acc2);
+            }
+            double s1 = acc1.reduceLanes(VectorOperators.ADD);
+            double s2 = acc2.reduceLanes(VectorOperators.ADD);
+            for (; j < n; j++) {
+                double dd = x[xi + j] - shift;
+                s1 += dd;
+                s2 += dd * dd;
+            }
+            double m1 = s1 / n;
+            double mean = shift + m1;
+            double var = Math.max(0.0, s2 / n - m1 * m1);
+            double inv = 1.0 / Math.sqrt(var + eps);
+
+            j = 0;
+            for (; j < bound; j += S.length()) {
+                DoubleVector xhat = DoubleVector.fromArray(S, x, xi + j).sub(mean).mul(inv);
+                DoubleVector g = DoubleVector.fromArray(S, gamma, gOff + j);
+                DoubleVector b = DoubleVector.fromArray(S, beta, bOff + j);
+                g.fma(xhat, b).intoArray(o, oi + j);
+            }
+            for (; j < n; j++) {
+                o[oi + j] = gamma[gOff + j] * ((x[xi + j] - mean) * inv) + beta[bOff + j];
+            }
+        }
+    }
+
+    @Override
+    public void layerNormBackward(Matrix X, Matrix dOut, Matrix gammaRow, double eps,
+                                  Matrix dX, Matrix dGammaRow, Matrix dBetaRow) {
+        X.checkSameShape(dOut);
+        X.checkSameShape(dX);
+        int n = X.getCols(), bound = S.loopBound(n);
+        double[] x = X.getData(), d = dOut.getData(), o = dX.getData();
+        double[] gamma = gammaRow.getData(), dGamma = dGammaRow.getData(), dBeta = dBetaRow.getData();
+        int gOff = gammaRow.index(0, 0), dgOff = dGammaRow.index(0, 0), dbOff = dBetaRow.index(0, 0);
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), di = dOut.index(i, 0), oi = dX.index(i, 0);
+            // Row statistics exactly as in the forward pass
+            double shift = x[xi];
+            DoubleVector acc1 = DoubleVector.zero(S), acc2 = DoubleVector.zero(S);
+            int j = 0;
+            for (; j < bound; j += S.length()) {
+                DoubleVector dv = DoubleVector.fromArray(S, x, xi + j).sub(shift);
+                acc1 = acc1.add(dv);
+                acc2 = dv.fma(dv, acc2);
+            }
+            double s1 = acc1.reduceLanes(VectorOperators.ADD);
+            double s2 = acc2.reduceLanes(VectorOperators.ADD);
+            for (; j < n; j++) {
+                double dd = x[xi + j] - shift;
+                s1 += dd;
+                s2 += dd * dd;
+            }
+            double m1 = s1 / n;
+            double mean = shift + m1;
+            double var = Math.max(0.0, s2 / n - m1 * m1);
+            double inv = 1.0 / Math.sqrt(var + eps);
+
+            // Sums of dxhat and dxhat * xhat, and the gamma/beta gradients
+            DoubleVector sumD = DoubleVector.zero(S), sumDX = DoubleVector.zero(S);
+            j = 0;
+            for (; j < bound; j += S.length()) {
+                DoubleVector xhat = DoubleVector.fromArray(S, x, xi + j).sub(mean).mul(inv);
+                DoubleVector g = DoubleVector.fromArray(S, d, di + j);
+                DoubleVector dxhat = g.mul(DoubleVector.fromArray(S, gamma, gOff + j));
+                sumD = sumD.add(dxhat);
+                sumDX = dxhat.fma(xhat, sumDX);
+                g.fma(xhat, DoubleVector.fromArray(S, dGamma, dgOff + j)).intoArray(dGamma, dgOff + j);
+                g.add(DoubleVector.fromArray(S, dBeta, dbOff + j)).intoArray(dBeta, dbOff + j);
+            }
+            double sd = sumD.reduceLanes(VectorOperators.ADD);
+            double sdx = sumDX.reduceLanes(VectorOperators.ADD);
+            for (; j < n; j++) {
+                double xhat = (x[xi + j] - mean) * inv;
+                double g = d[di + j];
+                double dxhat = g * gamma[gOff + j];
+                sd += dxhat;
+                sdx += dxhat * xhat;
+                dGamma[dgOff + j] += g * xhat;
+                dBeta[dbOff + j] += g;
+            }
+            double meanD = sd / n, meanDX = sdx / n;
+
+            j = 0;
+            for (; j < bound; j += S.length()) {
+                DoubleVector xhat = DoubleVector.fromArray(S, x, xi + j).sub(mean).mul(inv);
+                DoubleVector dxhat = DoubleVector.fromArray(S, d, di + j)
+                    .mul(DoubleVector.fromArray(S, gamma, gOff + j));
+                dxhat.sub(meanD).sub(xhat.mul(meanDX)).mul(inv).intoArray(o, oi + j);
+            }
+            for (; j < n; j++) {
+                double xhat = (x[xi + j] - mean) * inv;
+                o[oi + j] = inv * (d[di + j] * gamma[gOff + j] - meanD - xhat * meanDX);
+            }
+        }
+    }
+
+    @Override
+    public void leakyReLU(FloatMatrix X, FloatMatrix out, double alpha) {
+        X.checkSameShape(out);
+        int n = X.getCols(), bound = W.loopBound(n);
+        float[] x = X.getData(), o = out.getData();
+        float a = (float) alpha;
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            int j = 0;
+            for (; j < bound; j += W.length()) {
+                FloatVector v = FloatVector.fromArray(W, x, xi + j);
+                VectorMask<Float> positive = v.compare(VectorOperators.GT, 0f);
+                v.mul(a).blend(v, positive).intoArray(o, oi + j);
+            }
+            for (; j < n; j++) {
+                float v = x[xi + j];
+                o[oi + j] = v > 0 ? v : a * v;
+            }
+        }
+    }
+
+    @Override
+    public void leakyReLUBackward(FloatMatrix dH, FloatMatrix Z, FloatMatrix out, double alpha) {
+        dH.checkSameShape(Z);
+        dH.checkSameShape(out);
+        int n = dH.getCols(), bound = W.loopBound(n);
+        float[] d = dH.getData(), z = Z.getData(), o = out.getData();
+        float a = (float) alpha;
+        FloatVector one = FloatVector.broadcast(W, 1f), slope = FloatVector.broadcast(W, a);
+        for (int i = 0; i < dH.getRows(); i++) {
+            int di = dH.index(i, 0), zi = Z.index(i, 0), oi = out.index(i, 0);
+            int j = 0;
+            for (; j < bound; j += W.length()) {
+                VectorMask<Float> positive = FloatVector.fromArray(W, z, zi + j).compare(VectorOperators.GT, 0f);
+                FloatVector.fromArray(W, d, di + j).mul(slope.blend(one, positive)).intoArray(o, oi + j);
+            }
+            for (; j < n; j++) {
+                o[oi + j] = d[di + j] * (z[zi + j] > 0 ? 1f : a);
+            }
+        }
+    }
+
+    @Override
+    public void layerNorm(FloatMatrix X, FloatMatrix out, FloatMatrix gammaRow, FloatMatrix betaRow, double eps) {
+        X.checkSameShape(out);
+        int n = X.getCols(), bound = W.loopBound(n);
+        float[] x = X.getData(), o = out.getData();
+        float[] gamma = gammaRow.getData(), beta = betaRow.getData();
+        int gOff = gammaRow.index(0, 0), bOff = betaRow.index(0, 0);
+        double[] stats = new double[2];
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            rowStats(x, xi, n, eps, stats);
+            float mean = (float) stats[0], inv = (float) stats[1];
+            int j = 0;
+            for (; j < bound; j += W.length()) {
+                FloatVector xhat = FloatVector.fromArray(W, x, xi + j).sub(mean).mul(inv);
+                FloatVector g = FloatVector.fromArray(W, gamma, gOff + j);
+                g.fma(xhat, FloatVector.fromArray(W, beta, bOff + j)).intoArray(o, oi + j);
+            }
+            for (; j < n; j++) {
+                o[oi + j] = gamma[gOff + j] * ((x[xi + j] - mean) * inv) + beta[bOff + j];
+            }
+        }
+    }
+
+    @Override
+    public void layerNormBackward(FloatMatrix X, FloatMatrix dOut, FloatMatrix gammaRow, double eps,
+                                  FloatMatrix dX, Matrix dGammaRow, Matrix dBetaRow) {
+        X.checkSameShape(dOut);
+        X.checkSameShape(dX);
+        int n = X.getCols(), bound = W.loopBound(n);
+        float[] x = X.getData(), d = dOut.getData(), o = dX.getData(), gamma = gammaRow.getData();
+        double[] dGamma = dGammaRow.getData(), dBeta = dBetaRow.getData();
+        int gOff = gammaRow.index(0, 0), dgOff = dGammaRow.index(0, 0), dbOff = dBetaRow.index(0, 0);
+        double[] stats = new double[2];
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), di = dOut.index(i, 0), oi = dX.index(i, 0);
+            rowStats(x, xi, n, eps, stats);
+            float mean = (float) stats[0], inv = (float) stats[1];
+
+            rowSums(x, xi, d, di, gamma, gOff, n, mean, inv, dGamma, dgOff, dBeta, dbOff, stats);
+            float meanD = (float) (stats[0] / n), meanDX = (float) (stats[1] / n);
+
+            int j = 0;
+            for (; j < bound; j += W.length()) {
+                FloatVector xhat = FloatVector.fromArray(W, x, xi + j).sub(mean).mul(inv);
+                FloatVector dxhat = FloatVector.fromArray(W, d, di + j)
+                    .mul(FloatVector.fromArray(W, gamma, gOff + j));
+                dxhat.sub(meanD).sub(xhat.mul(meanDX)).mul(inv).intoArray(o, oi + j);
+            }
+            for (; j < n; j++) {
+                float xhat = (x[xi + j] - mean) * inv;
+                o[oi + j] = (d[di + j] * gamma[gOff + j] - meanD - xhat * meanDX) * inv;
+            }
+        }
+    }
+
+    // Sums of dxhat and dxhat * xhat over a row into stats, and its gamma/beta
+    // gradients added to dGamma and dBeta, all in double
+    private static void rowSums(float[] x, int xi, float[] d, int di, float[] gamma, int gOff, int n,
+                                float mean, float inv, double[] dGamma, int dgOff, double[] dBeta, int dbOff,
+                                double[] stats) {
+        int bound = W.loopBound(n), half = S.length();
+        DoubleVector sumD = DoubleVector.zero(S), sumDX = DoubleVector.zero(S);
+        int j = 0;
+        for (; j < bound; j += W.length()) {
+            FloatVector xhat = FloatVector.fromArray(W, x, xi + j).sub(mean).mul(inv);
+            FloatVector g = FloatVector.fromArray(W, d, di + j);
+            FloatVector dxhat = g.mul(FloatVector.fromArray(W, gamma, gOff + j));
+            for (int part = 0; part < 2; part++) {
+                DoubleVector xh = widen(xhat, part), gd = widen(g, part), dxh = widen(dxhat, part);
+                int k = j + part * half;
+                sumD = sumD.add(dxh);
+                sumDX = dxh.fma(xh, sumDX);
+                gd.fma(xh, DoubleVector.fromArray(S, dGamma, dgOff + k)).intoArray(dGamma, dgOff + k);
+                gd.add(DoubleVector.fromArray(S, dBeta, dbOff + k)).intoArray(dBeta, dbOff + k);
+            }
+        }
+        double sd = sumD.reduceLanes(VectorOperators.ADD);
+        double sdx = sumDX.reduceLanes(VectorOperators.ADD);
+        for (; j < n; j++) {
+            float xhat = (x[xi + j] - mean) * inv;
+            float g = d[di + j];
+            float dxhat = g * gamma[gOff + j];
+            sd += dxhat;
+            sdx += (double) dxhat * xhat;
+            dGamma[dgOff + j] += (double) g * xhat;
+            dBeta[dbOff + j] += g;
+        }
+        stats[0] = sd;
+        stats[1] = sdx;
+    }
+
+    // Mean and 1 / sqrt(var + eps) of a float row into stats, summed in double as in the double kernel
+    private static void rowStats(float[] x, int xi, int n, double eps, double[] stats) {
+        int bound = W.loopBound(n);
+        double shift = x[xi];
+        DoubleVector acc1 = DoubleVector.zero(S), acc2 = DoubleVector.zero(S);
+        int j = 0;
+        for (; j < bound; j += W.length()) {
+            FloatVector v = FloatVector.fromArray(W, x, xi + j);
+            for (int part = 0; part < 2; part++) {
+                DoubleVector dv = widen(v, part).sub(shift);
+                acc1 = acc1.add(dv);
+                acc2 = dv.fma(dv, acc2);
+            }
+        }
+        double s1 = acc1.reduceLanes(VectorOperators.ADD);
+        double s2 = acc2.reduceLanes(VectorOperators.ADD);
+        for (; j < n; j++) {
+            double dd = x[xi + j] - shift;
+            s1 += dd;
+            s2 += dd * dd;
+        }
+        double m1 = s1 / n;
+        double var = Math.max(0.0, s2 / n - m1 * m1);
+        stats[0] = shift + m1;
+        stats[1] = 1.0 / Math.sqrt(var + eps);
+    }
+
+    @Override
+    public void softmax(Matrix X, Matrix out) {
+        X.checkSameShape(out);
+        int n = X.getCols(), bound = S.loopBound(n);
+        double[] x = X.getData(), o = out.getData();
+        for (int i = 0; i < X.getRows(); i++) {
+            int xi = X.index(i, 0), oi = out.index(i, 0);
+            double max = Double.NEGATIVE_INFINITY;
+            int j = 0;
+            for (; j < bound; j += S.length()) {
+                max = Math.max(max, DoubleVector.fromArray(S, x, xi + j).reduceLanes(VectorOperators.MAX));
+            }
+            for (; j < n; j++) max = Math.max(max, x[xi + j]);
+
+            double sum = 0.0;
+            j = 0;
+            for (; j < bound; j += S.length()) {
+                DoubleVector e = DoubleVector.fromArray(S, x, xi + j).sub(max).lanewise(VectorOperators.EXP);
+                e.intoArray(o, oi + j);
+                sum += e.reduceLanes(VectorOperators.ADD);
+            }
+            for (; j < n; j++) {
+                o[oi + j] = Math.exp(x[xi + j] - max);
+                sum += o[oi + j];
+            }
+
+            j = 0;
+            for (; j < bound; j += S.length()) {
+                DoubleVector.fromArray(S, o, oi + j).div(sum).intoArray(o, oi + j);
+            }
+            for (; j < n; j++) o[oi + j] /= sum;
+        }
+    }
+
+    @Override
+    public void adamUpdate(double[] w, double[] g, double[] m, double[] v, int from, int to,
+                           double gradScale, double clip, double lr, double beta1, double beta2,
+                           double biasCorr1, double biasCorr2, double eps) {
+        int bound = from + S.loopBound(to - from);
+        double c1 = 1 - beta1, c2 = 1 - beta2;
+        int k = from;
+        for (; k < bound; k += S.length()) {
+            // Same operation order as the scalar kernel, so results match exactly
+            DoubleVector gv = DoubleVector.fromArray(S, g, k).mul(gradScale).max(-clip).min(clip);
+            DoubleVector mv = DoubleVector.fromArray(S, m, k).mul(beta1).add(gv.mul(c1));
+            DoubleVector vv = DoubleVector.fromArray(S, v, k).mul(beta2).add(gv.mul(c2).mul(gv));
+            mv.intoArray(m, k);
+            vv.intoArray(v, k);
+            DoubleVector step = mv.div(biasCorr1).mul(lr).div(vv.div(biasCorr2).sqrt().add(eps));
+            DoubleVector.fromArray(S, w, k).sub(step).intoArray(w, k);
+        }
+        for (; k < to; k++) {
+            double grad = Math.min(clip, Math.max(-clip, g[k] * gradScale));
+            m[k] = beta1 * m[k] + c1 * grad;
+            v[k] = beta2 * v[k] + c2 * grad * grad;
+            double mHat = m[k] / biasCorr1;
+            double vHat = v[k] / biasCorr2;
+            w[k] -= lr * mHat / (Math.sqrt(vHat) + eps);
+        }
+    }
+
+    @Override
+    public void adamUpdate(double[] w, double[] g, float[] m, float[] v, int from, int to,
+                           double gradScale, double clip, double lr, double beta1, double beta2,
+                           double biasCorr1, double biasCorr2, double eps) {
+        int bound = from + S.loopBound(to - from);
+        double c1 = 1 - beta1, c2 = 1 - beta2;
+        int k = from;
+        for (; k < bound; k += S.length()) {
+            // Moments are loaded at half width and widened, so one float vector feeds one double vector
+            DoubleVector gv = DoubleVector.fromArray(S, g, k).mul(gradScale).max(-clip).min(clip);
+            DoubleVector mv = widen(m, k).mul(beta1).add(gv.mul(c1));
+            DoubleVector vv = widen(v, k).mul(beta2).add(gv.mul(c2).mul(gv));
+            narrow(mv).intoArray(m, k);
+            narrow(vv).intoArray(v, k);
+            DoubleVector step = mv.div(biasCorr1).mul(lr).div(vv.div(biasCorr2).sqrt().add(eps));
+            DoubleVector wv = DoubleVector.fromArray(S, w, k).sub(step);
+            ((DoubleVector) narrow(wv).convertShape(VectorOperators.F2D, S, 0)).intoArray(w, k);
+        }
+        for (; k < to; k++) {
+            double grad = Math.min(clip, Math.max(-clip, g[k] * gradScale));
+            double mk = beta1 * m[k] + c1 * grad;
+            double vk = beta2 * v[k] + c2 * grad * grad;
+            m[k] = (float) mk;
+            v[k] = (float) vk;
+            w[k] = (float) (w[k] - lr * (mk / biasCorr1) / (Math.sqrt(vk / biasCorr2) + eps));
+        }
+    }
+
+    private static DoubleVector widen(float[] a, int k) {
+        return (DoubleVector) FloatVector.fromArray(F, a, k).convertShape(VectorOperators.F2D, S, 0);
+    }
+
+    // Half part (0 or 1) of a full-width float vector, in double
+    private static DoubleVector widen(FloatVector v, int part) {
+        return (DoubleVector) v.convertShape(VectorOperators.F2D, S, part);
+    }
+
+    private static FloatVector narrow(DoubleVector x) {
+        return (FloatVector) x.convertShape(VectorOperators.D2F, F, 0);
+    }
+}
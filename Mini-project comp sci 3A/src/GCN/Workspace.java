@@ -0,0 +1,105 @@
+package GCN;
+
+import WGraph.FloatMatrix;
+import WGraph.Matrix;
+
+/**
+ * Scratch buffers for one forward and backward pass, reused from step to
+ * step so that training does not allocate per graph. Each {@link Buffer}
+ * owns one backing array that grows to the largest graph seen and is then
+ * kept. A matrix handed out for a buffer stays valid until the same buffer
+ * is requested again, so a workspace must only be used by one thread at a
+ * time. Models computing in FLOAT take their activations from a separate
+ * float array per role.
+ */
+public class Workspace {
+
+    /** Roles of the buffers, one backing array each */
+    enum Buffer {
+        // Forward pass, [nodes x features]; X and AX only hold inputs that are not stored at the model's precision
+        X, AX, PRE1, Z1, H1, AH1, PRE2, Z2, H2,
+        // Forward pass, per graph (one row per graph when batched)
+        COMBINED, LOGITS, BATCH_COMBINED, BATCH_PROBS,
+        // Backward pass
+        D_OUT, D_COMBINED, BATCH_D_OUT, BATCH_D_COMBINED,
+        D_H2, D_Z2, D_H1_PRE, D_H1, D_Z1,
+        // Graph context times the layer-1 context weights, and its gradient; one row per graph
+        CONTEXT_PROJ, D_CONTEXT_PROJ,
+        // The parameters rounded to float, for models computing in FLOAT
+        PARAMETERS
+    }
+
+    private static final Buffer[] BUFFERS = Buffer.values();
+
+    private final double[][] data = new double[BUFFERS.length][0];
+    private final Matrix[] views = new Matrix[BUFFERS.length];
+    private final float[][] floatData = new float[BUFFERS.length][0];
+    private final FloatMatrix[] floatViews = new FloatMatrix[BUFFERS.length];
+    private int[] maxIndices = new int[0];
+    final ForwardPass pass = new ForwardPass();
+    final BatchForwardPass batchPass = new BatchForwardPass();
+
+    /**
+     * Returns a [rows x cols] matrix backed by the buffer. Its contents are
+     * whatever the previous use left there.
+     */
+    Matrix matrix(Buffer buffer, int rows, int cols) {
+        int b = buffer.ordinal();
+        Matrix view = views[b];
+        if (view != null && view.getRows() == rows && view.getCols() == cols) return view;
+        if (data[b].length < rows * cols) {
+            // Grow with headroom so a slightly larger graph does not reallocate again
+            data[b] = new double[Math.max(rows * cols, data[b].length + data[b].length / 2)];
+        }
+        view = new Matrix(rows, cols, data[b]);
+        views[b] = view;
+        return view;
+    }
+
+    /**
+     * Returns the buffer as an array of exactly the given length. Meant for
+     * the per-graph vectors, whose length is fixed by the model dimensions.
+     */
+    double[] vector(Buffer buffer, int length) {
+        int b = buffer.ordinal();
+        if (data[b].length != length || views[b] == null) {
+            data[b] = new double[length];
+            views[b] = new Matrix(1, length, data[b]);
+        }
+        return data[b];
+    }
+
+    /** The vector buffer as a [1 x length] matrix */
+    Matrix rowMatrix(Buffer buffer, int length) {
+        vector(buffer, length);
+        return views[buffer.ordinal()];
+    }
+
+    /** Single-precision form of {@link #matrix}, backed by the buffer's float array */
+    FloatMatrix floatMatrix(Buffer buffer, int rows, int cols) {
+        int b = buffer.ordinal();
+        FloatMatrix view = floatViews[b];
+        if (view != null && view.getRows() == rows && view.getCols() == cols) return view;
+        if (floatData[b].length < rows * cols) {
+            floatData[b] = new float[Math.max(rows * cols, floatData[b].length + floatData[b].length / 2)];
+        }
+        view = new FloatMatrix(rows, cols, floatData[b]);
+        floatViews[b] = view;
+        return view;
+    }
+
+    /** Single-precision form of {@link #vector} */
+    float[] floatVector(Buffer buffer, int length) {
+        int b = buffer.ordinal();
+        if (floatData[b].length != length || floatViews[b] == null) {
+            floatData[b] = new float[length];
+            floatViews[b] = new FloatMatrix(1, length, floatData[b]);
+        }
+        return floatData[b];
+    }
+
+    int[] maxIndices(int length) {
+        if (maxIndices.length != length) maxIndices = new int[length];
+        return maxIndices;
+    }
+}
@@ -0,0 +1,150 @@
+package WGraph;
+
+import java.util.Arrays;
+
+/**
+ * Single-precision counterpart of {@link Matrix}, used for the activations
+ * of a model computing in {@link Precision#FLOAT}: row-major over one
+ * float array, element (r, c) at data[offset + r * stride + c], with views
+ * that share the backing array.
+ */
+public class FloatMatrix {
+    private final float[] data;
+    private final int offset;
+    private final int rows;
+    private final int cols;
+    private final int stride;
+
+    /**
+     * Creates a zero-filled [rows x cols] matrix.
+     */
+    public FloatMatrix(int rows, int cols) {
+        this(new float[rows * cols], 0, rows, cols, cols);
+    }
+
+    /**
+     * Wraps an existing row-major array of at least rows * cols elements.
+     */
+    public FloatMatrix(int rows, int cols, float[] data) {
+        this(data, 0, rows, cols, cols);
+    }
+
+    public FloatMatrix(float[] data, int offset, int rows, int cols, int stride) {
+        if (rows < 0 || cols < 0)
+            throw new IllegalArgumentException("Negative shape [" + rows + " x " + cols + "]");
+        if (stride < cols)
+            throw new IllegalArgumentException("Stride " + stride + " is smaller than cols " + cols);
+        if (rows > 0 && cols > 0 && offset + (rows - 1) * stride + cols > data.length)
+            throw new IllegalArgumentException("Backing array too small for [" + rows + " x " + cols + "]");
+        this.data = data;
+        this.offset = offset;
+        this.rows = rows;
+        this.cols = cols;
+        this.stride = stride;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the backing array. Use {@link #index(int, int)} to address it.
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    public int index(int r, int c) {
+        return offset + r * stride + c;
+    }
+
+    public float get(int r, int c) {
+        return data[offset + r * stride + c];
+    }
+
+    public void set(int r, int c, float value) {
+        data[offset + r * stride + c] = value;
+    }
+
+    public void add(int r, int c, float value) {
+        data[offset + r * stride + c] += value;
+    }
+
+    /**
+     * True when the rows are packed back to back with no gap.
+     */
+    public boolean isContiguous() {
+        return stride == cols || rows <= 1;
+    }
+
+    /**
+     * Returns a view of the block starting at (rowStart, colStart).
+     */
+    public FloatMatrix view(int rowStart, int rowCount, int colStart, int colCount) {
+        if (rowStart < 0 || colStart < 0 || rowStart + rowCount > rows || colStart + colCount > cols)
+            throw new IndexOutOfBoundsException("View [" + rowStart + "+" + rowCount + ", " + colStart + "+"
+                + colCount + "] outside [" + rows + " x " + cols + "]");
+        return new FloatMatrix(data, offset + rowStart * stride + colStart, rowCount, colCount, stride);
+    }
+
+    /**
+     * Returns a view of rowCount consecutive rows starting at rowStart.
+     */
+    public FloatMatrix rowView(int rowStart, int rowCount) {
+        return view(rowStart, rowCount, 0, cols);
+    }
+
+    public void copyFrom(FloatMatrix other) {
+        checkSameShape(other.rows, other.cols);
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(other.data, other.offset + i * other.stride, data, offset + i * stride, cols);
+        }
+    }
+
+    /** Copies a double matrix of the same shape, rounding every element to float */
+    public void copyFrom(Matrix other) {
+        checkSameShape(other.getRows(), other.getCols());
+        double[] src = other.getData();
+        for (int i = 0; i < rows; i++) {
+            int si = other.index(i, 0), di = offset + i * stride;
+            for (int j = 0; j < cols; j++) data[di + j] = (float) src[si + j];
+        }
+    }
+
+    public void fill(float value) {
+        if (isContiguous()) {
+            Arrays.fill(data, offset, offset + rows * cols, value);
+            return;
+        }
+        for (int i = 0; i < rows; i++) {
+            Arrays.fill(data, offset + i * stride, offset + i * stride + cols, value);
+        }
+    }
+
+    public void checkSameShape(FloatMatrix other) {
+        checkSameShape(other.rows, other.cols);
+    }
+
+    private void checkSameShape(int otherRows, int otherCols) {
+        if (rows != otherRows || cols != otherCols)
+            throw new IllegalArgumentException("Shape mismatch: [" + rows + " x " + cols + "] vs ["
+                + otherRows + " x " + otherCols + "]");
+    }
+
+    @Override
+    public String toString() {
+        return "FloatMatrix[" + rows + " x " + cols + "]";
+    }
+}
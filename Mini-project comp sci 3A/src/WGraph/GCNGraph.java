@@ -1,122 +1,476 @@
 package WGraph;
 
 import java.io.Serializable;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * A GCNGraph that leverages the generic Graph<T> implementation internally.
+ * A GCNGraph stored as flat arrays: node features are packed row-major in a
+ * single array (double or, with {@link Precision#FLOAT}, float), undirected
+ * edges live once in parallel int arrays and the label is kept once for the
+ * whole graph. Features shared by the whole graph can be kept once as a
+ * context vector: node i then has the logical feature row
+ * [features_i | contextScale_i * context].
  */
 public class GCNGraph implements Serializable {
-    private static final long serialVersionUID = 1L;
-    
-    // Node data type holding features and label
-    public static class NodeData implements Comparable<NodeData>, Serializable {
-        /**
-		 * 
-		 */
-		private static final long serialVersionUID = 1L;
-		private double[] features;
-        private double[] label;  // one-hot
+    private static final long serialVersionUID = 2L;
 
-        public NodeData(double[] features, double[] label) {
-            if (label == null) throw new IllegalArgumentException("Label cannot be null");
-            this.features = features;
-            this.label = label;
-        }
+    private final int numClasses;
 
-        public double[] getFeatures() { return features; }
-        public double[] getLabel()    { return label; }
-        public void setLabel(double[] newLabel) {
-            if (newLabel.length != label.length)
-                throw new IllegalArgumentException("Label length mismatch");
-            this.label = newLabel;
-        }
+    // Packed node features, row i at [i * featureDim, (i + 1) * featureDim).
+    // Exactly one of the two arrays is in use, depending on the precision
+    private double[] features = new double[0];
+    private float[] floatFeatures;
+    private Precision precision;  // null in files saved before it existed, meaning DOUBLE
+    private int featureDim = -1;    // width of the per-node part
+    private int nodeCount = 0;
 
-        @Override
-        public int compareTo(NodeData o) {
-            // Compare by label length then feature length
-            int cmp = Integer.compare(this.label.length, o.label.length);
-            if (cmp != 0) return cmp;
-            return Integer.compare(this.features.length, o.features.length);
-        }
+    // Graph-level context and the per-node scale it is applied with.
+    // Both are null in files saved before they existed, meaning no context
+    private double[] context;
+    private double[] contextScale = new double[0];
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) return true;
-            if (!(obj instanceof NodeData)) return false;
-            NodeData other = (NodeData) obj;
-            return java.util.Arrays.equals(features, other.features)
-                && java.util.Arrays.equals(label, other.label);
-        }
+    // Undirected edges, each stored once as (edgeFrom[e], edgeTo[e])
+    private int[] edgeFrom = new int[0];
+    private int[] edgeTo = new int[0];
+    private int[] edgeWeight = new int[0];
+    private int edgeCount = 0;
 
-        @Override
-        public int hashCode() {
-            int result = java.util.Arrays.hashCode(features);
-            result = 31 * result + java.util.Arrays.hashCode(label);
-            return result;
-        }
+    // Graph-level one-hot label shared by every node
+    private double[] label;
 
-        @Override
-        public String toString() {
-            return "NodeData[label=" + java.util.Arrays.toString(label) + "]";
-        }
-    }
+    // First-layer propagation Â^hops · X, packed like features. Kept across
+    // serialization so a saved dataset does not have to recompute it
+    private double[] propagated;
+    private float[] floatPropagated;
+    private double[] propagatedScale;  // Â^hops · contextScale
+    private int propagatedHops;
 
-    private Graph<NodeData> graph;
-    private final int numClasses;
+    // Derived matrices, built on first use and dropped whenever nodes or edges change
+    private transient SparseMatrix cachedAdjSparse;
+    private transient double[][] cachedAdjDense;
+    private transient double[][] cachedFeatures;
 
     public GCNGraph(int numClasses) {
-        this.graph = new Graph<>(Graph.getUndirected());
         this.numClasses = numClasses;
     }
 
     /**
-     * Add a node with features and one-hot label.
+     * Builds a DOUBLE graph directly over packed arrays, which it keeps
+     * without copying: features row-major [n x nodeFeatureDim], one context
+     * scale per node (n is its length) and the undirected edges as parallel
+     * arrays. For readers of columnar files, which would otherwise add
+     * every node and edge one at a time. context may be null.
+     */
+    public static GCNGraph packed(double[] label, double[] context, double[] features, int nodeFeatureDim,
+                                  double[] contextScale, int[] edgeFrom, int[] edgeTo, int[] edgeWeight) {
+        GCNGraph graph = new GCNGraph(label.length);
+        graph.features = features;
+        graph.precision = Precision.DOUBLE;
+        graph.adopt(label, context, features.length, nodeFeatureDim, contextScale, edgeFrom, edgeTo, edgeWeight);
+        return graph;
+    }
+
+    /** Same as the double version, for a FLOAT graph */
+    public static GCNGraph packed(double[] label, double[] context, float[] features, int nodeFeatureDim,
+                                  double[] contextScale, int[] edgeFrom, int[] edgeTo, int[] edgeWeight) {
+        GCNGraph graph = new GCNGraph(label.length);
+        graph.features = null;
+        graph.floatFeatures = features;
+        graph.precision = Precision.FLOAT;
+        graph.adopt(label, context, features.length, nodeFeatureDim, contextScale, edgeFrom, edgeTo, edgeWeight);
+        return graph;
+    }
+
+    private void adopt(double[] label, double[] context, int featureLength, int nodeFeatureDim,
+                       double[] contextScale, int[] edgeFrom, int[] edgeTo, int[] edgeWeight) {
+        int n = contextScale.length;
+        if (featureLength != n * nodeFeatureDim)
+            throw new IllegalArgumentException("Expected " + n * nodeFeatureDim + " features, got " + featureLength);
+        if (edgeTo.length != edgeFrom.length || edgeWeight.length != edgeFrom.length)
+            throw new IllegalArgumentException("Edge arrays differ in length");
+        for (int e = 0; e < edgeFrom.length; e++) {
+            if (edgeFrom[e] < 0 || edgeTo[e] < 0 || edgeFrom[e] >= n || edgeTo[e] >= n)
+                throw new IllegalArgumentException("Invalid edge indices");
+        }
+        this.label = label;
+        this.context = context;
+        this.featureDim = nodeFeatureDim;
+        this.nodeCount = n;
+        this.contextScale = contextScale;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.edgeWeight = edgeWeight;
+        this.edgeCount = edgeFrom.length;
+    }
+
+    /**
+     * Add a node with features and one-hot label. Labels are graph-level, so
+     * the label given here replaces the one shared by all nodes. The node
+     * sees the graph context, if any, at full scale.
      */
     public void addNode(double[] features, double[] label) {
+        addNode(features, label, 1.0);
+    }
+
+    /**
+     * Add a node whose logical feature row is features followed by the
+     * graph context times contextScale (0 leaves the context columns zero).
+     */
+    public void addNode(double[] features, double[] label, double contextScale) {
+        if (label == null) throw new IllegalArgumentException("Label cannot be null");
         if (label.length != numClasses)
             throw new IllegalArgumentException(
                 "Expected label length=" + numClasses + ", got " + label.length
             );
-        NodeData data = new NodeData(features, label);
-        graph.getNodes().add(new Graph.GraphNode<>(data));
+        if (featureDim == -1) {
+            featureDim = features.length;
+        } else if (features.length != featureDim) {
+            throw new IllegalArgumentException(
+                "Expected feature length=" + featureDim + ", got " + features.length
+            );
+        }
+        if (getPrecision() == Precision.FLOAT) {
+            if ((nodeCount + 1) * featureDim > floatFeatures.length) {
+                floatFeatures = Arrays.copyOf(floatFeatures, Math.max(featureDim, floatFeatures.length * 2));
+            }
+            for (int j = 0; j < featureDim; j++) floatFeatures[nodeCount * featureDim + j] = (float) features[j];
+        } else {
+            if ((nodeCount + 1) * featureDim > this.features.length) {
+                this.features = Arrays.copyOf(this.features, Math.max(featureDim, this.features.length * 2));
+            }
+            System.arraycopy(features, 0, this.features, nodeCount * featureDim, featureDim);
+        }
+        if (this.contextScale == null) this.contextScale = new double[nodeCount];
+        if (nodeCount == this.contextScale.length) {
+            this.contextScale = Arrays.copyOf(this.contextScale, Math.max(16, nodeCount * 2));
+        }
+        this.contextScale[nodeCount] = contextScale;
+        this.label = label.clone();
+        nodeCount++;
+        invalidateCache();
     }
 
     /**
      * Add undirected edge between node indices i and j.
      */
     public void addEdge(int i, int j, int weight) {
-        List<Graph.GraphNode<NodeData>> nodes = graph.getNodes();
-        if (i < 0 || j < 0 || i >= nodes.size() || j >= nodes.size())
+        if (i < 0 || j < 0 || i >= nodeCount || j >= nodeCount)
             throw new IllegalArgumentException("Invalid edge indices");
-        Graph.GraphNode<NodeData> ni = nodes.get(i);
-        Graph.GraphNode<NodeData> nj = nodes.get(j);
-        Graph.GraphLink<NodeData> link = new Graph.GraphLink<>(weight, ni, nj);
-        ni.addLink(link);
-        if (graph.getGraphType() == Graph.getUndirected()) {
-            Graph.GraphLink<NodeData> reciprocal = new Graph.GraphLink<>(weight, nj, ni);
-            nj.addLink(reciprocal);
-            graph.getLinks().add(reciprocal);
+        if (edgeCount == edgeFrom.length) {
+            int capacity = Math.max(16, edgeCount * 2);
+            edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+            edgeTo = Arrays.copyOf(edgeTo, capacity);
+            edgeWeight = Arrays.copyOf(edgeWeight, capacity);
+        }
+        edgeFrom[edgeCount] = i;
+        edgeTo[edgeCount] = j;
+        edgeWeight[edgeCount] = weight;
+        edgeCount++;
+        invalidateCache();
+    }
+
+    private void invalidateCache() {
+        cachedAdjSparse = null;
+        cachedAdjDense = null;
+        cachedFeatures = null;
+        propagated = null;
+        floatPropagated = null;
+        propagatedScale = null;
+    }
+
+    /**
+     * Sets the graph-level context vector, which every node sees scaled by
+     * its contextScale after its own features.
+     */
+    public void setContext(double[] context) {
+        this.context = context.clone();
+        cachedFeatures = null;
+    }
+
+    public int getContextDim() {
+        return context == null ? 0 : context.length;
+    }
+
+    /** The context as a [1 x contextDim] matrix; must not be modified */
+    public Matrix getContext() {
+        return context == null ? new Matrix(1, 0) : new Matrix(context, 0, 1, context.length, context.length);
+    }
+
+    public Precision getPrecision() {
+        return precision == null ? Precision.DOUBLE : precision;
+    }
+
+    /**
+     * Converts the stored features and the cached propagation to the given
+     * precision. Narrowing to FLOAT halves their memory and serialized
+     * size. The Matrix accessors below widen FLOAT storage; the FloatMatrix
+     * ones hand it out as it is, for models computing in FLOAT.
+     */
+    public void setPrecision(Precision newPrecision) {
+        if (newPrecision == getPrecision()) return;
+        int size = nodeCount * Math.max(featureDim, 0);
+        if (newPrecision == Precision.FLOAT) {
+            floatFeatures = toFloat(features, size);
+            features = null;
+            if (propagated != null) floatPropagated = toFloat(propagated, size);
+            propagated = null;
+        } else {
+            features = toDouble(floatFeatures, size);
+            floatFeatures = null;
+            if (floatPropagated != null) propagated = toDouble(floatPropagated, size);
+            floatPropagated = null;
+        }
+        precision = newPrecision;
+    }
+
+    private static float[] toFloat(double[] a, int size) {
+        float[] f = new float[size];
+        for (int k = 0; k < size; k++) f[k] = (float) a[k];
+        return f;
+    }
+
+    private static double[] toDouble(float[] a, int size) {
+        double[] d = new double[size];
+        for (int k = 0; k < size; k++) d[k] = a[k];
+        return d;
+    }
+
+    // Widens packed float rows into an [n x d] matrix
+    private static Matrix widen(float[] a, Matrix out) {
+        int d = out.getCols();
+        for (int i = 0; i < out.getRows(); i++)
+            for (int j = 0; j < d; j++)
+                out.set(i, j, a[i * d + j]);
+        return out;
+    }
+
+    // Narrows packed double rows into an [n x d] float matrix
+    private static FloatMatrix narrow(double[] a, FloatMatrix out) {
+        int d = out.getCols();
+        for (int i = 0; i < out.getRows(); i++)
+            for (int j = 0; j < d; j++)
+                out.set(i, j, (float) a[i * d + j]);
+        return out;
+    }
+
+    /**
+     * Releases the spare capacity left over from growing the packed arrays.
+     */
+    public void trimToSize() {
+        if (getPrecision() == Precision.FLOAT) {
+            floatFeatures = Arrays.copyOf(floatFeatures, nodeCount * Math.max(featureDim, 0));
+        } else {
+            features = Arrays.copyOf(features, nodeCount * Math.max(featureDim, 0));
         }
-        graph.getLinks().add(link);
+        if (contextScale != null) contextScale = Arrays.copyOf(contextScale, nodeCount);
+        edgeFrom = Arrays.copyOf(edgeFrom, edgeCount);
+        edgeTo = Arrays.copyOf(edgeTo, edgeCount);
+        edgeWeight = Arrays.copyOf(edgeWeight, edgeCount);
     }
 
     public int getNodeCount() {
-        return graph.getNodes().size();
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /** First node of edge e, in the order the edges were added */
+    public int getEdgeSource(int e) {
+        return edgeFrom[e];
+    }
+
+    /** Second node of edge e */
+    public int getEdgeTarget(int e) {
+        return edgeTo[e];
+    }
+
+    public int getEdgeWeight(int e) {
+        return edgeWeight[e];
+    }
+
+    /** Factor by which node i sees the graph context */
+    public double getContextScale(int i) {
+        return contextScale == null ? 1.0 : contextScale[i];
+    }
+
+    /** Width of the logical feature rows: node features plus context */
+    public int getFeatureDim() {
+        return getNodeFeatureDim() + getContextDim();
+    }
+
+    /** Width of the per-node part of the features */
+    public int getNodeFeatureDim() {
+        return Math.max(featureDim, 0);
     }
 
     /**
-     * Returns feature matrix F of shape [n x d].
+     * Returns feature matrix F of shape [n x d]. The matrix is built once and
+     * shared between calls, so callers must not modify it.
      */
     public double[][] getFeatureMatrix() {
         int n = getNodeCount();
         if (n == 0) return new double[0][0];
-        int d = graph.getNodes().get(0).getData().getFeatures().length;
-        double[][] F = new double[n][d];
+        if (cachedFeatures == null) {
+            cachedFeatures = getFeatures().toArray();
+        }
+        return cachedFeatures;
+    }
+
+    /**
+     * Returns the logical [n x d] features, node features followed by the
+     * scaled context. Without a context and with DOUBLE storage this is a
+     * view over the packed storage that must not be modified and is valid
+     * until the next addNode; otherwise the rows are built in a new matrix.
+     */
+    public Matrix getFeatures() {
+        return getFeatures(null);
+    }
+
+    /**
+     * Same as {@link #getFeatures()}, but rows that have to be built are
+     * written to scratch (an [n x d] matrix) when it is given, so the caller
+     * can reuse one buffer. Returns either a view of the graph or scratch.
+     */
+    public Matrix getFeatures(Matrix scratch) {
+        int n = getNodeCount(), nd = getNodeFeatureDim(), cd = getContextDim();
+        if (cd == 0) return getNodeFeatures(scratch);
+        Matrix out = scratch != null ? scratch : new Matrix(n, nd + cd);
+        Matrix nodes = out.view(0, n, 0, nd);
+        Matrix X = getNodeFeatures(nodes);
+        if (X != nodes) nodes.copyFrom(X);
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < cd; j++)
+                out.set(i, nd + j, contextScale[i] * context[j]);
+        return out;
+    }
+
+    /**
+     * Returns the per-node part of the features, [n x nodeFeatureDim]: a
+     * view over DOUBLE storage, or FLOAT storage widened into scratch (or a
+     * new matrix when scratch is null).
+     */
+    public Matrix getNodeFeatures(Matrix scratch) {
+        int d = getNodeFeatureDim();
+        if (getPrecision() == Precision.DOUBLE) return new Matrix(features, 0, nodeCount, d, d);
+        return widen(floatFeatures, scratch != null ? scratch : new Matrix(nodeCount, d));
+    }
+
+    /**
+     * Single-precision form of {@link #getFeatures(Matrix)}: a view over
+     * FLOAT storage when there is no context, otherwise the rows built in
+     * scratch (an [n x d] matrix, or a new one when null).
+     */
+    public FloatMatrix getFloatFeatures(FloatMatrix scratch) {
+        int n = getNodeCount(), nd = getNodeFeatureDim(), cd = getContextDim();
+        boolean single = getPrecision() == Precision.FLOAT;
+        if (cd == 0 && single) return new FloatMatrix(floatFeatures, 0, n, nd, nd);
+        FloatMatrix out = scratch != null ? scratch : new FloatMatrix(n, nd + cd);
         for (int i = 0; i < n; i++) {
-            F[i] = graph.getNodes().get(i).getData().getFeatures();
+            for (int j = 0; j < nd; j++)
+                out.set(i, j, single ? floatFeatures[i * nd + j] : (float) features[i * nd + j]);
+            for (int j = 0; j < cd; j++)
+                out.set(i, nd + j, (float) (contextScale[i] * context[j]));
+        }
+        return out;
+    }
+
+    /**
+     * Returns Â^hops · N, the per-node features propagated over the
+     * normalized adjacency hops times. Since A and N never change once the
+     * graph is built, the first layer of a GCN can start from this product
+     * instead of recomputing it every epoch. The context columns propagate
+     * as Â^hops · contextScale times the context, see
+     * {@link #getPropagatedContextScale}. The result for the most recent
+     * hops is stored with the graph, so callers must not modify it. FLOAT
+     * storage is widened into scratch when it is given; models computing in
+     * FLOAT read it through {@link #getPropagatedFloatFeatures} instead.
+     */
+    public Matrix getPropagatedNodeFeatures(int hops, Matrix scratch) {
+        int n = getNodeCount(), d = getNodeFeatureDim();
+        propagate(hops);
+        if (getPrecision() == Precision.DOUBLE) return new Matrix(propagated, 0, n, d, d);
+        return widen(floatPropagated, scratch != null ? scratch : new Matrix(n, d));
+    }
+
+    /**
+     * Single-precision form of {@link #getPropagatedNodeFeatures}: a view of
+     * the stored propagation for FLOAT storage, which callers must not
+     * modify, or DOUBLE storage rounded into scratch (or a new matrix).
+     */
+    public FloatMatrix getPropagatedFloatFeatures(int hops, FloatMatrix scratch) {
+        int n = getNodeCount(), d = getNodeFeatureDim();
+        propagate(hops);
+        if (getPrecision() == Precision.FLOAT) return new FloatMatrix(floatPropagated, 0, n, d, d);
+        return narrow(propagated, scratch != null ? scratch : new FloatMatrix(n, d));
+    }
+
+    /**
+     * Returns Â^hops · contextScale, one entry per node: the factor by which
+     * node i's propagated row sees the graph context. Stored like
+     * {@link #getPropagatedNodeFeatures}; callers must not modify it.
+     */
+    public double[] getPropagatedContextScale(int hops) {
+        propagate(hops);
+        return propagatedScale;
+    }
+
+    /** Hops of the stored propagation, or 0 if none is stored */
+    public int getPropagationHops() {
+        boolean stored = getPrecision() == Precision.FLOAT ? floatPropagated != null : propagated != null;
+        return stored && propagatedScale != null ? propagatedHops : 0;
+    }
+
+    /**
+     * Stores a propagation computed earlier, Â^hops · N packed like the
+     * features and Â^hops · contextScale, without copying either, so the
+     * graph does not recompute it. For a DOUBLE graph.
+     */
+    public void setPropagation(int hops, double[] propagated, double[] propagatedScale) {
+        if (getPrecision() != Precision.DOUBLE) throw new IllegalStateException("Graph is not DOUBLE");
+        checkPropagation(hops, propagated.length, propagatedScale);
+        this.propagated = propagated;
+        this.propagatedScale = propagatedScale;
+        this.propagatedHops = hops;
+    }
+
+    /** Same as the double version, for a FLOAT graph */
+    public void setPropagation(int hops, float[] propagated, double[] propagatedScale) {
+        if (getPrecision() != Precision.FLOAT) throw new IllegalStateException("Graph is not FLOAT");
+        checkPropagation(hops, propagated.length, propagatedScale);
+        this.floatPropagated = propagated;
+        this.propagatedScale = propagatedScale;
+        this.propagatedHops = hops;
+    }
+
+    private void checkPropagation(int hops, int length, double[] scale) {
+        if (hops < 1) throw new IllegalArgumentException("hops must be at least 1");
+        if (length != nodeCount * getNodeFeatureDim() || scale.length != nodeCount)
+            throw new IllegalArgumentException("Propagation does not match the graph's shape");
+    }
+
+    // Computes and stores the propagation for hops unless it is already there
+    private void propagate(int hops) {
+        if (hops < 1) throw new IllegalArgumentException("hops must be at least 1");
+        int n = getNodeCount(), d = getNodeFeatureDim();
+        boolean single = getPrecision() == Precision.FLOAT;
+        if ((single ? floatPropagated == null : propagated == null) || propagatedScale == null
+                || propagatedHops != hops) {
+            // Propagate in double, then store at the graph's precision
+            SparseMatrix A = getNormalizedAdjSparse();
+            Matrix P = getNodeFeatures(null);
+            Matrix S = new Matrix(n, 1);
+            for (int i = 0; contextScale != null && i < n; i++) S.set(i, 0, contextScale[i]);
+            for (int h = 0; h < hops; h++) {
+                P = A.multiply(P);
+                S = A.multiply(S);
+            }
+            if (single) floatPropagated = toFloat(P.getData(), n * d);
+            else propagated = P.getData();
+            propagatedScale = S.getData();
+            propagatedHops = hops;
         }
-        return F;
     }
 
     /**
@@ -124,66 +478,125 @@ public class GCNGraph implements Serializable {
      */
     public double[][] getLabelMatrix() {
         int n = getNodeCount();
-        double[][] L = new double[n][numClasses];
+        double[][] L = new double[n][];
         for (int i = 0; i < n; i++) {
-            L[i] = graph.getNodes().get(i).getData().getLabel();
+            L[i] = label.clone();
         }
         return L;
     }
 
     /**
-     * Set the one-hot label for a specific node.
+     * Set the one-hot label for a specific node. Since labels are stored once
+     * per graph, this sets the label of the whole graph. Labels take no part
+     * in the cached adjacency or feature matrices, so those are kept.
      */
     public void setNodeLabel(int nodeIndex, double[] newLabel) {
-        List<Graph.GraphNode<NodeData>> nodes = graph.getNodes();
-        if (nodeIndex < 0 || nodeIndex >= nodes.size()) {
+        if (nodeIndex < 0 || nodeIndex >= nodeCount) {
             throw new IllegalArgumentException("Invalid node index");
         }
         if (newLabel.length != numClasses) {
             throw new IllegalArgumentException("Expected label length=" + numClasses);
         }
-        nodes.get(nodeIndex).getData().setLabel(newLabel);
+        System.arraycopy(newLabel, 0, label, 0, numClasses);
     }
 
     /**
-     * Returns a graph-level label (e.g., the label of the first node).
+     * Returns the graph-level label as a [1 x numClasses] matrix.
      */
     public double[][] getGraphLevelLabel() {
         if (getNodeCount() == 0) {
             throw new IllegalStateException("Graph has no nodes");
         }
-        return new double[][] { graph.getNodes().get(0).getData().getLabel() };
+        return new double[][] { label };
     }
 
     /**
-     * Constructs normalized adjacency matrix with self-loops.
+     * Constructs normalized adjacency matrix with self-loops. The matrix is
+     * built once and shared between calls, so callers must not modify it.
      */
     public double[][] getNormalizedAdjMatrix() {
+        if (cachedAdjDense != null) return cachedAdjDense;
         int n = getNodeCount();
         double[][] A = new double[n][n];
+        for (int e = 0; e < edgeCount; e++) {
+            A[edgeFrom[e]][edgeTo[e]] = 1.0;
+            A[edgeTo[e]][edgeFrom[e]] = 1.0;
+        }
         for (int i = 0; i < n; i++) {
-            for (Graph.GraphLink<NodeData> link : graph.getNodes().get(i).getLinks()) {
-                int j = graph.getNodes().indexOf(link.getToNode());
-                A[i][j] = 1.0;
-            }
             A[i][i] = 1.0;
         }
-        return GraphUtils.normalizeAdjacency(A);
+        cachedAdjDense = GraphUtils.normalizeAdjacency(A);
+        return cachedAdjDense;
+    }
+
+    /**
+     * Constructs the same normalized adjacency as {@link #getNormalizedAdjMatrix()}
+     * in CSR form, storing only the ~k neighbours of each node. Built once in
+     * O(n + E) and shared between calls, so callers must not modify it.
+     */
+    public SparseMatrix getNormalizedAdjSparse() {
+        if (cachedAdjSparse != null) return cachedAdjSparse;
+        int n = getNodeCount();
+        int entries = n + 2 * edgeCount; // self-loops plus both directions of every edge
+
+        // 1) Counting sort of all (row, col) entries by column
+        int[] colPtr = new int[n + 1];
+        for (int i = 0; i < n; i++) colPtr[i + 1]++;
+        for (int e = 0; e < edgeCount; e++) {
+            colPtr[edgeTo[e] + 1]++;
+            colPtr[edgeFrom[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) colPtr[i + 1] += colPtr[i];
+        int[] byColRow = new int[entries];
+        int[] fill = Arrays.copyOf(colPtr, n);
+        for (int i = 0; i < n; i++) byColRow[fill[i]++] = i;
+        for (int e = 0; e < edgeCount; e++) {
+            byColRow[fill[edgeTo[e]]++] = edgeFrom[e];
+            byColRow[fill[edgeFrom[e]]++] = edgeTo[e];
+        }
+
+        // 2) Stable distribution into rows, which leaves every row sorted by column
+        int[] rowPtr = new int[n + 1];
+        for (int p = 0; p < entries; p++) rowPtr[byColRow[p] + 1]++;
+        for (int i = 0; i < n; i++) rowPtr[i + 1] += rowPtr[i];
+        int[] cols = new int[entries];
+        fill = Arrays.copyOf(rowPtr, n);
+        for (int c = 0; c < n; c++) {
+            for (int p = colPtr[c]; p < colPtr[c + 1]; p++) {
+                cols[fill[byColRow[p]]++] = c;
+            }
+        }
+
+        // 3) Drop duplicate neighbours (mutual k-NN pairs appear twice)
+        int[] compactPtr = new int[n + 1];
+        int nnz = 0;
+        for (int i = 0; i < n; i++) {
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                if (p == rowPtr[i] || cols[p] != cols[p - 1]) cols[nnz++] = cols[p];
+            }
+            compactPtr[i + 1] = nnz;
+        }
+
+        double[] values = new double[nnz];
+        Arrays.fill(values, 1.0);
+        cachedAdjSparse = GraphUtils.normalizeAdjacency(
+            new SparseMatrix(n, n, compactPtr, Arrays.copyOf(cols, nnz), values));
+        return cachedAdjSparse;
     }
 
     /**
      * Prints each node's class index and its neighbors.
      */
     public void printGraph() {
-        List<Graph.GraphNode<NodeData>> nodes = graph.getNodes();
-        for (int i = 0; i < nodes.size(); i++) {
-            double[] lab = nodes.get(i).getData().getLabel();
-            int cls = -1;
-            for (int k = 0; k < lab.length; k++) {
-                if (lab[k] == 1.0) { cls = k; break; }
-            }
+        int cls = -1;
+        for (int k = 0; label != null && k < label.length; k++) {
+            if (label[k] == 1.0) { cls = k; break; }
+        }
+        SparseMatrix A = getNormalizedAdjSparse();
+        for (int i = 0; i < nodeCount; i++) {
+            int[] neighbors = Arrays.copyOfRange(A.getColIdx(), A.getRowPtr()[i], A.getRowPtr()[i + 1]);
             System.out.println("Node " + i + " → class " + cls + " neighbors=" +
-                nodes.get(i).getLinks());
+                Arrays.toString(neighbors));
         }
     }
 }
@@ -0,0 +1,218 @@
+package WGraph;
+
+import java.util.List;
+
+/**
+ * Several GCNGraphs packed into one disjoint graph: the normalized
+ * adjacencies become the blocks of a single block-diagonal CSR matrix, the
+ * node features are stacked into one matrix and the graph contexts into
+ * another, one row per graph. Graph g owns the rows
+ * offsets[g] .. offsets[g + 1] - 1. Since no edge crosses between blocks,
+ * a GCN layer over the batch gives each graph the same result as running
+ * it on its own. The propagated features are stacked at the precision the
+ * model computes in, converting each graph's storage as it is copied.
+ */
+public class GraphBatch {
+    private final int graphCount;
+    private final int[] offsets;       // length graphCount + 1
+    private final SparseMatrix adjacency;
+    private final Precision precision;
+    private final Matrix propagated;          // stacked Â^hops · N of every graph, DOUBLE
+    private final FloatMatrix floatPropagated;  // the same for FLOAT
+    private final double[] propagatedScale;   // stacked Â^hops · contextScale
+    private final Matrix contexts;            // one context row per graph
+    private final int propagationHops;
+    private final Matrix labels;       // one row per graph
+    private final List<GCNGraph> graphs;
+    private Matrix nodeFeatures;       // stacked per-node features, built on first use
+    private Matrix features;           // logical features, built on first use
+    private FloatMatrix floatFeatures;
+
+    public GraphBatch(List<GCNGraph> graphs) {
+        this(graphs, 1);
+    }
+
+    public GraphBatch(List<GCNGraph> graphs, int propagationHops) {
+        this(graphs, propagationHops, Precision.DOUBLE);
+    }
+
+    /**
+     * Batches the graphs together with their cached first-layer propagation
+     * (see {@link GCNGraph#getPropagatedNodeFeatures}), stacked at the given
+     * precision.
+     */
+    public GraphBatch(List<GCNGraph> graphs, int propagationHops, Precision precision) {
+        if (graphs.isEmpty()) throw new IllegalArgumentException("Cannot batch an empty list of graphs");
+        this.graphs = graphs;
+        graphCount = graphs.size();
+        offsets = new int[graphCount + 1];
+        int nnz = 0;
+        for (int g = 0; g < graphCount; g++) {
+            GCNGraph graph = graphs.get(g);
+            offsets[g + 1] = offsets[g] + graph.getNodeCount();
+            nnz += graph.getNormalizedAdjSparse().nnz();
+        }
+        int totalNodes = offsets[graphCount];
+        int nodeDim = graphs.get(0).getNodeFeatureDim(), contextDim = graphs.get(0).getContextDim();
+        int numClasses = graphs.get(0).getGraphLevelLabel()[0].length;
+
+        int[] rowPtr = new int[totalNodes + 1];
+        int[] colIdx = new int[nnz];
+        double[] values = new double[nnz];
+        this.precision = precision;
+        boolean single = precision == Precision.FLOAT;
+        propagated = single ? null : new Matrix(totalNodes, nodeDim);
+        floatPropagated = single ? new FloatMatrix(totalNodes, nodeDim) : null;
+        propagatedScale = new double[totalNodes];
+        contexts = new Matrix(graphCount, contextDim);
+        this.propagationHops = propagationHops;
+        labels = new Matrix(graphCount, numClasses);
+
+        int pos = 0;
+        for (int g = 0; g < graphCount; g++) {
+            GCNGraph graph = graphs.get(g);
+            if (graph.getNodeFeatureDim() != nodeDim || graph.getContextDim() != contextDim)
+                throw new IllegalArgumentException(
+                    "Expected feature length=" + nodeDim + "+" + contextDim + ", got "
+                    + graph.getNodeFeatureDim() + "+" + graph.getContextDim());
+            int base = offsets[g];
+
+            // Copy the CSR block, shifting rows and columns by the node offset
+            SparseMatrix A = graph.getNormalizedAdjSparse();
+            int[] aPtr = A.getRowPtr(), aCol = A.getColIdx();
+            double[] aVal = A.getValues();
+            for (int i = 0; i < A.getRows(); i++) {
+                for (int p = aPtr[i]; p < aPtr[i + 1]; p++) {
+                    colIdx[pos] = aCol[p] + base;
+                    values[pos++] = aVal[p];
+                }
+                rowPtr[base + i + 1] = pos;
+            }
+
+            // Graphs stored at the other precision are converted straight into the stacked rows
+            int n = graph.getNodeCount();
+            if (single) {
+                FloatMatrix rows = floatPropagated.rowView(base, n);
+                FloatMatrix AN = graph.getPropagatedFloatFeatures(propagationHops, rows);
+                if (AN != rows) rows.copyFrom(AN);
+            } else {
+                Matrix rows = propagated.rowView(base, n);
+                Matrix AN = graph.getPropagatedNodeFeatures(propagationHops, rows);
+                if (AN != rows) rows.copyFrom(AN);
+            }
+            System.arraycopy(graph.getPropagatedContextScale(propagationHops), 0, propagatedScale, base, n);
+            contexts.rowView(g, 1).copyFrom(graph.getContext());
+            double[] label = graph.getGraphLevelLabel()[0];
+            for (int c = 0; c < numClasses; c++) labels.set(g, c, label[c]);
+        }
+        adjacency = new SparseMatrix(totalNodes, totalNodes, rowPtr, colIdx, values);
+    }
+
+    public int getGraphCount() {
+        return graphCount;
+    }
+
+    public int getNodeCount() {
+        return offsets[graphCount];
+    }
+
+    /** First row of graph g; graph g ends at getOffset(g + 1) */
+    public int getOffset(int g) {
+        return offsets[g];
+    }
+
+    /** Block-diagonal normalized adjacency of the whole batch */
+    public SparseMatrix getAdjacency() {
+        return adjacency;
+    }
+
+    /** Row offsets of the graphs, length graphCount + 1; must not be modified */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Stacked logical features (node features and scaled context),
+     * [total nodes x featureDim]. Built on first use, since training only
+     * needs the propagated parts.
+     */
+    public Matrix getFeatures() {
+        if (features == null) {
+            GCNGraph first = graphs.get(0);
+            Matrix f = new Matrix(getNodeCount(), first.getFeatureDim());
+            for (int g = 0; g < graphCount; g++) {
+                Matrix rows = f.rowView(offsets[g], offsets[g + 1] - offsets[g]);
+                Matrix X = graphs.get(g).getFeatures(rows);
+                if (X != rows) rows.copyFrom(X);
+            }
+            features = f;
+        }
+        return features;
+    }
+
+    /** Single-precision {@link #getFeatures()}, built on first use */
+    public FloatMatrix getFloatFeatures() {
+        if (floatFeatures == null) {
+            GCNGraph first = graphs.get(0);
+            FloatMatrix f = new FloatMatrix(getNodeCount(), first.getFeatureDim());
+            for (int g = 0; g < graphCount; g++) {
+                FloatMatrix rows = f.rowView(offsets[g], offsets[g + 1] - offsets[g]);
+                FloatMatrix X = graphs.get(g).getFloatFeatures(rows);
+                if (X != rows) rows.copyFrom(X);
+            }
+            floatFeatures = f;
+        }
+        return floatFeatures;
+    }
+
+    /** Stacked per-node features, [total nodes x nodeFeatureDim], built on first use */
+    public Matrix getNodeFeatures() {
+        if (nodeFeatures == null) {
+            Matrix f = new Matrix(getNodeCount(), graphs.get(0).getNodeFeatureDim());
+            for (int g = 0; g < graphCount; g++) {
+                Matrix rows = f.rowView(offsets[g], offsets[g + 1] - offsets[g]);
+                Matrix X = graphs.get(g).getNodeFeatures(rows);
+                if (X != rows) rows.copyFrom(X);
+            }
+            nodeFeatures = f;
+        }
+        return nodeFeatures;
+    }
+
+    /** Precision the propagated features are stacked at */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Stacked Â^hops · N, the per-node input of the first GCN layer; null
+     * for a FLOAT batch
+     */
+    public Matrix getPropagatedNodeFeatures() {
+        return propagated;
+    }
+
+    /** The same for a FLOAT batch; null for a DOUBLE one */
+    public FloatMatrix getPropagatedFloatFeatures() {
+        return floatPropagated;
+    }
+
+    /** Stacked Â^hops · contextScale, one entry per row */
+    public double[] getPropagatedContextScale() {
+        return propagatedScale;
+    }
+
+    /** Graph contexts, [graphs x contextDim] */
+    public Matrix getContexts() {
+        return contexts;
+    }
+
+    public int getPropagationHops() {
+        return propagationHops;
+    }
+
+    /** One-hot graph labels, [graphs x classes] */
+    public Matrix getLabels() {
+        return labels;
+    }
+}
@@ -40,6 +40,61 @@ public class GraphUtils {
 
         return A_norm;
     }
+
+    /**
+     * Sparse counterpart of {@link #normalizeAdjacency(double[][])}: adds
+     * self-loops and returns D^{-1/2} (A + I) D^{-1/2} in CSR form.
+     */
+    public static SparseMatrix normalizeAdjacency(SparseMatrix A) {
+        int n = A.getRows();
+        int[] rowPtr = A.getRowPtr();
+        int[] colIdx = A.getColIdx();
+        double[] values = A.getValues();
+
+        // Add self-loops, inserting a diagonal entry where the row has none
+        int[] hatPtr = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            boolean hasDiag = false;
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                if (colIdx[p] == i) { hasDiag = true; break; }
+            }
+            hatPtr[i + 1] = hatPtr[i] + (rowPtr[i + 1] - rowPtr[i]) + (hasDiag ? 0 : 1);
+        }
+        int[] hatIdx = new int[hatPtr[n]];
+        double[] hatVal = new double[hatPtr[n]];
+        double[] D = new double[n];
+        for (int i = 0; i < n; i++) {
+            int q = hatPtr[i];
+            boolean hasDiag = false;
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                hatIdx[q] = colIdx[p];
+                hatVal[q] = colIdx[p] == i ? values[p] + 1 : values[p];
+                if (colIdx[p] == i) hasDiag = true;
+                D[i] += hatVal[q];
+                q++;
+            }
+            if (!hasDiag) {
+                hatIdx[q] = i;
+                hatVal[q] = 1;
+                D[i] += 1;
+            }
+        }
+
+        // Compute D^{-1/2}
+        double[] D_inv_sqrt = new double[n];
+        for (int i = 0; i < n; i++) {
+            D_inv_sqrt[i] = 1.0 / Math.sqrt(D[i]);
+        }
+
+        // Scale every stored entry
+        for (int i = 0; i < n; i++) {
+            for (int p = hatPtr[i]; p < hatPtr[i + 1]; p++) {
+                hatVal[p] = hatVal[p] * D_inv_sqrt[i] * D_inv_sqrt[hatIdx[p]];
+            }
+        }
+
+        return new SparseMatrix(n, A.getCols(), hatPtr, hatIdx, hatVal);
+    }
     
     public static double[][] softmax(double[][] X) {
         double[][] result = new double[X.length][X[0].length];
@@ -65,4 +120,36 @@ public class GraphUtils {
         
         return result;
     }
+
+    /**
+     * Row-wise softmax of X into a new matrix.
+     */
+    public static Matrix softmax(Matrix X) {
+        int rows = X.getRows(), cols = X.getCols();
+        Matrix result = new Matrix(rows, cols);
+        double[] x = X.getData();
+        double[] r = result.getData();
+
+        for (int i = 0; i < rows; i++) {
+            int xi = X.index(i, 0), ri = result.index(i, 0);
+            double max = Double.NEGATIVE_INFINITY;
+            for (int j = 0; j < cols; j++) {
+                if (x[xi + j] > max) {
+                    max = x[xi + j];
+                }
+            }
+
+            double sum = 0.0;
+            for (int j = 0; j < cols; j++) {
+                r[ri + j] = Math.exp(x[xi + j] - max); // Numerical stability
+                sum += r[ri + j];
+            }
+
+            for (int j = 0; j < cols; j++) {
+                r[ri + j] /= sum;
+            }
+        }
+
+        return result;
+    }
 }
@@ -0,0 +1,183 @@
+package WGraph;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Dense row-major matrix backed by a single contiguous array.
+ * Element (r, c) lives at data[offset + r * stride + c]. Views share the
+ * backing array of the matrix they were taken from, so writes through a
+ * view are visible in the parent.
+ */
+public class Matrix implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final double[] data;
+    private final int offset;
+    private final int rows;
+    private final int cols;
+    private final int stride;
+
+    /**
+     * Creates a zero-filled [rows x cols] matrix.
+     */
+    public Matrix(int rows, int cols) {
+        this(new double[rows * cols], 0, rows, cols, cols);
+    }
+
+    /**
+     * Wraps an existing row-major array of at least rows * cols elements.
+     */
+    public Matrix(int rows, int cols, double[] data) {
+        this(data, 0, rows, cols, cols);
+    }
+
+    public Matrix(double[] data, int offset, int rows, int cols, int stride) {
+        if (rows < 0 || cols < 0)
+            throw new IllegalArgumentException("Negative shape [" + rows + " x " + cols + "]");
+        if (stride < cols)
+            throw new IllegalArgumentException("Stride " + stride + " is smaller than cols " + cols);
+        if (rows > 0 && cols > 0 && offset + (rows - 1) * stride + cols > data.length)
+            throw new IllegalArgumentException("Backing array too small for [" + rows + " x " + cols + "]");
+        this.data = data;
+        this.offset = offset;
+        this.rows = rows;
+        this.cols = cols;
+        this.stride = stride;
+    }
+
+    /**
+     * Copies a jagged array into a new contiguous matrix. Returns null for null.
+     */
+    public static Matrix fromArray(double[][] a) {
+        if (a == null) return null;
+        int rows = a.length;
+        int cols = rows == 0 ? 0 : a[0].length;
+        Matrix m = new Matrix(rows, cols);
+        for (int i = 0; i < rows; i++) {
+            if (a[i].length != cols)
+                throw new IllegalArgumentException("Row " + i + " has length " + a[i].length + ", expected " + cols);
+            System.arraycopy(a[i], 0, m.data, i * cols, cols);
+        }
+        return m;
+    }
+
+    /**
+     * Copies the matrix out to a jagged array.
+     */
+    public double[][] toArray() {
+        double[][] a = new double[rows][];
+        for (int i = 0; i < rows; i++) {
+            a[i] = Arrays.copyOfRange(data, offset + i * stride, offset + i * stride + cols);
+        }
+        return a;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the backing array. Use {@link #index(int, int)} to address it.
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    public int index(int r, int c) {
+        return offset + r * stride + c;
+    }
+
+    public double get(int r, int c) {
+        return data[offset + r * stride + c];
+    }
+
+    public void set(int r, int c, double value) {
+        data[offset + r * stride + c] = value;
+    }
+
+    public void add(int r, int c, double value) {
+        data[offset + r * stride + c] += value;
+    }
+
+    /**
+     * True when the rows are packed back to back with no gap.
+     */
+    public boolean isContiguous() {
+        return stride == cols || rows <= 1;
+    }
+
+    /**
+     * Returns a view of the block starting at (rowStart, colStart).
+     */
+    public Matrix view(int rowStart, int rowCount, int colStart, int colCount) {
+        if (rowStart < 0 || colStart < 0 || rowStart + rowCount > rows || colStart + colCount > cols)
+            throw new IndexOutOfBoundsException("View [" + rowStart + "+" + rowCount + ", " + colStart + "+"
+                + colCount + "] outside [" + rows + " x " + cols + "]");
+        return new Matrix(data, offset + rowStart * stride + colStart, rowCount, colCount, stride);
+    }
+
+    /**
+     * Returns a view of rowCount consecutive rows starting at rowStart.
+     */
+    public Matrix rowView(int rowStart, int rowCount) {
+        return view(rowStart, rowCount, 0, cols);
+    }
+
+    /**
+     * Copies row r out to a new array.
+     */
+    public double[] copyRow(int r) {
+        int start = offset + r * stride;
+        return Arrays.copyOfRange(data, start, start + cols);
+    }
+
+    /**
+     * Returns a contiguous deep copy of this matrix (or view).
+     */
+    public Matrix copy() {
+        Matrix m = new Matrix(rows, cols);
+        m.copyFrom(this);
+        return m;
+    }
+
+    public void copyFrom(Matrix other) {
+        checkSameShape(other);
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(other.data, other.offset + i * other.stride, data, offset + i * stride, cols);
+        }
+    }
+
+    public void fill(double value) {
+        if (isContiguous()) {
+            Arrays.fill(data, offset, offset + rows * cols, value);
+            return;
+        }
+        for (int i = 0; i < rows; i++) {
+            Arrays.fill(data, offset + i * stride, offset + i * stride + cols, value);
+        }
+    }
+
+    public void checkSameShape(Matrix other) {
+        if (rows != other.rows || cols != other.cols)
+            throw new IllegalArgumentException("Shape mismatch: [" + rows + " x " + cols + "] vs ["
+                + other.rows + " x " + other.cols + "]");
+    }
+
+    @Override
+    public String toString() {
+        return "Matrix[" + rows + " x " + cols + "]";
+    }
+}
@@ -0,0 +1,25 @@
+package WGraph;
+
+/**
+ * Precision in which graph features, model parameters and optimizer state
+ * are stored, and in which a model computes its GCN layers. FLOAT halves
+ * the memory of features and optimizer moments and runs propagation,
+ * matrix products, LeakyReLU and LayerNorm on float activations, twice as
+ * many per SIMD vector; long sums (weight gradients, LayerNorm statistics,
+ * pooling) still accumulate in double, and the dense layer and softmax stay
+ * double. The default comes from the system property gcn.precision
+ * (double or float).
+ */
+public enum Precision {
+    DOUBLE, FLOAT;
+
+    public static Precision fromProperty() {
+        return valueOf(System.getProperty("gcn.precision", "double").toUpperCase());
+    }
+
+    /** Rounds a[from .. to - 1] in place */
+    public void round(double[] a, int from, int to) {
+        if (this == DOUBLE) return;
+        for (int k = from; k < to; k++) a[k] = (float) a[k];
+    }
+}
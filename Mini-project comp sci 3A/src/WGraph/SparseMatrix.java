@@ -0,0 +1,89 @@
+package WGraph;
+
+import java.io.Serializable;
+
+/**
+ * Sparse matrix in compressed sparse row (CSR) form.
+ * Row i owns the entries rowPtr[i] .. rowPtr[i + 1] - 1 of colIdx and values.
+ */
+public class SparseMatrix implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int rows;
+    private final int cols;
+    private final int[] rowPtr;   // length rows + 1
+    private final int[] colIdx;   // length nnz
+    private final double[] values; // length nnz
+
+    public SparseMatrix(int rows, int cols, int[] rowPtr, int[] colIdx, double[] values) {
+        if (rowPtr.length != rows + 1)
+            throw new IllegalArgumentException("Expected rowPtr length=" + (rows + 1) + ", got " + rowPtr.length);
+        if (colIdx.length != values.length || rowPtr[rows] != values.length)
+            throw new IllegalArgumentException("CSR arrays do not agree on the number of entries");
+        this.rows = rows;
+        this.cols = cols;
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.values = values;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int nnz() {
+        return values.length;
+    }
+
+    public int[] getRowPtr() {
+        return rowPtr;
+    }
+
+    public int[] getColIdx() {
+        return colIdx;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * Sparse-dense product this * B, costing O(nnz * d) instead of O(n^2 * d).
+     */
+    public Matrix multiply(Matrix B) {
+        if (B.getRows() != cols)
+            throw new IllegalArgumentException("multiply dimension mismatch: " + cols + " vs " + B.getRows());
+        int d = B.getCols();
+        Matrix result = new Matrix(rows, d);
+        double[] b = B.getData();
+        double[] out = result.getData();
+        for (int i = 0; i < rows; i++) {
+            int o = result.index(i, 0);
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                double a = values[p];
+                int r = B.index(colIdx[p], 0);
+                for (int j = 0; j < d; j++) {
+                    out[o + j] += a * b[r + j];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Expands the matrix to a dense [rows x cols] array.
+     */
+    public double[][] toDense() {
+        double[][] dense = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                dense[i][colIdx[p]] += values[p];
+            }
+        }
+        return dense;
+    }
+}
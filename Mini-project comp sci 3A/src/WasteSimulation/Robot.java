@@ -26,7 +26,7 @@ public class Robot {
         this.col = c;
         this.fieldOfView = simulation.fieldOfView;
         this.exploredMap = new boolean[simulation.rows][simulation.cols];
-        GCNInferenceHelper.loadModel("saved_sessions/TRAIN_epoch3248_20250511_200748Acccuracy%0.0.dat");
+        GCNInferenceHelper.loadModel("saved_sessions/TRAIN_epoch3248_20250511_200748Acccuracy%0.0.ckpt");
         // Initialize with all bins from simulation
         this.knownBins = new ArrayList<>(simulation.bins);
         exploreCurrentPosition();